@@ -0,0 +1,161 @@
+package com.github.tutar.http;
+
+import java.io.Closeable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which a call, including its queueing, retries and body
+ * read, must have completed
+ * <p>
+ * A deadline can be bound to the current thread with {@link #bind()}, every
+ * request sent by that thread then completes by the bound deadline even if
+ * it sets a later one. Binding a deadline while another is bound keeps the
+ * earlier of the two, so nested calls never outlive the calls they are
+ * made for.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<Deadline>();
+
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "http-deadline");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final long nanos;
+
+    private Deadline(final long nanos) {
+        this.nanos = nanos;
+    }
+
+    /**
+     * Create a deadline the given time from now
+     *
+     * @param timeout
+     * @param unit
+     * @return deadline
+     */
+    public static Deadline after(final long timeout, final TimeUnit unit) {
+        if (timeout < 0)
+            throw new IllegalArgumentException("Timeout must not be negative");
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * Get the deadline bound to the current thread
+     *
+     * @return deadline or null if none is bound
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Get the earlier of the given deadline and the one bound to the current
+     * thread
+     *
+     * @param deadline
+     *          may be null
+     * @return deadline or null if neither exists
+     */
+    public static Deadline effective(final Deadline deadline) {
+        Deadline current = CURRENT.get();
+        if (deadline == null)
+            return current;
+        return deadline.earlier(current);
+    }
+
+    /**
+     * Get the earlier of this and the given deadline
+     *
+     * @param other
+     *          may be null
+     * @return deadline
+     */
+    public Deadline earlier(final Deadline other) {
+        return other != null && other.nanos - nanos < 0 ? other : this;
+    }
+
+    /**
+     * Get the time left until this deadline
+     *
+     * @param unit
+     * @return time left, zero once expired
+     */
+    public long remaining(final TimeUnit unit) {
+        long remaining = nanos - System.nanoTime();
+        return remaining > 0 ? unit.convert(remaining, TimeUnit.NANOSECONDS) : 0;
+    }
+
+    /**
+     * Has this deadline passed?
+     *
+     * @return true if passed
+     */
+    public boolean isExpired() {
+        return nanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Run the given action on a shared timer thread once this deadline passes
+     *
+     * @param action
+     * @return future to cancel the action with
+     */
+    public Future<?> schedule(final Runnable action) {
+        return TIMER.schedule(action, nanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Bind this deadline to the current thread until the returned scope is
+     * closed
+     * <p>
+     * The earlier of this deadline and the one already bound applies.
+     *
+     * @return scope restoring the previous deadline when closed
+     */
+    public Scope bind() {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(earlier(previous));
+        return new Scope(previous);
+    }
+
+    /**
+     * Binding of a deadline to the current thread
+     */
+    public static final class Scope implements Closeable {
+
+        private final Deadline previous;
+
+        private Scope(final Deadline previous) {
+            this.previous = previous;
+        }
+
+        /**
+         * Restore the deadline bound before this scope
+         */
+        @Override
+        public void close() {
+            if (previous != null)
+                CURRENT.set(previous);
+            else
+                CURRENT.remove();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Deadline{remainingMs=" + remaining(TimeUnit.MILLISECONDS) + '}';
+    }
+}
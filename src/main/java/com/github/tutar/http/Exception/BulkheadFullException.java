@@ -0,0 +1,33 @@
+package com.github.tutar.http.Exception;
+
+import java.io.IOException;
+
+/**
+ * HTTP request exception thrown without contacting the server because the
+ * bulkhead had no free slot for the host in time
+ */
+public class BulkheadFullException extends HttpRequestException {
+
+    private static final long serialVersionUID = 6470128537316447046L;
+
+    private final String host;
+
+    /**
+     * Create a new BulkheadFullException for the given host
+     *
+     * @param host
+     */
+    public BulkheadFullException(final String host) {
+        super(new IOException("Too many requests in flight to " + host));
+        this.host = host;
+    }
+
+    /**
+     * Get the host the request was made to
+     *
+     * @return host
+     */
+    public String getHost() {
+        return host;
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.tutar.http.Exception;
+
+import java.io.IOException;
+
+/**
+ * HTTP request exception thrown without contacting the server because the
+ * circuit breaker of the host is open
+ */
+public class CircuitBreakerOpenException extends HttpRequestException {
+
+    private static final long serialVersionUID = 4203584467245823390L;
+
+    private final String host;
+
+    /**
+     * Create a new CircuitBreakerOpenException for the given host
+     *
+     * @param host
+     */
+    public CircuitBreakerOpenException(final String host) {
+        super(new IOException("Circuit breaker is open for " + host));
+        this.host = host;
+    }
+
+    /**
+     * Get the host whose circuit breaker rejected the request
+     *
+     * @return host
+     */
+    public String getHost() {
+        return host;
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.tutar.http.Exception;
+
+import java.io.InterruptedIOException;
+
+/**
+ * HTTP request exception thrown when the deadline of a call passed before
+ * it completed
+ */
+public class DeadlineExceededException extends HttpRequestException {
+
+    private static final long serialVersionUID = -4196713554727702531L;
+
+    private final String host;
+
+    /**
+     * Create a new DeadlineExceededException for the given host
+     *
+     * @param host
+     */
+    public DeadlineExceededException(final String host) {
+        super(new InterruptedIOException("Deadline exceeded for request to " + host));
+        this.host = host;
+    }
+
+    /**
+     * Get the host the request was made to
+     *
+     * @return host
+     */
+    public String getHost() {
+        return host;
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.tutar.http.Exception;
+
+import java.io.IOException;
+
+/**
+ * HTTP request exception thrown without contacting the server because no
+ * permit of the client-side rate limiter became available in time
+ */
+public class RateLimitExceededException extends HttpRequestException {
+
+    private static final long serialVersionUID = -2271390413862251877L;
+
+    private final String host;
+
+    /**
+     * Create a new RateLimitExceededException for the given host
+     *
+     * @param host
+     */
+    public RateLimitExceededException(final String host) {
+        super(new IOException("Rate limit exceeded for " + host));
+        this.host = host;
+    }
+
+    /**
+     * Get the host whose rate limiter rejected the request
+     *
+     * @return host
+     */
+    public String getHost() {
+        return host;
+    }
+}
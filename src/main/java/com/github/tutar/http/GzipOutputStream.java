@@ -0,0 +1,40 @@
+package com.github.tutar.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link GZIPOutputStream} with a configurable compression level
+ */
+public class GzipOutputStream extends GZIPOutputStream {
+
+    /**
+     * Create a gzip stream writing to the given stream
+     *
+     * @param out
+     * @param level
+     *          0-9 or {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
+     * @param bufferSize
+     * @throws IOException
+     */
+    public GzipOutputStream(final OutputStream out, final int level,
+                            final int bufferSize) throws IOException {
+        super(out, bufferSize);
+        def.setLevel(level);
+    }
+
+    /**
+     * Write the remaining compressed data and the gzip trailer and free the
+     * deflater, leaving the wrapped stream open
+     *
+     * @throws IOException
+     */
+    public void finishAndRelease() throws IOException {
+        try {
+            finish();
+        } finally {
+            def.end();
+        }
+    }
+}
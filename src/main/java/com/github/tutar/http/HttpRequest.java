@@ -21,10 +21,19 @@
  */
 package com.github.tutar.http;
 
+import com.github.tutar.http.Exception.BulkheadFullException;
+import com.github.tutar.http.Exception.CircuitBreakerOpenException;
+import com.github.tutar.http.Exception.DeadlineExceededException;
 import com.github.tutar.http.Exception.HttpRequestException;
 import com.github.tutar.http.Exception.RequestOutputStream;
 import com.github.tutar.http.operation.CloseOperation;
 import com.github.tutar.http.operation.FlushOperation;
+import com.github.tutar.http.RequestTiming.Phase;
+import com.github.tutar.http.codec.Codec;
+import com.github.tutar.http.metrics.LatencyHistograms;
+import com.github.tutar.http.policy.Bulkhead;
+import com.github.tutar.http.policy.CircuitBreaker;
+import com.github.tutar.http.policy.CircuitBreakerRegistry;
 
 import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
 import static java.net.HttpURLConnection.HTTP_CREATED;
@@ -42,9 +51,9 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -71,8 +80,11 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 
 import javax.net.ssl.HostnameVerifier;
@@ -319,6 +331,49 @@ public class HttpRequest {
       CONNECTION_FACTORY = connectionFactory;
   }
 
+  private static CircuitBreakerRegistry CIRCUIT_BREAKERS;
+
+  /**
+   * Specify the {@link CircuitBreakerRegistry} guarding the hosts of new
+   * requests, null to disable circuit breaking
+   * <p>
+   * Connection failures and 5xx responses count as failed calls. When the
+   * breaker of a host is open a {@link CircuitBreakerOpenException} is thrown
+   * before the request is sent.
+   */
+  public static void setCircuitBreakers(final CircuitBreakerRegistry registry) {
+    CIRCUIT_BREAKERS = registry;
+  }
+
+  private static final LatencyHistograms LATENCIES = new LatencyHistograms();
+
+  private static final TagRegistry<HttpRequest> TAGS = new TagRegistry<HttpRequest>();
+
+  /**
+   * Get the latency histograms of all requests, by host and status class
+   * <p>
+   * Latencies are measured from sending the request to reading the response
+   * status.
+   *
+   * @return histograms
+   */
+  public static LatencyHistograms latencies() {
+    return LATENCIES;
+  }
+
+  private static Bulkhead BULKHEAD;
+
+  /**
+   * Specify the {@link Bulkhead} limiting the requests in flight, in total and
+   * per host, null to disable the limits
+   * <p>
+   * A slot is taken when a request first goes to the network and released
+   * once the response code has been read or the request is disconnected.
+   */
+  public static void setBulkhead(final Bulkhead bulkhead) {
+    BULKHEAD = bulkhead;
+  }
+
   /**
    * Start a 'GET' request to the given URL
    *
@@ -801,6 +856,10 @@ public class HttpRequest {
 
   private int bufferSize = 8192;
 
+  private long compressMinSize = -1;
+
+  private int compressLevel;
+
   private long totalSize = -1;
 
   private long totalWritten = 0;
@@ -811,6 +870,44 @@ public class HttpRequest {
 
   private UploadProgress progress = UploadProgress.DEFAULT;
 
+  private final CircuitBreakerRegistry circuitBreakers = CIRCUIT_BREAKERS;
+
+  private final Bulkhead bulkhead = BULKHEAD;
+
+  private boolean policiesChecked;
+
+  private Bulkhead.Permit bulkheadPermit;
+
+  /**
+   * Breaker still awaiting the outcome of the request, cleared once recorded
+   * since {@link #cancel(Object)} may race with the request thread
+   */
+  private final AtomicReference<CircuitBreaker> circuitBreaker = new AtomicReference<CircuitBreaker>();
+
+  private long circuitBreakerStart;
+
+  private RequestTiming timing;
+
+  private long timingStart;
+
+  private long writeStart;
+
+  private boolean connected;
+
+  private boolean latencyRecorded;
+
+  private long deadlineNanos = -1;
+
+  private Deadline deadline;
+
+  private Future<?> deadlineExpiry;
+
+  private volatile boolean deadlineExpired;
+
+  private Object tag;
+
+  private volatile boolean cancelled;
+
   /**
    * Create HTTP connection wrapper
    *
@@ -900,6 +997,188 @@ public class HttpRequest {
     return ignoreCloseExceptions;
   }
 
+  /**
+   * Take a bulkhead slot and ask the circuit breaker of the host for
+   * permission the first time the request goes to the network
+   *
+   * @throws HttpRequestException
+   */
+  private void acquirePolicies() throws IOException {
+    if (policiesChecked)
+      return;
+    policiesChecked = true;
+    timing = new RequestTiming();
+    timingStart = System.nanoTime();
+    startCall();
+    if (bulkhead != null)
+      acquireBulkhead();
+    timing.set(Phase.QUEUE, System.nanoTime() - timingStart);
+    try {
+      acquireCircuitBreaker();
+    } catch (HttpRequestException e) {
+      releaseBulkhead();
+      throw e;
+    }
+  }
+
+  private void acquireBulkhead() throws IOException {
+    if (deadline == null) {
+      bulkheadPermit = bulkhead.acquire(url.getHost());
+      return;
+    }
+    try {
+      bulkheadPermit = bulkhead.acquire(url.getHost(),
+          deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+    } catch (BulkheadFullException e) {
+      finishCall();
+      if (deadline.isExpired())
+        throw new DeadlineExceededException(url.getHost());
+      throw e;
+    }
+  }
+
+  /**
+   * Register the request under its tag and start enforcing its deadline:
+   * socket timeouts are capped to the time left and the connection is
+   * disconnected once it passes
+   */
+  private void startCall() {
+    if (tag != null)
+      TAGS.add(tag, this);
+    deadline = Deadline.effective(deadlineNanos >= 0
+        ? Deadline.after(deadlineNanos, TimeUnit.NANOSECONDS) : null);
+    if (deadline == null)
+      return;
+    final HttpURLConnection connection = getConnection();
+    final int remaining = (int) Math.max(1,
+        Math.min(Integer.MAX_VALUE, deadline.remaining(TimeUnit.MILLISECONDS)));
+    if (connection.getConnectTimeout() == 0
+        || connection.getConnectTimeout() > remaining)
+      connection.setConnectTimeout(remaining);
+    if (connection.getReadTimeout() == 0 || connection.getReadTimeout() > remaining)
+      connection.setReadTimeout(remaining);
+    deadlineExpiry = deadline.schedule(new Runnable() {
+
+      public void run() {
+        deadlineExpired = true;
+        connection.disconnect();
+      }
+    });
+  }
+
+  /**
+   * The request is complete, unregister it and stop its deadline
+   */
+  private void finishCall() {
+    if (tag != null)
+      TAGS.remove(tag, this);
+    final Future<?> expiry = deadlineExpiry;
+    if (expiry != null) {
+      deadlineExpiry = null;
+      expiry.cancel(false);
+    }
+  }
+
+  /**
+   * Was the connection disconnected by the deadline or a cancellation? A
+   * concurrent disconnect can fail calls in progress on the connection with
+   * arbitrary runtime exceptions.
+   *
+   * @return true if aborted
+   */
+  private boolean aborted() {
+    return cancelled || deadlineExpired;
+  }
+
+  /**
+   * Wrap the failure of the request, reporting an expired deadline as such
+   *
+   * @param e
+   * @return exception to throw
+   */
+  private HttpRequestException failure(final IOException e) {
+    finishCall();
+    if (!deadlineExpired && (deadline == null || !deadline.isExpired()))
+      return new HttpRequestException(e);
+    final DeadlineExceededException exceeded = new DeadlineExceededException(
+        url.getHost());
+    exceeded.addSuppressed(e);
+    return exceeded;
+  }
+
+  /**
+   * Connect explicitly so the connect phase can be timed
+   *
+   * @throws IOException
+   */
+  private void connect() throws IOException {
+    if (connected)
+      return;
+    connected = true;
+    final long start = System.nanoTime();
+    getConnection().connect();
+    timing.set(Phase.CONNECT, System.nanoTime() - start);
+  }
+
+  /**
+   * Record the body having been read since the given time
+   *
+   * @param start
+   */
+  private void bodyRead(final long start) {
+    finishCall();
+    if (timing == null)
+      return;
+    final long now = System.nanoTime();
+    timing.set(Phase.BODY_READ, now - start);
+    timing.set(Phase.TOTAL, now - timingStart);
+  }
+
+  private void recordLatency(final int code, final long end) {
+    if (latencyRecorded || timing == null)
+      return;
+    latencyRecorded = true;
+    LATENCIES.record(url.getHost(), code, end - timingStart);
+  }
+
+  private void releaseBulkhead() {
+    final Bulkhead.Permit permit = bulkheadPermit;
+    if (permit != null) {
+      bulkheadPermit = null;
+      permit.release();
+    }
+  }
+
+  /**
+   * Ask the circuit breaker of the host for permission
+   *
+   * @throws CircuitBreakerOpenException
+   */
+  private void acquireCircuitBreaker() {
+    if (circuitBreakers == null)
+      return;
+    final CircuitBreaker breaker = circuitBreakers.forHost(url.getHost());
+    if (!breaker.tryAcquire())
+      throw new CircuitBreakerOpenException(url.getHost());
+    circuitBreakerStart = System.nanoTime();
+    circuitBreaker.set(breaker);
+  }
+
+  /**
+   * Record the outcome of the request with its circuit breaker, at most once
+   *
+   * @param failed
+   */
+  private void recordCircuitBreaker(final boolean failed) {
+    final CircuitBreaker breaker = circuitBreaker.getAndSet(null);
+    if (breaker == null)
+      return;
+    if (failed)
+      breaker.onFailure(System.nanoTime() - circuitBreakerStart);
+    else
+      breaker.onSuccess(System.nanoTime() - circuitBreakerStart);
+  }
+
   /**
    * Get the status code of the response
    *
@@ -908,13 +1187,51 @@ public class HttpRequest {
    */
   public int code() throws HttpRequestException {
     try {
-      closeOutput();
-      return getConnection().getResponseCode();
+      return responseCode();
     } catch (IOException e) {
       throw new HttpRequestException(e);
     }
   }
 
+  /**
+   * Send the request if needed and read the status code of the response,
+   * timing and recording the first read with the circuit breaker
+   *
+   * @return the response code
+   * @throws IOException
+   */
+  private int responseCode() throws IOException {
+    try {
+      acquirePolicies();
+      closeOutput();
+      connect();
+      if (timing.nanos(Phase.TTFB) >= 0)
+        return getConnection().getResponseCode();
+      final long start = System.nanoTime();
+      final int code = getConnection().getResponseCode();
+      final long end = System.nanoTime();
+      timing.set(Phase.TTFB, end - start);
+      timing.set(Phase.TOTAL, end - timingStart);
+      recordCircuitBreaker(code >= HTTP_INTERNAL_ERROR);
+      recordLatency(code, end);
+      return code;
+    } catch (IOException e) {
+      recordCircuitBreaker(true);
+      recordLatency(-1, System.nanoTime());
+      if (aborted())
+        throw failure(e);
+      throw e;
+    } catch (RuntimeException e) {
+      recordCircuitBreaker(true);
+      if (!aborted() || e instanceof HttpRequestException)
+        throw e;
+      recordLatency(-1, System.nanoTime());
+      throw failure(new IOException("Request aborted", e));
+    } finally {
+      releaseBulkhead();
+    }
+  }
+
   /**
    * Set the value of the given {@link AtomicInteger} to the status code of the
    * response
@@ -1007,19 +1324,69 @@ public class HttpRequest {
    */
   public String message() throws HttpRequestException {
     try {
-      closeOutput();
+      responseCode();
       return getConnection().getResponseMessage();
     } catch (IOException e) {
       throw new HttpRequestException(e);
     }
   }
 
+  /**
+   * Get the time this request spent in each phase of the call
+   * <p>
+   * The connect phase includes DNS and TLS, which the underlying
+   * {@link HttpURLConnection} does not expose separately, and reuse of pooled
+   * connections is not observable. The body read phase is only measured when
+   * the body is read through {@link #body()}, {@link #bytes()} or
+   * {@link #receive(OutputStream)}.
+   *
+   * @return timing or null if the request has not been sent
+   */
+  public RequestTiming timing() {
+    return timing;
+  }
+
+  /**
+   * Tag this request so it can be cancelled with {@link #cancel(Object)}
+   * while it is in flight
+   *
+   * @param tag
+   * @return this request
+   */
+  public HttpRequest tag(final Object tag) {
+    this.tag = tag;
+    return this;
+  }
+
+  /**
+   * Disconnect every in-flight request with the given tag
+   * <p>
+   * A request is in flight from being sent until its response body has been
+   * read or it has been disconnected. Reads and writes blocked on a
+   * cancelled request fail and its connection is closed.
+   *
+   * @param tag
+   * @return number of requests cancelled
+   */
+  public static int cancel(final Object tag) {
+    final List<HttpRequest> requests = TAGS.removeAll(tag);
+    for (HttpRequest request : requests) {
+      request.cancelled = true;
+      request.disconnect();
+    }
+    return requests.size();
+  }
+
   /**
    * Disconnect the connection
    *
    * @return this request
    */
   public HttpRequest disconnect() {
+    finishCall();
+    // 未读取响应就断开视为失败
+    recordCircuitBreaker(true);
+    releaseBulkhead();
     getConnection().disconnect();
     return this;
   }
@@ -1087,6 +1454,45 @@ public class HttpRequest {
     return this;
   }
 
+  /**
+   * Gzip compress the request body while it is sent when it is at least the
+   * given number of bytes long
+   * <p>
+   * The body is sent with a 'Content-Encoding: gzip' header, the server must
+   * accept compressed request bodies. The length of files and byte arrays is
+   * known up front, bodies sent from streams and readers are always
+   * compressed. Do not combine with a fixed 'Content-Length'.
+   *
+   * @param minSize
+   *          smaller bodies are sent as is
+   * @return this request
+   */
+  public HttpRequest compress(final long minSize) {
+    return compress(minSize, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Gzip compress the request body while it is sent when it is at least the
+   * given number of bytes long
+   *
+   * @param minSize
+   *          smaller bodies are sent as is
+   * @param level
+   *          compression level 0-9
+   * @return this request
+   * @see #compress(long)
+   */
+  public HttpRequest compress(final long minSize, final int level) {
+    if (minSize < 0)
+      throw new IllegalArgumentException("Min size must not be negative");
+    if (level != Deflater.DEFAULT_COMPRESSION
+        && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION))
+      throw new IllegalArgumentException("Level must be between 0 and 9");
+    compressMinSize = minSize;
+    compressLevel = level;
+    return this;
+  }
+
   /**
    * Create byte array output stream
    *
@@ -1113,10 +1519,13 @@ public class HttpRequest {
   public String body(final String charset) throws HttpRequestException {
     final ByteArrayOutputStream output = byteStream();
     try {
-      copy(buffer(), output);
+      final InputStream input = buffer();
+      final long start = System.nanoTime();
+      copy(input, output);
+      bodyRead(start);
       return output.toString(getValidCharset(charset));
     } catch (IOException e) {
-      throw new HttpRequestException(e);
+      throw failure(e);
     }
   }
 
@@ -1178,13 +1587,53 @@ public class HttpRequest {
   public byte[] bytes() throws HttpRequestException {
     final ByteArrayOutputStream output = byteStream();
     try {
-      copy(buffer(), output);
+      final InputStream input = buffer();
+      final long start = System.nanoTime();
+      copy(input, output);
+      bodyRead(start);
     } catch (IOException e) {
-      throw new HttpRequestException(e);
+      throw failure(e);
     }
     return output.toByteArray();
   }
 
+  /**
+   * Decode response body with the given codec
+   * <p>
+   * The body is decoded directly from the buffered response stream without
+   * being held in memory as a whole.
+   *
+   * @param type
+   * @param codec
+   * @return value
+   * @throws HttpRequestException
+   */
+  public <T> T as(final Class<T> type, final Codec codec)
+      throws HttpRequestException {
+    final InputStream input = buffer();
+    final long start = System.nanoTime();
+    final T value;
+    try {
+      value = new CloseOperation<T>(input, ignoreCloseExceptions) {
+
+        @Override
+        protected T run() throws IOException {
+          return codec.decode(input, type);
+        }
+      }.call();
+    } catch (HttpRequestException e) {
+      if (aborted() && e.getCause() != null)
+        throw failure(e.getCause());
+      throw e;
+    } catch (RuntimeException e) {
+      if (!aborted())
+        throw e;
+      throw failure(new IOException("Request aborted", e));
+    }
+    bodyRead(start);
+    return value;
+  }
+
   /**
    * Get response in a buffered stream
    *
@@ -1323,9 +1772,13 @@ public class HttpRequest {
   public HttpRequest receive(final OutputStream output)
       throws HttpRequestException {
     try {
-      return copy(buffer(), output);
+      final InputStream input = buffer();
+      final long start = System.nanoTime();
+      copy(input, output);
+      bodyRead(start);
+      return this;
     } catch (IOException e) {
-      throw new HttpRequestException(e);
+      throw failure(e);
     }
   }
 
@@ -1407,6 +1860,27 @@ public class HttpRequest {
     return this;
   }
 
+  /**
+   * Complete this request within the given time of sending it, or fail it
+   * with a {@link DeadlineExceededException}
+   * <p>
+   * The deadline covers waiting for a bulkhead slot, connecting, writing
+   * the body and reading the response through {@link #body()},
+   * {@link #bytes()} or the receive methods. The connection is disconnected
+   * once it passes. A deadline bound with {@link Deadline#bind()} applies as
+   * well when it is earlier.
+   *
+   * @param timeout
+   * @param unit
+   * @return this request
+   */
+  public HttpRequest deadline(final long timeout, final TimeUnit unit) {
+    if (timeout < 0)
+      throw new IllegalArgumentException("Timeout must not be negative");
+    deadlineNanos = unit.toNanos(timeout);
+    return this;
+  }
+
   /**
    * Set header name to given value
    *
@@ -1456,6 +1930,18 @@ public class HttpRequest {
     return header(header.getKey(), header.getValue());
   }
 
+  /**
+   * Read the response before its headers are accessed, failures are reported
+   * by the header accessors as missing headers
+   */
+  private void awaitResponse() {
+    try {
+      responseCode();
+    } catch (IOException ignored) {
+      // Ignored
+    }
+  }
+
   /**
    * Get a response header
    *
@@ -1465,6 +1951,7 @@ public class HttpRequest {
    */
   public String header(final String name) throws HttpRequestException {
     closeOutputQuietly();
+    awaitResponse();
     return getConnection().getHeaderField(name);
   }
 
@@ -1476,6 +1963,7 @@ public class HttpRequest {
    */
   public Map<String, List<String>> headers() throws HttpRequestException {
     closeOutputQuietly();
+    awaitResponse();
     return getConnection().getHeaderFields();
   }
 
@@ -1503,6 +1991,7 @@ public class HttpRequest {
   public long dateHeader(final String name, final long defaultValue)
       throws HttpRequestException {
     closeOutputQuietly();
+    awaitResponse();
     return getConnection().getHeaderFieldDate(name, defaultValue);
   }
 
@@ -1531,6 +2020,7 @@ public class HttpRequest {
   public int intHeader(final String name, final int defaultValue)
       throws HttpRequestException {
     closeOutputQuietly();
+    awaitResponse();
     return getConnection().getHeaderFieldInt(name, defaultValue);
   }
 
@@ -1965,20 +2455,31 @@ public class HttpRequest {
    */
   protected HttpRequest copy(final InputStream input, final OutputStream output)
       throws IOException {
-    return new CloseOperation<HttpRequest>(input, ignoreCloseExceptions) {
-
-      @Override
-      public HttpRequest run() throws IOException {
-        final byte[] buffer = new byte[bufferSize];
-        int read;
-        while ((read = input.read(buffer)) != -1) {
-          output.write(buffer, 0, read);
-          totalWritten += read;
-          progress.onUpload(totalWritten, totalSize);
+    try {
+      return new CloseOperation<HttpRequest>(input, ignoreCloseExceptions) {
+
+        @Override
+        public HttpRequest run() throws IOException {
+          final byte[] buffer = new byte[bufferSize];
+          int read;
+          while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+            totalWritten += read;
+            progress.onUpload(totalWritten, totalSize);
+          }
+          return HttpRequest.this;
         }
-        return HttpRequest.this;
-      }
-    }.call();
+      }.call();
+    } catch (HttpRequestException e) {
+      // 连接被截止时间或取消断开
+      if (aborted() && e.getCause() != null)
+        throw failure(e.getCause());
+      throw e;
+    } catch (RuntimeException e) {
+      if (!aborted())
+        throw e;
+      throw failure(new IOException("Request aborted", e));
+    }
   }
 
   /**
@@ -2050,6 +2551,7 @@ public class HttpRequest {
     else
       output.close();
     output = null;
+    timing.set(Phase.REQUEST_WRITE, System.nanoTime() - writeStart);
     return this;
   }
 
@@ -2075,17 +2577,93 @@ public class HttpRequest {
    * @throws IOException
    */
   protected HttpRequest openOutput() throws IOException {
+    return openOutput(totalSize);
+  }
+
+  /**
+   * Open output stream, compressed if enabled and the body is at least the
+   * minimum size
+   *
+   * @param length
+   *          body length if known, -1 otherwise
+   * @return this request
+   * @throws IOException
+   */
+  private HttpRequest openOutput(final long length) throws IOException {
     if (output != null) {
       return this;
     }
+    acquirePolicies();
     getConnection().setDoOutput(true);
     final String charset = getParam(
         getConnection().getRequestProperty(HEADER_CONTENT_TYPE), PARAM_CHARSET);
-    output = new RequestOutputStream(getConnection().getOutputStream(), charset,
-        bufferSize);
+    final boolean compress = compressMinSize >= 0
+        && (length < 0 || length >= compressMinSize);
+    if (compress)
+      getConnection().setRequestProperty(HEADER_CONTENT_ENCODING, ENCODING_GZIP);
+    try {
+      connect();
+      writeStart = System.nanoTime();
+      OutputStream stream = recordWriteFailures(getConnection().getOutputStream());
+      if (compress)
+        stream = new GzipOutputStream(stream, compressLevel, bufferSize);
+      output = new RequestOutputStream(stream, charset, bufferSize);
+    } catch (IOException e) {
+      recordCircuitBreaker(true);
+      recordLatency(-1, System.nanoTime());
+      releaseBulkhead();
+      if (aborted())
+        throw failure(e);
+      throw e;
+    }
     return this;
   }
 
+  /**
+   * Record a failed write of the request body with the circuit breaker, the
+   * response that would report the outcome is never read after it
+   *
+   * @param stream
+   * @return stream
+   */
+  private OutputStream recordWriteFailures(final OutputStream stream) {
+    if (circuitBreaker.get() == null)
+      return stream;
+    return new FilterOutputStream(stream) {
+
+      @Override
+      public void write(final int b) throws IOException {
+        try {
+          out.write(b);
+        } catch (IOException e) {
+          recordCircuitBreaker(true);
+          throw e;
+        }
+      }
+
+      @Override
+      public void write(final byte[] b, final int off, final int len)
+          throws IOException {
+        try {
+          out.write(b, off, len);
+        } catch (IOException e) {
+          recordCircuitBreaker(true);
+          throw e;
+        }
+      }
+
+      @Override
+      public void flush() throws IOException {
+        try {
+          out.flush();
+        } catch (IOException e) {
+          recordCircuitBreaker(true);
+          throw e;
+        }
+      }
+    };
+  }
+
   /**
    * Start part of a multipart
    *
@@ -2255,7 +2833,7 @@ public class HttpRequest {
       final String contentType, final File part) throws HttpRequestException {
     final InputStream stream;
     try {
-      stream = new BufferedInputStream(new FileInputStream(part));
+      stream = MappedFileInputStream.open(part);
       incrementTotalSize(part.length());
     } catch (IOException e) {
       throw new HttpRequestException(e);
@@ -2315,6 +2893,12 @@ public class HttpRequest {
 
   /**
    * Write contents of file to request body
+   * <p>
+   * Files of at least {@link MappedFileInputStream#MAP_THRESHOLD} bytes are
+   * read through memory-mapped windows. The connection buffers the body until
+   * the response is requested unless {@link #chunk(int)} or
+   * {@link #contentLength(int)} is used, see {@link #upload(File)} for large
+   * files.
    *
    * @param input
    * @return this request
@@ -2323,14 +2907,38 @@ public class HttpRequest {
   public HttpRequest send(final File input) throws HttpRequestException {
     final InputStream stream;
     try {
-      stream = new BufferedInputStream(new FileInputStream(input));
+      stream = MappedFileInputStream.open(input);
       incrementTotalSize(input.length());
-    } catch (FileNotFoundException e) {
+    } catch (IOException e) {
       throw new HttpRequestException(e);
     }
     return send(stream);
   }
 
+  /**
+   * Write contents of file as the whole request body
+   * <p>
+   * The body is streamed to the connection with its length set up front, or
+   * chunked if it is compressed, instead of being buffered until the response
+   * is requested. Files of any size are uploaded in constant memory but
+   * nothing else can be written to the body, and redirects and
+   * authentication challenges are not followed.
+   *
+   * @param input
+   * @return this request
+   * @throws HttpRequestException
+   */
+  public HttpRequest upload(final File input) throws HttpRequestException {
+    if (output != null)
+      throw new IllegalStateException("The request body has already been started");
+    final long length = input.length();
+    if (compressMinSize >= 0 && length >= compressMinSize)
+      getConnection().setChunkedStreamingMode(bufferSize);
+    else
+      getConnection().setFixedLengthStreamingMode(length);
+    return send(input);
+  }
+
   /**
    * Write byte array to request body
    *
@@ -2400,9 +3008,42 @@ public class HttpRequest {
    * @throws HttpRequestException
    */
   public HttpRequest send(final CharSequence value) throws HttpRequestException {
+    try {
+      if (output == null && compressMinSize >= 0
+          && value.length() < compressMinSize) {
+        // 阈值按编码后的字节数比较, 多字节字符可能使正文达到阈值
+        final byte[] bytes = value.toString().getBytes(getValidCharset(getParam(
+            getConnection().getRequestProperty(HEADER_CONTENT_TYPE), PARAM_CHARSET)));
+        openOutput(bytes.length);
+        output.write(bytes);
+      } else {
+        openOutput(value.length());
+        output.write(value.toString());
+      }
+    } catch (IOException e) {
+      throw new HttpRequestException(e);
+    }
+    return this;
+  }
+
+  /**
+   * Encode value to request body with the given codec
+   * <p>
+   * The value is written directly to the request stream and the content type
+   * of the codec is used unless the request body has already been started.
+   *
+   * @param value
+   * @param codec
+   * @return this request
+   * @throws HttpRequestException
+   */
+  public HttpRequest send(final Object value, final Codec codec)
+      throws HttpRequestException {
+    if (output == null)
+      contentType(codec.contentType());
     try {
       openOutput();
-      output.write(value.toString());
+      codec.encode(value, output);
     } catch (IOException e) {
       throw new HttpRequestException(e);
     }
@@ -0,0 +1,123 @@
+package com.github.tutar.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Stream of a file read through read-only memory-mapped windows of its
+ * channel
+ * <p>
+ * Reads copy straight from the page cache into the caller's array, without
+ * the read system call and intermediate native buffer of
+ * {@link FileInputStream}. Mapped windows are released by the garbage
+ * collector, so small files are better read with {@link #open(File)}.
+ */
+public final class MappedFileInputStream extends InputStream {
+
+    /**
+     * Files smaller than this are not worth mapping
+     */
+    public static final long MAP_THRESHOLD = 1024 * 1024;
+
+    private static final long WINDOW_SIZE = 16 * 1024 * 1024;
+
+    private final FileChannel channel;
+
+    private final long size;
+
+    private MappedByteBuffer window;
+
+    private long position;
+
+    public MappedFileInputStream(final File file) throws IOException {
+        channel = new FileInputStream(file).getChannel();
+        size = channel.size();
+    }
+
+    /**
+     * Open a stream to the given file, mapped if it is at least
+     * {@link #MAP_THRESHOLD} bytes
+     *
+     * @param file
+     * @return stream
+     * @throws IOException
+     */
+    public static InputStream open(final File file) throws IOException {
+        if (file.length() < MAP_THRESHOLD) {
+            return new FileInputStream(file);
+        }
+        return new MappedFileInputStream(file);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!nextWindow()) {
+            return -1;
+        }
+        return window.get() & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length)
+            throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!nextWindow()) {
+            return -1;
+        }
+        int read = Math.min(length, window.remaining());
+        window.get(buffer, offset, read);
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long windowRemaining = window != null ? window.remaining() : 0;
+        long skipped = Math.min(n, size - position + windowRemaining);
+        if (skipped < windowRemaining) {
+            window.position(window.position() + (int) skipped);
+        } else {
+            position += skipped - windowRemaining;
+            window = null;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        long remaining = size - position + (window != null ? window.remaining() : 0);
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    /**
+     * Map the next window once the current one has been read
+     *
+     * @return false at the end of the file
+     */
+    private boolean nextWindow() throws IOException {
+        if (window != null && window.hasRemaining()) {
+            return true;
+        }
+        if (position >= size) {
+            return false;
+        }
+        long length = Math.min(WINDOW_SIZE, size - position);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        position += length;
+        return true;
+    }
+}
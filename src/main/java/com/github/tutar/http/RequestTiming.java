@@ -0,0 +1,132 @@
+package com.github.tutar.http;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent by a request in each phase of the call
+ * <p>
+ * Filled in by the request engine while the call runs, phases that were not
+ * measured report -1. Durations are taken with {@link System#nanoTime()}.
+ */
+public class RequestTiming {
+
+    /**
+     * Phase of a call
+     */
+    public enum Phase {
+        /**
+         * Waiting before the call started: dispatcher queue, rate limiter and
+         * bulkhead
+         */
+        QUEUE,
+        /**
+         * Host name lookup
+         */
+        DNS,
+        /**
+         * TCP connect, for {@link HttpRequest} including DNS and TLS
+         */
+        CONNECT,
+        /**
+         * TLS handshake
+         */
+        TLS,
+        /**
+         * Writing the request headers and body
+         */
+        REQUEST_WRITE,
+        /**
+         * From the request being written to the response headers arriving
+         */
+        TTFB,
+        /**
+         * Reading the response body
+         */
+        BODY_READ,
+        /**
+         * Whole call, up to the body being read if it was
+         */
+        TOTAL
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final long[] nanos = new long[PHASES.length];
+
+    private volatile boolean connectionReused;
+
+    /**
+     * Create a timing with no phase measured
+     */
+    public RequestTiming() {
+        Arrays.fill(nanos, -1);
+    }
+
+    /**
+     * Get the duration of the given phase
+     *
+     * @param phase
+     * @return nanoseconds or -1 if not measured
+     */
+    public long nanos(final Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * Get the duration of the given phase
+     *
+     * @param phase
+     * @param unit
+     * @return duration or -1 if not measured
+     */
+    public long get(final Phase phase, final TimeUnit unit) {
+        long value = nanos[phase.ordinal()];
+        return value < 0 ? -1 : unit.convert(value, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Set the duration of the given phase
+     *
+     * @param phase
+     * @param nanos
+     * @return this timing
+     */
+    public RequestTiming set(final Phase phase, final long nanos) {
+        this.nanos[phase.ordinal()] = nanos;
+        return this;
+    }
+
+    /**
+     * Was the call made on a pooled connection?
+     *
+     * @return true if reused, false if a new connection was opened or reuse
+     *         could not be observed
+     */
+    public boolean connectionReused() {
+        return connectionReused;
+    }
+
+    /**
+     * Set whether the call was made on a pooled connection
+     *
+     * @param reused
+     * @return this timing
+     */
+    public RequestTiming connectionReused(final boolean reused) {
+        this.connectionReused = reused;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("RequestTiming{");
+        for (Phase phase : PHASES) {
+            long value = nanos[phase.ordinal()];
+            if (value >= 0)
+                builder.append(phase.name().toLowerCase()).append('=')
+                        .append(String.format("%.3f", value / 1e6)).append("ms, ");
+        }
+        return builder.append("reused=").append(connectionReused).append('}').toString();
+    }
+}
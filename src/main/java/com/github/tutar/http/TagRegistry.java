@@ -0,0 +1,110 @@
+package com.github.tutar.http;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * In-flight requests grouped by the tag the caller gave them
+ * <p>
+ * Requests are held weakly, so a request that is never completed or
+ * cancelled does not stay registered once it is no longer used.
+ *
+ * @param <R>
+ *          request type
+ */
+public final class TagRegistry<R> {
+
+    private static final int MIN_PURGE_SIZE = 64;
+
+    private final Map<Object, Set<R>> tags = new HashMap<Object, Set<R>>();
+
+    /**
+     * Number of tags above which tags left without requests are purged
+     */
+    private int purgeSize = MIN_PURGE_SIZE;
+
+    /**
+     * Register the request under the given tag
+     *
+     * @param tag
+     * @param request
+     */
+    public synchronized void add(final Object tag, final R request) {
+        Set<R> requests = tags.get(tag);
+        if (requests == null) {
+            requests = Collections.newSetFromMap(new WeakHashMap<R, Boolean>());
+            tags.put(tag, requests);
+            if (tags.size() > purgeSize)
+                purge();
+        }
+        requests.add(request);
+    }
+
+    /**
+     * Remove the tags whose requests have all been garbage collected without
+     * being removed
+     * <p>
+     * The threshold doubles with the number of live tags so registering stays
+     * constant time on average.
+     */
+    private void purge() {
+        Iterator<Set<R>> iterator = tags.values().iterator();
+        while (iterator.hasNext())
+            if (iterator.next().isEmpty())
+                iterator.remove();
+        purgeSize = Math.max(MIN_PURGE_SIZE, tags.size() * 2);
+    }
+
+    /**
+     * Remove the request from the given tag
+     *
+     * @param tag
+     * @param request
+     */
+    public synchronized void remove(final Object tag, final R request) {
+        Set<R> requests = tags.get(tag);
+        if (requests != null && requests.remove(request) && requests.isEmpty())
+            tags.remove(tag);
+    }
+
+    /**
+     * Remove and return all requests registered under the given tag
+     *
+     * @param tag
+     * @return requests, empty if none
+     */
+    public synchronized List<R> removeAll(final Object tag) {
+        Set<R> requests = tags.remove(tag);
+        if (requests == null)
+            return Collections.emptyList();
+        return new ArrayList<R>(requests);
+    }
+
+    /**
+     * Get the number of requests registered under the given tag
+     *
+     * @param tag
+     * @return count
+     */
+    public synchronized int count(final Object tag) {
+        Set<R> requests = tags.get(tag);
+        return requests != null ? requests.size() : 0;
+    }
+
+    /**
+     * Get the number of tags currently held
+     * <p>
+     * This includes tags whose requests were collected since the last purge.
+     *
+     * @return count
+     */
+    public synchronized int size() {
+        return tags.size();
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.tutar.http.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Converts objects to and from request and response bodies
+ * <p>
+ * Bodies are decoded directly from the response stream and encoded directly
+ * into the request stream so that neither is held in memory as a whole.
+ * Implementations must be thread-safe, a single codec is shared by all
+ * requests using it.
+ */
+public interface Codec {
+
+    /**
+     * Media type of the bodies written by {@link #encode(Object, OutputStream)}
+     *
+     * @return content type, such as 'application/json; charset=UTF-8'
+     */
+    String contentType();
+
+    /**
+     * Read a value of the given type from the body
+     * <p>
+     * The stream is closed by the caller once this method returns.
+     *
+     * @param input
+     * @param type
+     * @return value, may be null
+     * @throws IOException
+     */
+    <T> T decode(InputStream input, Class<T> type) throws IOException;
+
+    /**
+     * Write the given value as the body
+     * <p>
+     * The stream must be flushed but not closed, the request completes it.
+     *
+     * @param value
+     * @param output
+     * @throws IOException
+     */
+    void encode(Object value, OutputStream output) throws IOException;
+}
@@ -0,0 +1,558 @@
+package com.github.tutar.http.codec;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reference {@link Codec} for UTF-8 encoded JSON
+ * <p>
+ * Values are bound as follows:
+ * <ul>
+ * <li>objects to {@link Map maps}, with string keys, or to classes with a
+ * no-argument constructor through their non-static, non-transient fields</li>
+ * <li>arrays to {@link List lists}, {@link Set sets} or Java arrays</li>
+ * <li>strings to {@link String strings}, enums by name</li>
+ * <li>numbers to the primitive wrappers, {@link BigInteger} or
+ * {@link BigDecimal}</li>
+ * </ul>
+ * When the target is {@link Object} objects become {@link LinkedHashMap}s,
+ * arrays {@link ArrayList}s and numbers {@link Long}s, or {@link Double}s if
+ * they have a fraction or exponent. Element types of collection and map
+ * fields are taken from their generic declaration. Unknown object members are
+ * skipped and object graphs must not contain cycles.
+ */
+public class JsonCodec implements Codec {
+
+    /**
+     * 'application/json; charset=UTF-8'
+     */
+    public static final String CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Binding[] NO_BINDINGS = new Binding[0];
+
+    private final ConcurrentMap<Class<?>, Binding[]> bindings = new ConcurrentHashMap<Class<?>, Binding[]>();
+
+    private final ConcurrentMap<Class<?>, Constructor<?>> constructors = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+    public String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    public <T> T decode(final InputStream input, final Class<T> type) throws IOException {
+        return read(new InputStreamReader(input, UTF_8), type);
+    }
+
+    public void encode(final Object value, final OutputStream output) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, UTF_8), BUFFER_SIZE);
+        write(value, writer);
+        writer.flush();
+    }
+
+    /**
+     * Parse the given JSON document
+     *
+     * @param json
+     * @param type
+     * @return value, may be null
+     * @throws IOException
+     */
+    public <T> T fromJson(final String json, final Class<T> type) throws IOException {
+        return read(new StringReader(json), type);
+    }
+
+    /**
+     * Serialize the given value to a JSON document
+     *
+     * @param value
+     * @return JSON
+     */
+    public String toJson(final Object value) {
+        StringWriter writer = new StringWriter();
+        try {
+            write(value, writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T read(final Reader input, final Class<T> type) throws IOException {
+        JsonReader reader = new JsonReader(input);
+        Object value = read(reader, type);
+        reader.endDocument();
+        return (T) (type.isPrimitive() ? value : type.cast(value));
+    }
+
+    private Object read(final JsonReader reader, final Type type) throws IOException {
+        Class<?> raw = rawType(type);
+        int c = reader.peek();
+        if (c == 'n') {
+            reader.nextNull();
+            return null;
+        }
+        if (raw == Object.class) {
+            return readNatural(reader, c);
+        }
+        if (c == '"') {
+            String value = reader.nextString();
+            if (raw == String.class || raw == CharSequence.class) {
+                return value;
+            }
+            if (raw.isEnum()) {
+                return enumValue(reader, raw, value);
+            }
+            if ((raw == Character.class || raw == char.class) && value.length() == 1) {
+                return value.charAt(0);
+            }
+            throw reader.syntaxError("Cannot convert a string to " + raw.getName());
+        }
+        if (c == 't' || c == 'f') {
+            if (raw != Boolean.class && raw != boolean.class) {
+                throw reader.syntaxError("Cannot convert a boolean to " + raw.getName());
+            }
+            return reader.nextBoolean();
+        }
+        if (c == '[') {
+            return readArray(reader, type, raw);
+        }
+        if (c == '{') {
+            if (Map.class.isAssignableFrom(raw)) {
+                return readMap(reader, type, raw);
+            }
+            return readObject(reader, raw);
+        }
+        if (c == '-' || (c >= '0' && c <= '9')) {
+            return number(reader, reader.nextNumber(), raw);
+        }
+        throw reader.syntaxError("Unexpected " + JsonReader.describe(c));
+    }
+
+    private Object readNatural(final JsonReader reader, final int c) throws IOException {
+        switch (c) {
+        case '{':
+            return readMap(reader, Map.class, LinkedHashMap.class);
+        case '[':
+            return readArray(reader, List.class, ArrayList.class);
+        case '"':
+            return reader.nextString();
+        case 't':
+        case 'f':
+            return reader.nextBoolean();
+        default:
+            return naturalNumber(reader.nextNumber());
+        }
+    }
+
+    private Object readArray(final JsonReader reader, final Type type, final Class<?> raw)
+            throws IOException {
+        Type elementType;
+        if (raw.isArray()) {
+            elementType = type instanceof GenericArrayType
+                    ? ((GenericArrayType) type).getGenericComponentType()
+                    : raw.getComponentType();
+        } else if (Collection.class.isAssignableFrom(raw)) {
+            elementType = typeArgument(type, 0);
+        } else {
+            throw reader.syntaxError("Cannot convert an array to " + raw.getName());
+        }
+        Collection<Object> elements = raw.isArray() ? new ArrayList<Object>()
+                : newCollection(reader, raw);
+        reader.expect('[');
+        if (!reader.consume(']')) {
+            do {
+                elements.add(read(reader, elementType));
+            } while (reader.consume(','));
+            reader.expect(']');
+        }
+        if (!raw.isArray()) {
+            return elements;
+        }
+        Object array = Array.newInstance(raw.getComponentType(), elements.size());
+        int i = 0;
+        for (Object element : elements) {
+            if (element != null || !raw.getComponentType().isPrimitive()) {
+                Array.set(array, i, element);
+            }
+            i++;
+        }
+        return array;
+    }
+
+    private Object readMap(final JsonReader reader, final Type type, final Class<?> raw)
+            throws IOException {
+        Type valueType = typeArgument(type, 1);
+        Map<String, Object> map = newMap(reader, raw);
+        reader.expect('{');
+        if (!reader.consume('}')) {
+            do {
+                String name = reader.nextString();
+                reader.expect(':');
+                map.put(name, read(reader, valueType));
+            } while (reader.consume(','));
+            reader.expect('}');
+        }
+        return map;
+    }
+
+    private Object readObject(final JsonReader reader, final Class<?> raw) throws IOException {
+        Object object;
+        try {
+            object = constructor(raw).newInstance();
+        } catch (Exception e) {
+            throw new IOException("Cannot create an instance of " + raw.getName(), e);
+        }
+        Binding[] fields = bindings(raw);
+        reader.expect('{');
+        if (reader.consume('}')) {
+            return object;
+        }
+        do {
+            String name = reader.nextString();
+            reader.expect(':');
+            Binding binding = binding(fields, name);
+            if (binding == null) {
+                reader.skipValue();
+                continue;
+            }
+            Object value = read(reader, binding.type);
+            // 基本类型字段遇到 null 时保留默认值
+            if (value == null && binding.field.getType().isPrimitive()) {
+                continue;
+            }
+            try {
+                binding.field.set(object, value);
+            } catch (IllegalAccessException e) {
+                throw new IOException("Cannot set field " + binding.field, e);
+            }
+        } while (reader.consume(','));
+        reader.expect('}');
+        return object;
+    }
+
+    private Object number(final JsonReader reader, final String literal, final Class<?> raw)
+            throws IOException {
+        try {
+            if (raw == Integer.class || raw == int.class)
+                return Integer.valueOf(literal);
+            if (raw == Long.class || raw == long.class)
+                return Long.valueOf(literal);
+            if (raw == Double.class || raw == double.class)
+                return Double.valueOf(literal);
+            if (raw == Float.class || raw == float.class)
+                return Float.valueOf(literal);
+            if (raw == Short.class || raw == short.class)
+                return Short.valueOf(literal);
+            if (raw == Byte.class || raw == byte.class)
+                return Byte.valueOf(literal);
+            if (raw == BigDecimal.class)
+                return new BigDecimal(literal);
+            if (raw == BigInteger.class)
+                return new BigInteger(literal);
+            if (raw == Number.class)
+                return naturalNumber(literal);
+        } catch (NumberFormatException e) {
+            throw reader.syntaxError("Number " + literal + " does not fit " + raw.getName());
+        }
+        throw reader.syntaxError("Cannot convert a number to " + raw.getName());
+    }
+
+    private static Number naturalNumber(final String literal) {
+        if (literal.indexOf('.') >= 0 || literal.indexOf('e') >= 0
+                || literal.indexOf('E') >= 0) {
+            return Double.valueOf(literal);
+        }
+        if (literal.length() < 19) {
+            return Long.valueOf(literal);
+        }
+        BigInteger value = new BigInteger(literal);
+        return value.bitLength() < 64 ? (Number) value.longValue() : value;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object enumValue(final JsonReader reader, final Class<?> raw, final String name)
+            throws IOException {
+        try {
+            return Enum.valueOf((Class<? extends Enum>) raw, name);
+        } catch (IllegalArgumentException e) {
+            throw reader.syntaxError("No constant " + name + " in " + raw.getName());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<Object> newCollection(final JsonReader reader, final Class<?> raw)
+            throws IOException {
+        if (raw.isAssignableFrom(ArrayList.class))
+            return new ArrayList<Object>();
+        if (raw.isAssignableFrom(LinkedHashSet.class))
+            return new LinkedHashSet<Object>();
+        try {
+            return (Collection<Object>) constructor(raw).newInstance();
+        } catch (Exception e) {
+            throw reader.syntaxError("Cannot create an instance of " + raw.getName());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> newMap(final JsonReader reader, final Class<?> raw)
+            throws IOException {
+        if (raw.isAssignableFrom(LinkedHashMap.class))
+            return new LinkedHashMap<String, Object>();
+        try {
+            return (Map<String, Object>) constructor(raw).newInstance();
+        } catch (Exception e) {
+            throw reader.syntaxError("Cannot create an instance of " + raw.getName());
+        }
+    }
+
+    private Constructor<?> constructor(final Class<?> raw) throws IOException {
+        Constructor<?> constructor = constructors.get(raw);
+        if (constructor != null) {
+            return constructor;
+        }
+        if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers())
+                || raw.isPrimitive() || raw.isArray()) {
+            throw new IOException("Cannot create an instance of " + raw.getName());
+        }
+        try {
+            constructor = raw.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (Exception e) {
+            throw new IOException(raw.getName() + " has no usable no-argument constructor", e);
+        }
+        constructors.putIfAbsent(raw, constructor);
+        return constructor;
+    }
+
+    private static Binding binding(final Binding[] fields, final String name) {
+        for (Binding binding : fields) {
+            if (binding.name.equals(name)) {
+                return binding;
+            }
+        }
+        return null;
+    }
+
+    private Binding[] bindings(final Class<?> raw) {
+        Binding[] fields = bindings.get(raw);
+        if (fields != null) {
+            return fields;
+        }
+        List<Binding> list = new ArrayList<Binding>();
+        for (Class<?> c = raw; c != null && c != Object.class; c = c.getSuperclass()) {
+            List<Binding> declared = new ArrayList<Binding>();
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
+                        || field.isSynthetic()) {
+                    continue;
+                }
+                field.setAccessible(true);
+                declared.add(new Binding(field));
+            }
+            // 父类字段在前
+            list.addAll(0, declared);
+        }
+        fields = list.isEmpty() ? NO_BINDINGS : list.toArray(new Binding[list.size()]);
+        Binding[] existing = bindings.putIfAbsent(raw, fields);
+        return existing != null ? existing : fields;
+    }
+
+    private static Class<?> rawType(final Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return rawType(((ParameterizedType) type).getRawType());
+        }
+        if (type instanceof GenericArrayType) {
+            Class<?> component = rawType(((GenericArrayType) type).getGenericComponentType());
+            return Array.newInstance(component, 0).getClass();
+        }
+        if (type instanceof WildcardType) {
+            return rawType(((WildcardType) type).getUpperBounds()[0]);
+        }
+        // 类型变量无法在运行时确定
+        return Object.class;
+    }
+
+    private static Type typeArgument(final Type type, final int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            if (index < arguments.length) {
+                return arguments[index];
+            }
+        }
+        return Object.class;
+    }
+
+    private void write(final Object value, final Writer out) throws IOException {
+        if (value == null) {
+            out.write("null");
+        } else if (value instanceof CharSequence) {
+            writeString(value.toString(), out);
+        } else if (value instanceof Number) {
+            writeNumber((Number) value, out);
+        } else if (value instanceof Boolean) {
+            out.write(value.toString());
+        } else if (value instanceof Character) {
+            writeString(value.toString(), out);
+        } else if (value instanceof Enum) {
+            writeString(((Enum<?>) value).name(), out);
+        } else if (value instanceof Map) {
+            out.write('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                writeString(String.valueOf(entry.getKey()), out);
+                out.write(':');
+                write(entry.getValue(), out);
+            }
+            out.write('}');
+        } else if (value instanceof Iterable) {
+            out.write('[');
+            boolean first = true;
+            for (Object element : (Iterable<?>) value) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                write(element, out);
+            }
+            out.write(']');
+        } else if (value.getClass().isArray()) {
+            out.write('[');
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                write(Array.get(value, i), out);
+            }
+            out.write(']');
+        } else {
+            writeObject(value, out);
+        }
+    }
+
+    private void writeObject(final Object value, final Writer out) throws IOException {
+        out.write('{');
+        boolean first = true;
+        for (Binding binding : bindings(value.getClass())) {
+            Object fieldValue;
+            try {
+                fieldValue = binding.field.get(value);
+            } catch (IllegalAccessException e) {
+                throw new IOException("Cannot read field " + binding.field, e);
+            }
+            if (fieldValue == null) {
+                continue;
+            }
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            writeString(binding.name, out);
+            out.write(':');
+            write(fieldValue, out);
+        }
+        out.write('}');
+    }
+
+    private static void writeNumber(final Number value, final Writer out) throws IOException {
+        if (value instanceof Double || value instanceof Float) {
+            double d = value.doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                throw new IllegalArgumentException("JSON cannot represent " + value);
+            }
+        }
+        out.write(value.toString());
+    }
+
+    private static void writeString(final String value, final Writer out) throws IOException {
+        out.write('"');
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escaped;
+            if (c == '"') {
+                escaped = "\\\"";
+            } else if (c == '\\') {
+                escaped = "\\\\";
+            } else if (c == '\n') {
+                escaped = "\\n";
+            } else if (c == '\r') {
+                escaped = "\\r";
+            } else if (c == '\t') {
+                escaped = "\\t";
+            } else if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                escaped = String.format("\\u%04x", (int) c);
+            } else {
+                continue;
+            }
+            if (start < i) {
+                out.write(value, start, i - start);
+            }
+            out.write(escaped);
+            start = i + 1;
+        }
+        if (start < length) {
+            out.write(value, start, length - start);
+        }
+        out.write('"');
+    }
+
+    /**
+     * Field bound to an object member of the same name
+     */
+    private static final class Binding {
+
+        final Field field;
+
+        final String name;
+
+        final Type type;
+
+        Binding(final Field field) {
+            this.field = field;
+            this.name = field.getName();
+            this.type = field.getGenericType();
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.github.tutar.http.codec;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the tokens of a JSON document from a character stream
+ * <p>
+ * Characters are pulled from the stream in chunks, only the value currently
+ * being read is held in memory.
+ */
+final class JsonReader {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader in;
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    private final StringBuilder value = new StringBuilder();
+
+    private int pos;
+
+    private int limit;
+
+    /**
+     * Characters consumed before the current buffer
+     */
+    private long offset;
+
+    JsonReader(final Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Get the next character that is not whitespace without consuming it
+     *
+     * @return character or -1 at the end of the stream
+     * @throws IOException
+     */
+    int peek() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            char c = buffer[pos];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    /**
+     * Consume the next character that is not whitespace, which must be the
+     * given one
+     *
+     * @param expected
+     * @throws IOException
+     */
+    void expect(final char expected) throws IOException {
+        int c = peek();
+        if (c != expected) {
+            throw syntaxError("Expected '" + expected + "' but was " + describe(c));
+        }
+        pos++;
+    }
+
+    /**
+     * Consume the next character that is not whitespace if it is the given
+     * one
+     *
+     * @param c
+     * @return true if consumed, false otherwise
+     * @throws IOException
+     */
+    boolean consume(final char c) throws IOException {
+        if (peek() != c) {
+            return false;
+        }
+        pos++;
+        return true;
+    }
+
+    /**
+     * Read a string literal
+     *
+     * @return string
+     * @throws IOException
+     */
+    String nextString() throws IOException {
+        expect('"');
+        value.setLength(0);
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos];
+                if (c == '"') {
+                    value.append(buffer, start, pos++ - start);
+                    return value.toString();
+                }
+                if (c == '\\') {
+                    value.append(buffer, start, pos++ - start);
+                    value.append(readEscape());
+                    start = pos;
+                    continue;
+                }
+                if (c < 0x20) {
+                    throw syntaxError("Unescaped control character in string");
+                }
+                pos++;
+            }
+            value.append(buffer, start, pos - start);
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    /**
+     * Read a number literal
+     *
+     * @return the literal as it appears in the document
+     * @throws IOException
+     */
+    String nextNumber() throws IOException {
+        peek();
+        value.setLength(0);
+        while (pos < limit || fill()) {
+            char c = buffer[pos];
+            if ((c < '0' || c > '9') && c != '-' && c != '+' && c != '.'
+                    && c != 'e' && c != 'E') {
+                break;
+            }
+            value.append(c);
+            pos++;
+        }
+        if (value.length() == 0 || !isNumber(value)) {
+            throw syntaxError("Malformed number '" + value + "'");
+        }
+        return value.toString();
+    }
+
+    /**
+     * Read a true or false literal
+     *
+     * @return boolean
+     * @throws IOException
+     */
+    boolean nextBoolean() throws IOException {
+        int c = peek();
+        if (c == 't') {
+            literal("true");
+            return true;
+        }
+        if (c == 'f') {
+            literal("false");
+            return false;
+        }
+        throw syntaxError("Expected a boolean but was " + describe(c));
+    }
+
+    /**
+     * Read a null literal
+     *
+     * @throws IOException
+     */
+    void nextNull() throws IOException {
+        peek();
+        literal("null");
+    }
+
+    /**
+     * Read and discard the next value
+     *
+     * @throws IOException
+     */
+    void skipValue() throws IOException {
+        int c = peek();
+        switch (c) {
+        case '{':
+            pos++;
+            if (consume('}')) {
+                return;
+            }
+            do {
+                nextString();
+                expect(':');
+                skipValue();
+            } while (consume(','));
+            expect('}');
+            return;
+        case '[':
+            pos++;
+            if (consume(']')) {
+                return;
+            }
+            do {
+                skipValue();
+            } while (consume(','));
+            expect(']');
+            return;
+        case '"':
+            nextString();
+            return;
+        case 't':
+        case 'f':
+            nextBoolean();
+            return;
+        case 'n':
+            nextNull();
+            return;
+        default:
+            nextNumber();
+        }
+    }
+
+    /**
+     * Verify that nothing but whitespace follows the document
+     *
+     * @throws IOException
+     */
+    void endDocument() throws IOException {
+        int c = peek();
+        if (c != -1) {
+            throw syntaxError("Unexpected " + describe(c) + " after the document");
+        }
+    }
+
+    /**
+     * Create an exception for malformed input at the current position
+     *
+     * @param message
+     * @return exception
+     */
+    IOException syntaxError(final String message) {
+        return new IOException(message + " at offset " + (offset + pos));
+    }
+
+    static String describe(final int c) {
+        return c == -1 ? "end of document" : "'" + (char) c + "'";
+    }
+
+    private void literal(final String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if ((pos == limit && !fill()) || buffer[pos] != literal.charAt(i)) {
+                throw syntaxError("Expected '" + literal + "'");
+            }
+            pos++;
+        }
+    }
+
+    private char readEscape() throws IOException {
+        if (pos == limit && !fill()) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+        char c = buffer[pos++];
+        switch (c) {
+        case '"':
+        case '\\':
+        case '/':
+            return c;
+        case 'b':
+            return '\b';
+        case 'f':
+            return '\f';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 't':
+            return '\t';
+        case 'u':
+            int result = 0;
+            for (int i = 0; i < 4; i++) {
+                if (pos == limit && !fill()) {
+                    throw syntaxError("Unterminated escape sequence");
+                }
+                int digit = Character.digit(buffer[pos++], 16);
+                if (digit < 0) {
+                    throw syntaxError("Malformed unicode escape");
+                }
+                result = (result << 4) | digit;
+            }
+            return (char) result;
+        default:
+            throw syntaxError("Invalid escape sequence '\\" + c + "'");
+        }
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        limit = read;
+        return true;
+    }
+
+    /**
+     * Check the number grammar of RFC 8259, section 6
+     */
+    private static boolean isNumber(final CharSequence s) {
+        int i = 0;
+        int length = s.length();
+        if (s.charAt(i) == '-' && ++i == length) {
+            return false;
+        }
+        if (s.charAt(i) == '0') {
+            i++;
+        } else {
+            int start = i;
+            while (i < length && isDigit(s.charAt(i))) {
+                i++;
+            }
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < length && s.charAt(i) == '.') {
+            int start = ++i;
+            while (i < length && isDigit(s.charAt(i))) {
+                i++;
+            }
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < length && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            if (++i < length && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+                i++;
+            }
+            int start = i;
+            while (i < length && isDigit(s.charAt(i))) {
+                i++;
+            }
+            if (i == start) {
+                return false;
+            }
+        }
+        return i == length;
+    }
+
+    private static boolean isDigit(final char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,371 @@
+package com.github.tutar.http.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link HostResolver} caching the lookups of another resolver
+ * <p>
+ * Successful lookups are kept for the positive TTL and failed ones for the
+ * negative TTL. Once an entry has been used for the refresh fraction of its
+ * TTL it is looked up again in the background while callers keep getting
+ * the cached addresses, so a busy host never waits on DNS. When a lookup
+ * fails after an entry expired the previous addresses are served for up to
+ * the stale TTL instead of failing the request.
+ * <p>
+ * Hosts with an override always resolve to the given addresses without
+ * any lookup, which lets tests point real host names at a local server.
+ */
+public class CachingResolver implements HostResolver {
+
+    private static final ExecutorService REFRESH_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "dns-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final HostResolver delegate;
+
+    private final long ttlNanos;
+
+    private final long negativeTtlNanos;
+
+    private final long staleTtlNanos;
+
+    private final long refreshNanos;
+
+    private final Executor refreshExecutor;
+
+    private final Map<String, List<InetAddress>> overrides;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong staleHits = new AtomicLong();
+
+    private final AtomicLong refreshes = new AtomicLong();
+
+    private CachingResolver(final Builder builder) {
+        this.delegate = builder.delegate;
+        this.ttlNanos = builder.ttlNanos;
+        this.negativeTtlNanos = builder.negativeTtlNanos;
+        this.staleTtlNanos = builder.staleTtlNanos;
+        this.refreshNanos = (long) (builder.ttlNanos * builder.refreshFraction);
+        this.refreshExecutor = builder.refreshExecutor;
+        this.overrides = new HashMap<String, List<InetAddress>>(builder.overrides);
+    }
+
+    /**
+     * Start building a caching resolver
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private static class Entry {
+
+        final List<InetAddress> addresses;
+
+        final String failure;
+
+        final long expires;
+
+        final long refresh;
+
+        final long staleUntil;
+
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(final List<InetAddress> addresses, final String failure, final long expires,
+              final long refresh, final long staleUntil) {
+            this.addresses = addresses;
+            this.failure = failure;
+            this.expires = expires;
+            this.refresh = refresh;
+            this.staleUntil = staleUntil;
+        }
+    }
+
+    public List<InetAddress> resolve(final String host) throws UnknownHostException {
+        if (host == null)
+            throw new UnknownHostException("host == null");
+        List<InetAddress> override = overrides.get(host);
+        if (override != null)
+            return override;
+
+        final long now = System.nanoTime();
+        final Entry entry = entries.get(host);
+        if (entry != null && now - entry.expires < 0) {
+            hits.incrementAndGet();
+            if (entry.failure != null)
+                throw new UnknownHostException(entry.failure);
+            if (now - entry.refresh >= 0 && entry.refreshing.compareAndSet(false, true))
+                refresh(host, entry);
+            return entry.addresses;
+        }
+
+        misses.incrementAndGet();
+        try {
+            return lookup(host);
+        } catch (UnknownHostException e) {
+            if (entry != null && entry.failure == null && now - entry.staleUntil < 0) {
+                // 过期的地址好过解析失败，负缓存期间继续使用旧地址
+                entries.put(host, new Entry(entry.addresses, null, now + negativeTtlNanos,
+                        now + negativeTtlNanos, entry.staleUntil));
+                staleHits.incrementAndGet();
+                return entry.addresses;
+            }
+            entries.put(host, new Entry(null, e.getMessage(), now + negativeTtlNanos,
+                    Long.MAX_VALUE, now));
+            throw e;
+        }
+    }
+
+    private List<InetAddress> lookup(final String host) throws UnknownHostException {
+        List<InetAddress> addresses = delegate.resolve(host);
+        if (addresses == null || addresses.isEmpty())
+            throw new UnknownHostException(host);
+        addresses = Collections.unmodifiableList(new ArrayList<InetAddress>(addresses));
+        final long now = System.nanoTime();
+        entries.put(host, new Entry(addresses, null, now + ttlNanos, now + refreshNanos,
+                now + ttlNanos + staleTtlNanos));
+        return addresses;
+    }
+
+    private void refresh(final String host, final Entry entry) {
+        refreshes.incrementAndGet();
+        refreshExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    lookup(host);
+                } catch (UnknownHostException ignored) {
+                    // Keep the current entry, it is served stale once expired
+                } catch (RuntimeException ignored) {
+                    // Same as a failed lookup
+                }
+            }
+        });
+    }
+
+    /**
+     * Drop the cached addresses of the given host
+     *
+     * @param host
+     */
+    public void invalidate(final String host) {
+        entries.remove(host);
+    }
+
+    /**
+     * Drop all cached addresses
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Get the number of lookups answered from the cache
+     *
+     * @return count
+     */
+    public long hitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups passed on to the underlying resolver
+     *
+     * @return count
+     */
+    public long missCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of failed lookups answered with expired addresses
+     *
+     * @return count
+     */
+    public long staleCount() {
+        return staleHits.get();
+    }
+
+    /**
+     * Get the number of background refreshes started
+     *
+     * @return count
+     */
+    public long refreshCount() {
+        return refreshes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingResolver{hosts=" + entries.size() + ", hits=" + hits
+                + ", misses=" + misses + ", stale=" + staleHits
+                + ", refreshes=" + refreshes + '}';
+    }
+
+    /**
+     * Builder of {@link CachingResolver}
+     */
+    public static class Builder {
+
+        private HostResolver delegate = HostResolver.SYSTEM;
+
+        private long ttlNanos = TimeUnit.SECONDS.toNanos(60);
+
+        private long negativeTtlNanos = TimeUnit.SECONDS.toNanos(5);
+
+        private long staleTtlNanos = TimeUnit.MINUTES.toNanos(10);
+
+        private double refreshFraction = 0.75;
+
+        private Executor refreshExecutor = REFRESH_EXECUTOR;
+
+        private final Map<String, List<InetAddress>> overrides = new HashMap<String, List<InetAddress>>();
+
+        private Builder() {
+        }
+
+        /**
+         * Set the resolver whose lookups are cached, the system resolver by
+         * default
+         *
+         * @param delegate
+         * @return this builder
+         */
+        public Builder delegate(final HostResolver delegate) {
+            if (delegate == null)
+                throw new IllegalArgumentException("Delegate must not be null");
+            this.delegate = delegate;
+            return this;
+        }
+
+        /**
+         * Set how long successful lookups are cached
+         *
+         * @param ttl
+         * @param unit
+         * @return this builder
+         */
+        public Builder ttl(final long ttl, final TimeUnit unit) {
+            if (ttl < 1)
+                throw new IllegalArgumentException("TTL must be greater than zero");
+            this.ttlNanos = unit.toNanos(ttl);
+            return this;
+        }
+
+        /**
+         * Set how long failed lookups are cached, zero to not cache them
+         *
+         * @param ttl
+         * @param unit
+         * @return this builder
+         */
+        public Builder negativeTtl(final long ttl, final TimeUnit unit) {
+            if (ttl < 0)
+                throw new IllegalArgumentException("Negative TTL must not be negative");
+            this.negativeTtlNanos = unit.toNanos(ttl);
+            return this;
+        }
+
+        /**
+         * Set how long after expiry addresses are still served when lookups
+         * fail, zero to never serve stale addresses
+         *
+         * @param ttl
+         * @param unit
+         * @return this builder
+         */
+        public Builder staleTtl(final long ttl, final TimeUnit unit) {
+            if (ttl < 0)
+                throw new IllegalArgumentException("Stale TTL must not be negative");
+            this.staleTtlNanos = unit.toNanos(ttl);
+            return this;
+        }
+
+        /**
+         * Set the fraction of the TTL after which a used entry is refreshed in
+         * the background, 1 to disable background refresh
+         *
+         * @param fraction
+         * @return this builder
+         */
+        public Builder refreshAfter(final double fraction) {
+            if (!(fraction > 0 && fraction <= 1))
+                throw new IllegalArgumentException("Refresh fraction must be in (0, 1]");
+            this.refreshFraction = fraction;
+            return this;
+        }
+
+        /**
+         * Set the executor background refreshes run on, a shared pool of
+         * daemon threads by default
+         *
+         * @param executor
+         * @return this builder
+         */
+        public Builder refreshExecutor(final Executor executor) {
+            if (executor == null)
+                throw new IllegalArgumentException("Executor must not be null");
+            this.refreshExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Always resolve the given host to the given addresses
+         *
+         * @param host
+         * @param addresses
+         *          IP address literals
+         * @return this builder
+         */
+        public Builder override(final String host, final String... addresses) {
+            if (host == null || addresses.length == 0)
+                throw new IllegalArgumentException("Override must have a host and addresses");
+            List<InetAddress> resolved = new ArrayList<InetAddress>(addresses.length);
+            for (String address : addresses) {
+                try {
+                    resolved.add(InetAddress.getByAddress(host,
+                            InetAddress.getByName(address).getAddress()));
+                } catch (UnknownHostException e) {
+                    throw new IllegalArgumentException("Invalid address " + address, e);
+                }
+            }
+            overrides.put(host, Collections.unmodifiableList(resolved));
+            return this;
+        }
+
+        /**
+         * Build the resolver
+         *
+         * @return resolver
+         */
+        public CachingResolver build() {
+            return new CachingResolver(this);
+        }
+    }
+}
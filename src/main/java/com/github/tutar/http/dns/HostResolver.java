@@ -0,0 +1,34 @@
+package com.github.tutar.http.dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Resolves host names to the {@link InetAddress IP addresses} connections
+ * are opened to
+ */
+public interface HostResolver {
+
+    /**
+     * Resolve the addresses of the given host, in order of preference
+     *
+     * @param host
+     * @return non-empty list of addresses
+     * @throws UnknownHostException
+     */
+    List<InetAddress> resolve(String host) throws UnknownHostException;
+
+    /**
+     * A {@link HostResolver} which uses the built-in
+     * {@link InetAddress#getAllByName(String)}
+     */
+    HostResolver SYSTEM = new HostResolver() {
+        public List<InetAddress> resolve(final String host) throws UnknownHostException {
+            if (host == null)
+                throw new UnknownHostException("host == null");
+            return Arrays.asList(InetAddress.getAllByName(host));
+        }
+    };
+}
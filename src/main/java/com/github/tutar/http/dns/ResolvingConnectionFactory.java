@@ -0,0 +1,90 @@
+package com.github.tutar.http.dns;
+
+import com.github.tutar.http.ConnectionFactory;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+
+/**
+ * {@link ConnectionFactory} opening connections to the addresses of a
+ * {@link HostResolver}
+ * <p>
+ * {@link HttpURLConnection} always resolves hosts itself, so plain 'http'
+ * connections are sent to the first resolved address as if it was a proxy:
+ * the request line carries the absolute URL and the 'Host' header keeps the
+ * original host, which servers are required to accept. Keep-alive
+ * connections are pooled per resolved address.
+ * <p>
+ * Only the first resolved address is used. Unlike the OkHttp
+ * {@link com.squareup.okhttp.Dns} path, which hands every address to its
+ * route selector, a failed connect is not retried against the remaining
+ * addresses. The connection is created before it connects, and its
+ * settings cannot be moved to a new one, so the failure reaches the caller.
+ * Resolvers must return the preferred address first. Callers that retry
+ * should invalidate the host, for example with
+ * {@link CachingResolver#invalidate(String)}, to move past an unreachable
+ * address.
+ * <p>
+ * 'https' connections and connections through an explicit proxy are passed
+ * to the delegate unchanged, since routing them to another address would
+ * break TLS host name verification.
+ */
+public class ResolvingConnectionFactory implements ConnectionFactory {
+
+    private final HostResolver resolver;
+
+    private final ConnectionFactory delegate;
+
+    /**
+     * Create a factory resolving hosts with the given resolver and opening
+     * connections with {@link ConnectionFactory#DEFAULT}
+     *
+     * @param resolver
+     */
+    public ResolvingConnectionFactory(final HostResolver resolver) {
+        this(resolver, ConnectionFactory.DEFAULT);
+    }
+
+    /**
+     * Create a factory resolving hosts with the given resolver and opening
+     * connections with the given factory
+     *
+     * @param resolver
+     * @param delegate
+     */
+    public ResolvingConnectionFactory(final HostResolver resolver,
+                                      final ConnectionFactory delegate) {
+        if (resolver == null || delegate == null)
+            throw new IllegalArgumentException("Resolver and delegate must not be null");
+        this.resolver = resolver;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Create a connection to the first resolved address of the host of the
+     * given URL, see the class documentation for the lack of failover
+     *
+     * @param url
+     * @return connection, not yet connected
+     * @throws IOException
+     */
+    public HttpURLConnection create(final URL url) throws IOException {
+        if (!"http".equalsIgnoreCase(url.getProtocol()))
+            return delegate.create(url);
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        // 只使用首选地址, 连接失败不会切换到其余地址
+        // 去掉主机名，否则 HttpURLConnection 会按主机名重新解析代理地址
+        InetAddress resolved = InetAddress.getByAddress(
+                resolver.resolve(url.getHost()).get(0).getAddress());
+        InetSocketAddress address = new InetSocketAddress(resolved, port);
+        return delegate.create(url, new Proxy(Proxy.Type.HTTP, address));
+    }
+
+    public HttpURLConnection create(final URL url, final Proxy proxy) throws IOException {
+        return delegate.create(url, proxy);
+    }
+}
@@ -0,0 +1,203 @@
+package com.github.tutar.http.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory histogram of latencies
+ * <p>
+ * Values are counted in log-linear buckets: each power of two is split into
+ * 32 buckets, so percentiles are accurate to about 3%. Recording is a single
+ * atomic increment and never locks or allocates. Values above one hour are
+ * counted as one hour.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int LINEAR = SUB_BUCKETS * 2;
+
+    private static final long MAX_VALUE = TimeUnit.HOURS.toNanos(1);
+
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private Snapshot last = new Snapshot(new long[BUCKETS], 0);
+
+    static int index(final long value) {
+        if (value < LINEAR)
+            return (int) value;
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = magnitude - SUB_BUCKET_BITS;
+        final int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return LINEAR + (shift - 1) * SUB_BUCKETS + sub;
+    }
+
+    static long highestValue(final int index) {
+        if (index < LINEAR)
+            return index;
+        final int shift = (index - LINEAR) / SUB_BUCKETS + 1;
+        final int sub = (index - LINEAR) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Record a latency
+     *
+     * @param nanos
+     */
+    public void record(final long nanos) {
+        final long value = nanos < 0 ? 0 : Math.min(nanos, MAX_VALUE);
+        counts.incrementAndGet(index(value));
+        sum.addAndGet(value);
+    }
+
+    /**
+     * Take a snapshot of all latencies recorded so far
+     *
+     * @return snapshot
+     */
+    public Snapshot snapshot() {
+        final long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            copy[i] = counts.get(i);
+        return new Snapshot(copy, sum.get());
+    }
+
+    /**
+     * Take a snapshot of all latencies recorded so far and clear the
+     * histogram
+     * <p>
+     * Each latency recorded concurrently is counted either in the snapshot or
+     * in the histogram, never in both.
+     *
+     * @return snapshot
+     */
+    public Snapshot snapshotAndReset() {
+        final long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            copy[i] = counts.getAndSet(i, 0);
+        return new Snapshot(copy, sum.getAndSet(0));
+    }
+
+    /**
+     * Take a snapshot of the latencies recorded since the previous call to
+     * this method, without clearing the histogram
+     * <p>
+     * Meant for a single scraper, {@link #snapshot()} and other scrapers are
+     * not affected.
+     *
+     * @return snapshot of the interval
+     */
+    public synchronized Snapshot intervalSnapshot() {
+        final Snapshot current = snapshot();
+        final Snapshot interval = current.minus(last);
+        last = current;
+        return interval;
+    }
+
+    /**
+     * Immutable view of a histogram
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+
+        private final long count;
+
+        private final long sum;
+
+        Snapshot(final long[] counts, final long sum) {
+            this.counts = counts;
+            long total = 0;
+            for (long value : counts)
+                total += value;
+            this.count = total;
+            this.sum = sum;
+        }
+
+        /**
+         * Get the latencies recorded in this snapshot and not in the given
+         * earlier snapshot of the same histogram
+         *
+         * @param previous
+         * @return difference
+         */
+        public Snapshot minus(final Snapshot previous) {
+            final long[] diff = new long[counts.length];
+            for (int i = 0; i < diff.length; i++)
+                diff[i] = Math.max(0, counts[i] - previous.counts[i]);
+            return new Snapshot(diff, Math.max(0, sum - previous.sum));
+        }
+
+        /**
+         * Get the number of latencies recorded
+         *
+         * @return count
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * Get the mean latency
+         *
+         * @param unit
+         * @return mean or 0 if empty
+         */
+        public double mean(final TimeUnit unit) {
+            return count == 0 ? 0 : (double) sum / count / unit.toNanos(1);
+        }
+
+        /**
+         * Get the latency at the given percentile
+         * <p>
+         * The highest value of the bucket holding the percentile is returned.
+         *
+         * @param percentile
+         *          between 0 and 100, e.g. 99.9
+         * @param unit
+         * @return latency or 0 if empty
+         */
+        public long percentile(final double percentile, final TimeUnit unit) {
+            if (percentile < 0 || percentile > 100)
+                throw new IllegalArgumentException("Percentile must be between 0 and 100");
+            if (count == 0)
+                return 0;
+            final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return unit.convert(highestValue(i), TimeUnit.NANOSECONDS);
+            }
+            return unit.convert(highestValue(counts.length - 1), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Get the highest latency recorded
+         *
+         * @param unit
+         * @return latency or 0 if empty
+         */
+        public long max(final TimeUnit unit) {
+            return percentile(100, unit);
+        }
+
+        @Override
+        public String toString() {
+            TimeUnit us = TimeUnit.MICROSECONDS;
+            return "count=" + count
+                    + ",p50=" + percentile(50, us) / 1000.0 + "ms"
+                    + ",p99=" + percentile(99, us) / 1000.0 + "ms"
+                    + ",p999=" + percentile(99.9, us) / 1000.0 + "ms"
+                    + ",max=" + max(us) / 1000.0 + "ms";
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.tutar.http.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * {@link LatencyHistogram}s keyed by host and status class
+ * <p>
+ * Status classes are '1xx' to '5xx', requests that failed without a response
+ * are counted under 'failed'. Snapshots are keyed by 'host status', for
+ * example 'example.com 2xx'.
+ */
+public class LatencyHistograms {
+
+    /**
+     * Status class of requests that failed without a response
+     */
+    public static final String FAILED = "failed";
+
+    private static final String[] CLASSES = {FAILED, "1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private final ConcurrentMap<String, AtomicReferenceArray<LatencyHistogram>> hosts =
+            new ConcurrentHashMap<String, AtomicReferenceArray<LatencyHistogram>>();
+
+    private static int classIndex(final int code) {
+        return code >= 100 && code < 600 ? code / 100 : 0;
+    }
+
+    /**
+     * Record the latency of a completed request
+     *
+     * @param host
+     * @param code
+     *          status code, -1 if the request failed without a response
+     * @param nanos
+     */
+    public void record(final String host, final int code, final long nanos) {
+        AtomicReferenceArray<LatencyHistogram> classes = hosts.get(host);
+        if (classes == null) {
+            AtomicReferenceArray<LatencyHistogram> created =
+                    new AtomicReferenceArray<LatencyHistogram>(CLASSES.length);
+            classes = hosts.putIfAbsent(host, created);
+            if (classes == null)
+                classes = created;
+        }
+        final int index = classIndex(code);
+        LatencyHistogram histogram = classes.get(index);
+        if (histogram == null) {
+            classes.compareAndSet(index, null, new LatencyHistogram());
+            histogram = classes.get(index);
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Get the histogram of a host and status class
+     *
+     * @param host
+     * @param statusClass
+     *          '1xx' to '5xx' or {@link #FAILED}
+     * @return histogram or null if nothing was recorded
+     */
+    public LatencyHistogram histogram(final String host, final String statusClass) {
+        AtomicReferenceArray<LatencyHistogram> classes = hosts.get(host);
+        if (classes == null)
+            return null;
+        for (int i = 0; i < CLASSES.length; i++)
+            if (CLASSES[i].equals(statusClass))
+                return classes.get(i);
+        throw new IllegalArgumentException("Unknown status class " + statusClass);
+    }
+
+    /**
+     * Take a snapshot of every histogram
+     *
+     * @return snapshots sorted by key
+     */
+    public Map<String, LatencyHistogram.Snapshot> snapshot() {
+        return collect(Mode.SNAPSHOT);
+    }
+
+    /**
+     * Take a snapshot of every histogram and clear them
+     *
+     * @return snapshots sorted by key
+     */
+    public Map<String, LatencyHistogram.Snapshot> snapshotAndReset() {
+        return collect(Mode.RESET);
+    }
+
+    /**
+     * Take a snapshot of the latencies recorded in every histogram since the
+     * previous call to this method
+     *
+     * @return snapshots sorted by key
+     * @see LatencyHistogram#intervalSnapshot()
+     */
+    public Map<String, LatencyHistogram.Snapshot> intervalSnapshot() {
+        return collect(Mode.INTERVAL);
+    }
+
+    private enum Mode {
+        SNAPSHOT, RESET, INTERVAL
+    }
+
+    private Map<String, LatencyHistogram.Snapshot> collect(final Mode mode) {
+        final Map<String, LatencyHistogram.Snapshot> snapshots =
+                new TreeMap<String, LatencyHistogram.Snapshot>();
+        for (Map.Entry<String, AtomicReferenceArray<LatencyHistogram>> entry : hosts.entrySet()) {
+            for (int i = 0; i < CLASSES.length; i++) {
+                LatencyHistogram histogram = entry.getValue().get(i);
+                if (histogram == null)
+                    continue;
+                final LatencyHistogram.Snapshot snapshot;
+                if (mode == Mode.RESET)
+                    snapshot = histogram.snapshotAndReset();
+                else if (mode == Mode.INTERVAL)
+                    snapshot = histogram.intervalSnapshot();
+                else
+                    snapshot = histogram.snapshot();
+                snapshots.put(entry.getKey() + ' ' + CLASSES[i], snapshot);
+            }
+        }
+        return snapshots;
+    }
+}
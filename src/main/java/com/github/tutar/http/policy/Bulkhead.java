@@ -0,0 +1,328 @@
+package com.github.tutar.http.policy;
+
+import com.github.tutar.http.Exception.BulkheadFullException;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of requests in flight in total and to each host, so a
+ * slow host can only tie up its own share of the callers
+ * <p>
+ * A request that finds no free slot queues for at most the configured
+ * maximum wait and is then rejected with a {@link BulkheadFullException}.
+ */
+public class Bulkhead {
+
+    private final int maxConcurrent;
+
+    private final int maxConcurrentPerHost;
+
+    private final long maxWaitNanos;
+
+    private final Semaphore global;
+
+    private final ConcurrentMap<String, Semaphore> hosts =
+            new ConcurrentHashMap<String, Semaphore>();
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    private final AtomicLong acquired = new AtomicLong();
+
+    private final AtomicLong queued = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxWaitObservedNanos = new AtomicLong();
+
+    private Bulkhead(final Builder builder) {
+        this.maxConcurrent = builder.maxConcurrent;
+        this.maxConcurrentPerHost = builder.maxConcurrentPerHost;
+        this.maxWaitNanos = builder.maxWaitNanos;
+        this.global = new Semaphore(builder.maxConcurrent, true);
+    }
+
+    /**
+     * Start building a bulkhead
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Take a slot for a request to the given host
+     *
+     * @param host
+     * @return permit to release once the request completes
+     * @throws BulkheadFullException if no slot became free in time
+     * @throws InterruptedIOException if interrupted while queued
+     */
+    public Permit acquire(final String host) throws InterruptedIOException {
+        return acquire(host, maxWaitNanos);
+    }
+
+    /**
+     * Take a slot for a request to the given host, waiting for at most the
+     * configured maximum wait or the given time, whichever is shorter
+     *
+     * @param host
+     * @param timeout
+     * @param unit
+     * @return permit to release once the request completes
+     * @throws BulkheadFullException if no slot became free in time
+     * @throws InterruptedIOException if interrupted while queued
+     */
+    public Permit acquire(final String host, final long timeout, final TimeUnit unit)
+            throws InterruptedIOException {
+        return acquire(host, Math.min(maxWaitNanos, unit.toNanos(timeout)));
+    }
+
+    private Permit acquire(final String host, final long maxWaitNanos)
+            throws InterruptedIOException {
+        final Semaphore perHost = hostSemaphore(host);
+        final long start = System.nanoTime();
+        final boolean[] waited = new boolean[1];
+        if (!acquire(perHost, start, maxWaitNanos, waited)) {
+            rejected.incrementAndGet();
+            throw new BulkheadFullException(host);
+        }
+        boolean ok = false;
+        try {
+            ok = acquire(global, start, maxWaitNanos, waited);
+        } finally {
+            if (!ok)
+                perHost.release();
+        }
+        if (!ok) {
+            rejected.incrementAndGet();
+            throw new BulkheadFullException(host);
+        }
+        acquired.incrementAndGet();
+        if (waited[0]) {
+            final long wait = System.nanoTime() - start;
+            queued.incrementAndGet();
+            totalWaitNanos.addAndGet(wait);
+            for (long max; wait > (max = maxWaitObservedNanos.get()); )
+                if (maxWaitObservedNanos.compareAndSet(max, wait))
+                    break;
+        }
+        return new Permit(perHost);
+    }
+
+    private boolean acquire(final Semaphore semaphore, final long start,
+            final long maxWaitNanos, final boolean[] waited) throws InterruptedIOException {
+        if (semaphore.tryAcquire())
+            return true;
+        final long remaining = maxWaitNanos - (System.nanoTime() - start);
+        if (remaining <= 0)
+            return false;
+        waited[0] = true;
+        queueDepth.incrementAndGet();
+        try {
+            return semaphore.tryAcquire(remaining, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a bulkhead slot");
+        } finally {
+            queueDepth.decrementAndGet();
+        }
+    }
+
+    private Semaphore hostSemaphore(final String host) {
+        Semaphore semaphore = hosts.get(host);
+        if (semaphore == null) {
+            Semaphore created = new Semaphore(maxConcurrentPerHost, true);
+            semaphore = hosts.putIfAbsent(host, created);
+            if (semaphore == null)
+                semaphore = created;
+        }
+        return semaphore;
+    }
+
+    /**
+     * Get the number of requests currently queued for a slot
+     *
+     * @return queue depth
+     */
+    public int queueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * Get the number of requests currently holding a slot
+     *
+     * @return count
+     */
+    public int inFlight() {
+        return maxConcurrent - global.availablePermits();
+    }
+
+    /**
+     * Get the number of requests to the given host currently holding a slot
+     *
+     * @param host
+     * @return count
+     */
+    public int inFlight(final String host) {
+        Semaphore semaphore = hosts.get(host);
+        return semaphore == null ? 0 : maxConcurrentPerHost - semaphore.availablePermits();
+    }
+
+    /**
+     * Get the number of slots handed out
+     *
+     * @return count
+     */
+    public long acquiredCount() {
+        return acquired.get();
+    }
+
+    /**
+     * Get the number of slots handed out after queueing
+     *
+     * @return count
+     */
+    public long queuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * Get the number of requests rejected
+     *
+     * @return count
+     */
+    public long rejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Get the average time queued requests waited for their slot
+     *
+     * @param unit
+     * @return average wait
+     */
+    public long averageWait(final TimeUnit unit) {
+        final long count = queued.get();
+        return count == 0 ? 0 : unit.convert(totalWaitNanos.get() / count, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the longest time a request waited for its slot
+     *
+     * @param unit
+     * @return max wait
+     */
+    public long maxWait(final TimeUnit unit) {
+        return unit.convert(maxWaitObservedNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "Bulkhead{inFlight=" + inFlight() + ", queueDepth=" + queueDepth()
+                + ", acquired=" + acquiredCount() + ", queued=" + queuedCount()
+                + ", rejected=" + rejectedCount() + ", averageWaitMs="
+                + averageWait(TimeUnit.MILLISECONDS) + ", maxWaitMs="
+                + maxWait(TimeUnit.MILLISECONDS) + '}';
+    }
+
+    /**
+     * Slot held by a request, released at most once
+     */
+    public class Permit {
+
+        private final Semaphore perHost;
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(final Semaphore perHost) {
+            this.perHost = perHost;
+        }
+
+        /**
+         * Give the slot back
+         */
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                global.release();
+                perHost.release();
+            }
+        }
+    }
+
+    /**
+     * Builder of {@link Bulkhead}
+     */
+    public static class Builder {
+
+        private int maxConcurrent = 64;
+
+        private int maxConcurrentPerHost = 5;
+
+        private long maxWaitNanos;
+
+        private Builder() {
+        }
+
+        /**
+         * Set the maximum number of requests in flight in total
+         *
+         * @param max
+         * @return this builder
+         */
+        public Builder maxConcurrent(final int max) {
+            if (max < 1)
+                throw new IllegalArgumentException("Max concurrent must be greater than zero");
+            this.maxConcurrent = max;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of requests in flight to each host
+         *
+         * @param max
+         * @return this builder
+         */
+        public Builder maxConcurrentPerHost(final int max) {
+            if (max < 1)
+                throw new IllegalArgumentException("Max concurrent per host must be greater than zero");
+            this.maxConcurrentPerHost = max;
+            return this;
+        }
+
+        /**
+         * Set how long a request queues for a slot before it is rejected, zero
+         * to reject immediately and {@link Long#MAX_VALUE} to wait forever
+         * <p>
+         * Asynchronous requests never queue, they are rejected immediately.
+         *
+         * @param timeout
+         * @param unit
+         * @return this builder
+         */
+        public Builder maxWait(final long timeout, final TimeUnit unit) {
+            if (timeout < 0)
+                throw new IllegalArgumentException("Max wait must not be negative");
+            this.maxWaitNanos = timeout == Long.MAX_VALUE ? Long.MAX_VALUE : unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Build the bulkhead
+         *
+         * @return bulkhead
+         */
+        public Bulkhead build() {
+            return new Bulkhead(this);
+        }
+    }
+}
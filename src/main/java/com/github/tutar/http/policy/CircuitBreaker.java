@@ -0,0 +1,334 @@
+package com.github.tutar.http.policy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker guarding calls to a single host
+ * <p>
+ * The outcomes of the last calls are kept in a count based sliding window.
+ * Once the window holds enough calls and either the failure rate or the slow
+ * call rate reaches its threshold the breaker opens and rejects calls. After
+ * the open duration it lets a few probe calls through (half-open) and closes
+ * again if they meet the thresholds, otherwise it opens again. Probes that
+ * report no outcome within the open duration are written off and new ones
+ * are let through.
+ */
+public class CircuitBreaker {
+
+    /**
+     * State of a {@link CircuitBreaker}
+     */
+    public enum State {
+        /**
+         * Calls are permitted and recorded
+         */
+        CLOSED,
+        /**
+         * Calls are rejected
+         */
+        OPEN,
+        /**
+         * A limited number of probe calls are permitted
+         */
+        HALF_OPEN
+    }
+
+    private static final byte FAILED = 1;
+
+    private static final byte SLOW = 2;
+
+    private final double failureRateThreshold;
+
+    private final double slowCallRateThreshold;
+
+    private final long slowCallDurationNanos;
+
+    private final int minimumCalls;
+
+    private final long openDurationNanos;
+
+    private final int halfOpenCalls;
+
+    private final byte[] window;
+
+    private int windowIndex;
+
+    private int windowCount;
+
+    private int failures;
+
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+
+    private long openedAt;
+
+    private int probesPermitted;
+
+    private long lastProbeAt;
+
+    private CircuitBreaker(final Builder builder) {
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.slowCallDurationNanos = builder.slowCallDurationNanos;
+        this.minimumCalls = builder.minimumCalls;
+        this.openDurationNanos = builder.openDurationNanos;
+        this.halfOpenCalls = builder.halfOpenCalls;
+        this.window = new byte[builder.windowSize];
+    }
+
+    /**
+     * Start building a circuit breaker
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Ask permission to make a call
+     *
+     * @return true if the call may be made, false if it must fail fast
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openDurationNanos)
+                return false;
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesPermitted >= halfOpenCalls) {
+                // 探测请求迟迟没有结果时重新放行
+                if (System.nanoTime() - lastProbeAt < openDurationNanos)
+                    return false;
+                transition(State.HALF_OPEN);
+            }
+            probesPermitted++;
+            lastProbeAt = System.nanoTime();
+        }
+        return true;
+    }
+
+    /**
+     * Record a successful call
+     *
+     * @param durationNanos
+     */
+    public void onSuccess(final long durationNanos) {
+        record(false, durationNanos);
+    }
+
+    /**
+     * Record a failed call
+     *
+     * @param durationNanos
+     */
+    public void onFailure(final long durationNanos) {
+        record(true, durationNanos);
+    }
+
+    private synchronized void record(final boolean failed, final long durationNanos) {
+        if (state == State.OPEN)
+            return;
+        byte outcome = 0;
+        if (failed)
+            outcome |= FAILED;
+        if (durationNanos >= slowCallDurationNanos)
+            outcome |= SLOW;
+
+        if (windowCount == window.length) {
+            byte evicted = window[windowIndex];
+            if ((evicted & FAILED) != 0)
+                failures--;
+            if ((evicted & SLOW) != 0)
+                slowCalls--;
+        } else {
+            windowCount++;
+        }
+        window[windowIndex] = outcome;
+        windowIndex = (windowIndex + 1) % window.length;
+        if (failed)
+            failures++;
+        if ((outcome & SLOW) != 0)
+            slowCalls++;
+
+        int required = state == State.HALF_OPEN ? halfOpenCalls : minimumCalls;
+        if (windowCount < required)
+            return;
+        if (failureRate() >= failureRateThreshold
+                || slowCallRate() >= slowCallRateThreshold)
+            transition(State.OPEN);
+        else if (state == State.HALF_OPEN)
+            transition(State.CLOSED);
+    }
+
+    private void transition(final State next) {
+        state = next;
+        windowIndex = 0;
+        windowCount = 0;
+        failures = 0;
+        slowCalls = 0;
+        probesPermitted = 0;
+        if (next == State.OPEN)
+            openedAt = System.nanoTime();
+    }
+
+    /**
+     * Get the current state
+     *
+     * @return state
+     */
+    public synchronized State state() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openDurationNanos)
+            return State.HALF_OPEN;
+        return state;
+    }
+
+    /**
+     * Get the failure rate of the calls in the window
+     *
+     * @return rate between 0 and 1
+     */
+    public synchronized double failureRate() {
+        return windowCount == 0 ? 0 : (double) failures / windowCount;
+    }
+
+    /**
+     * Get the slow call rate of the calls in the window
+     *
+     * @return rate between 0 and 1
+     */
+    public synchronized double slowCallRate() {
+        return windowCount == 0 ? 0 : (double) slowCalls / windowCount;
+    }
+
+    /**
+     * Create a breaker with the same configuration as this one
+     *
+     * @return new closed breaker
+     */
+    CircuitBreaker copy() {
+        return new Builder().failureRateThreshold(failureRateThreshold)
+                .slowCallRateThreshold(slowCallRateThreshold)
+                .slowCallDuration(slowCallDurationNanos, TimeUnit.NANOSECONDS)
+                .slidingWindow(window.length, minimumCalls)
+                .openDuration(openDurationNanos, TimeUnit.NANOSECONDS)
+                .halfOpenCalls(halfOpenCalls).build();
+    }
+
+    /**
+     * Builder of {@link CircuitBreaker}
+     */
+    public static class Builder {
+
+        private double failureRateThreshold = 0.5;
+
+        private double slowCallRateThreshold = 1.0;
+
+        private long slowCallDurationNanos = TimeUnit.SECONDS.toNanos(5);
+
+        private int windowSize = 100;
+
+        private int minimumCalls = 20;
+
+        private long openDurationNanos = TimeUnit.SECONDS.toNanos(30);
+
+        private int halfOpenCalls = 5;
+
+        private Builder() {
+        }
+
+        /**
+         * Set the failure rate at which the breaker opens
+         *
+         * @param threshold
+         *          between 0 and 1
+         * @return this builder
+         */
+        public Builder failureRateThreshold(final double threshold) {
+            if (threshold <= 0 || threshold > 1)
+                throw new IllegalArgumentException("Threshold must be greater than 0 and at most 1");
+            this.failureRateThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Set the slow call rate at which the breaker opens
+         *
+         * @param threshold
+         *          between 0 and 1
+         * @return this builder
+         */
+        public Builder slowCallRateThreshold(final double threshold) {
+            if (threshold <= 0 || threshold > 1)
+                throw new IllegalArgumentException("Threshold must be greater than 0 and at most 1");
+            this.slowCallRateThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * Set the duration from which a call counts as slow
+         *
+         * @param duration
+         * @param unit
+         * @return this builder
+         */
+        public Builder slowCallDuration(final long duration, final TimeUnit unit) {
+            this.slowCallDurationNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Set the number of calls kept in the sliding window and how many must
+         * be recorded before the rates are evaluated
+         *
+         * @param size
+         * @param minimumCalls
+         * @return this builder
+         */
+        public Builder slidingWindow(final int size, final int minimumCalls) {
+            if (size < 1 || minimumCalls < 1 || minimumCalls > size)
+                throw new IllegalArgumentException("Minimum calls must be between 1 and the window size");
+            this.windowSize = size;
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * Set how long the breaker stays open before probing the host, and
+         * how long probes may go without reporting an outcome before new ones
+         * are let through
+         *
+         * @param duration
+         * @param unit
+         * @return this builder
+         */
+        public Builder openDuration(final long duration, final TimeUnit unit) {
+            this.openDurationNanos = unit.toNanos(duration);
+            return this;
+        }
+
+        /**
+         * Set the number of probe calls permitted while half-open
+         *
+         * @param calls
+         * @return this builder
+         */
+        public Builder halfOpenCalls(final int calls) {
+            if (calls < 1)
+                throw new IllegalArgumentException("Half-open calls must be greater than zero");
+            this.halfOpenCalls = calls;
+            return this;
+        }
+
+        /**
+         * Build the circuit breaker
+         *
+         * @return circuit breaker
+         */
+        public CircuitBreaker build() {
+            return new CircuitBreaker(this);
+        }
+    }
+}
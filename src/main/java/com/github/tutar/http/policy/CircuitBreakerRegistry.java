@@ -0,0 +1,41 @@
+package com.github.tutar.http.policy;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * One {@link CircuitBreaker} per host, created on first use from a template
+ */
+public class CircuitBreakerRegistry {
+
+    private final CircuitBreaker template;
+
+    private final ConcurrentMap<String, CircuitBreaker> breakers =
+            new ConcurrentHashMap<String, CircuitBreaker>();
+
+    /**
+     * Create a registry whose breakers are configured like the given one
+     *
+     * @param template
+     */
+    public CircuitBreakerRegistry(final CircuitBreaker template) {
+        this.template = template;
+    }
+
+    /**
+     * Get the breaker of the given host
+     *
+     * @param host
+     * @return breaker
+     */
+    public CircuitBreaker forHost(final String host) {
+        CircuitBreaker breaker = breakers.get(host);
+        if (breaker == null) {
+            CircuitBreaker created = template.copy();
+            breaker = breakers.putIfAbsent(host, created);
+            if (breaker == null)
+                breaker = created;
+        }
+        return breaker;
+    }
+}
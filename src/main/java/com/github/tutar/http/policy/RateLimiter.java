@@ -0,0 +1,206 @@
+package com.github.tutar.http.policy;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Token bucket rate limiter
+ * <p>
+ * Implemented as a generic cell rate algorithm: the only state is the
+ * theoretical arrival time of the next permit, advanced with a compare and
+ * set, so acquiring a permit never locks. Up to the burst size permits are
+ * available at once, then they are handed out at the configured rate.
+ * <p>
+ * A caller that finds no permit waits for at most the configured maximum
+ * wait, which is zero (reject immediately) by default. Waiting callers
+ * reserve their permit up front so they are served in arrival order.
+ */
+public class RateLimiter {
+
+    private final long intervalNanos;
+
+    private final long burstNanos;
+
+    private final long maxWaitNanos;
+
+    private final AtomicLong nextPermit;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private RateLimiter(final Builder builder) {
+        this.intervalNanos = builder.intervalNanos;
+        this.burstNanos = builder.intervalNanos * builder.burst;
+        this.maxWaitNanos = builder.maxWaitNanos;
+        this.nextPermit = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Start building a rate limiter
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Reserve a permit if it becomes available within the given wait
+     *
+     * @param maxWaitNanos
+     * @return nanoseconds to wait before using the permit, -1 if none was
+     *         reserved
+     */
+    private long reserve(final long maxWaitNanos) {
+        while (true) {
+            final long now = System.nanoTime();
+            final long next = nextPermit.get();
+            final long updated = (next - now > 0 ? next : now) + intervalNanos;
+            final long wait = updated - now - burstNanos;
+            if (wait > maxWaitNanos) {
+                rejected.incrementAndGet();
+                return -1;
+            }
+            if (nextPermit.compareAndSet(next, updated))
+                return wait > 0 ? wait : 0;
+        }
+    }
+
+    /**
+     * Take a permit if one is available now
+     *
+     * @return true if a permit was taken
+     */
+    public boolean tryAcquire() {
+        return reserve(0) == 0;
+    }
+
+    /**
+     * Take a permit, waiting for it for at most the given time
+     *
+     * @param timeout
+     * @param unit
+     * @return true if a permit was taken, false on timeout
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public boolean tryAcquire(final long timeout, final TimeUnit unit)
+            throws InterruptedIOException {
+        final long wait = reserve(unit.toNanos(timeout));
+        if (wait < 0)
+            return false;
+        if (wait > 0)
+            sleep(wait);
+        return true;
+    }
+
+    /**
+     * Take a permit, waiting for at most the configured maximum wait
+     *
+     * @return true if a permit was taken, false if rejected
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public boolean acquire() throws InterruptedIOException {
+        return tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Take a permit, waiting for at most the configured maximum wait or the
+     * given time, whichever is shorter
+     *
+     * @param timeout
+     * @param unit
+     * @return true if a permit was taken, false if rejected
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    public boolean acquire(final long timeout, final TimeUnit unit) throws InterruptedIOException {
+        return tryAcquire(Math.min(maxWaitNanos, unit.toNanos(timeout)), TimeUnit.NANOSECONDS);
+    }
+
+    private static void sleep(final long nanos) throws InterruptedIOException {
+        final long deadline = System.nanoTime() + nanos;
+        for (long remaining = nanos; remaining > 0; remaining = deadline - System.nanoTime()) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a permit");
+            }
+        }
+    }
+
+    /**
+     * Get the number of permits requests were denied
+     *
+     * @return count
+     */
+    public long rejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Builder of {@link RateLimiter}
+     */
+    public static class Builder {
+
+        private long intervalNanos = TimeUnit.MILLISECONDS.toNanos(10);
+
+        private int burst = 1;
+
+        private long maxWaitNanos;
+
+        private Builder() {
+        }
+
+        /**
+         * Set the sustained rate of permits
+         *
+         * @param permits
+         * @param per
+         * @param unit
+         * @return this builder
+         */
+        public Builder rate(final long permits, final long per, final TimeUnit unit) {
+            if (permits < 1 || per < 1)
+                throw new IllegalArgumentException("Rate must be greater than zero");
+            this.intervalNanos = Math.max(1, unit.toNanos(per) / permits);
+            return this;
+        }
+
+        /**
+         * Set how many permits can be taken at once after an idle period
+         *
+         * @param burst
+         * @return this builder
+         */
+        public Builder burst(final int burst) {
+            if (burst < 1)
+                throw new IllegalArgumentException("Burst must be greater than zero");
+            this.burst = burst;
+            return this;
+        }
+
+        /**
+         * Set how long {@link RateLimiter#acquire()} waits for a permit, zero to
+         * reject immediately and {@link Long#MAX_VALUE} to block
+         *
+         * @param timeout
+         * @param unit
+         * @return this builder
+         */
+        public Builder maxWait(final long timeout, final TimeUnit unit) {
+            if (timeout < 0)
+                throw new IllegalArgumentException("Max wait must not be negative");
+            this.maxWaitNanos = timeout == Long.MAX_VALUE ? Long.MAX_VALUE : unit.toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Build the rate limiter
+         *
+         * @return rate limiter
+         */
+        public RateLimiter build() {
+            return new RateLimiter(this);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.tutar.http.policy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caps retries to a fraction of the requests made
+ * <p>
+ * Every request deposits {@code ratio} of a token and every retry withdraws a
+ * whole one, so during an outage retries can add at most that fraction of
+ * extra load. A small reserve lets occasional retries through at low traffic.
+ */
+public class RetryBudget {
+
+    private static final long SCALE = 1000;
+
+    /**
+     * Budget shared by every {@link RetryPolicy} that does not set its own,
+     * allowing retries for 10% of requests
+     */
+    public static final RetryBudget DEFAULT = new RetryBudget(0.1, 10);
+
+    private final long deposit;
+
+    private final long maxBalance;
+
+    private final AtomicLong balance;
+
+    /**
+     * Create a budget
+     *
+     * @param ratio
+     *          the fraction of requests that may be retried, such as 0.1
+     * @param reserve
+     *          the number of retries allowed before any request was made,
+     *          which is also the most that can be saved up (at least one)
+     */
+    public RetryBudget(final double ratio, final int reserve) {
+        if (ratio < 0)
+            throw new IllegalArgumentException("Ratio must not be negative");
+        if (reserve < 0)
+            throw new IllegalArgumentException("Reserve must not be negative");
+        this.deposit = (long) (ratio * SCALE);
+        this.maxBalance = Math.max(reserve, 1) * SCALE;
+        this.balance = new AtomicLong(reserve * SCALE);
+    }
+
+    /**
+     * Record a request, adding to the budget
+     */
+    public void onRequest() {
+        if (deposit == 0)
+            return;
+        long current;
+        do {
+            current = balance.get();
+            if (current >= maxBalance)
+                return;
+        } while (!balance.compareAndSet(current, Math.min(maxBalance, current + deposit)));
+    }
+
+    /**
+     * Try to withdraw a retry from the budget
+     *
+     * @return true if the retry may be made, false if the budget is exhausted
+     */
+    public boolean tryRetry() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < SCALE)
+                return false;
+        } while (!balance.compareAndSet(current, current - SCALE));
+        return true;
+    }
+
+    /**
+     * Get the number of retries currently available
+     *
+     * @return retries
+     */
+    public int available() {
+        return (int) (balance.get() / SCALE);
+    }
+}
@@ -0,0 +1,308 @@
+package com.github.tutar.http.policy;
+
+import com.github.tutar.http.Deadline;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When and how often a failed request is retried
+ * <p>
+ * Attempts are spaced with exponential backoff and full jitter, the delay
+ * before retry {@code n} is a random value between zero and
+ * {@code min(maxDelay, baseDelay * 2^(n-1))}. Every retry is also drawn from
+ * a {@link RetryBudget} so retries can not multiply load during an outage.
+ * <p>
+ * By default only idempotent methods are retried, on I/O errors and on
+ * '429', '502', '503' and '504' responses.
+ */
+public class RetryPolicy {
+
+    private static final Set<String> IDEMPOTENT_METHODS = Collections.unmodifiableSet(
+            new HashSet<String>(Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE")));
+
+    private final int maxAttempts;
+
+    private final long baseDelayNanos;
+
+    private final long maxDelayNanos;
+
+    private final Set<Integer> retryableCodes;
+
+    private final List<Class<? extends IOException>> retryableExceptions;
+
+    private final boolean idempotentOnly;
+
+    private final RetryBudget budget;
+
+    private RetryPolicy(final Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelayNanos = builder.baseDelayNanos;
+        this.maxDelayNanos = builder.maxDelayNanos;
+        this.retryableCodes = new HashSet<Integer>(builder.retryableCodes);
+        this.retryableExceptions = builder.retryableExceptions;
+        this.idempotentOnly = builder.idempotentOnly;
+        this.budget = builder.budget;
+    }
+
+    /**
+     * Start building a policy
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Get the maximum number of attempts, including the first one
+     *
+     * @return attempts
+     */
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Get the budget retries are drawn from
+     *
+     * @return budget
+     */
+    public RetryBudget budget() {
+        return budget;
+    }
+
+    /**
+     * Record a new request with the budget of this policy
+     */
+    public void onRequest() {
+        budget.onRequest();
+    }
+
+    /**
+     * Should a request that received the given response code be retried?
+     * <p>
+     * A true result withdraws the retry from the budget.
+     *
+     * @param method
+     * @param attempt
+     *          the number of attempts made so far
+     * @param code
+     * @return true to retry
+     */
+    public boolean shouldRetry(final String method, final int attempt, final int code) {
+        return retryableCodes.contains(code) && allowed(method, attempt);
+    }
+
+    /**
+     * Should a request that failed with the given exception be retried?
+     * <p>
+     * A true result withdraws the retry from the budget.
+     *
+     * @param method
+     * @param attempt
+     *          the number of attempts made so far
+     * @param e
+     * @return true to retry
+     */
+    public boolean shouldRetry(final String method, final int attempt, final IOException e) {
+        if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException))
+            return false;
+        for (Class<? extends IOException> type : retryableExceptions)
+            if (type.isInstance(e))
+                return allowed(method, attempt);
+        return false;
+    }
+
+    private boolean allowed(final String method, final int attempt) {
+        if (attempt >= maxAttempts)
+            return false;
+        if (idempotentOnly && !IDEMPOTENT_METHODS.contains(method))
+            return false;
+        return budget.tryRetry();
+    }
+
+    /**
+     * Get the delay before the given retry
+     *
+     * @param attempt
+     *          the number of attempts made so far
+     * @return delay in nanoseconds
+     */
+    public long backoffNanos(final int attempt) {
+        long ceiling = baseDelayNanos << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelayNanos)
+            ceiling = maxDelayNanos;
+        if (ceiling <= 0)
+            return 0;
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Get the delay before the given retry unless the retry would start after
+     * the given deadline
+     *
+     * @param attempt
+     *          the number of attempts made so far
+     * @param deadline
+     *          may be null
+     * @return delay in nanoseconds, -1 if the deadline leaves no time for
+     *         the retry
+     */
+    public long backoffNanos(final int attempt, final Deadline deadline) {
+        long delay = backoffNanos(attempt);
+        if (deadline != null && delay >= deadline.remaining(TimeUnit.NANOSECONDS))
+            return -1;
+        return delay;
+    }
+
+    /**
+     * Sleep for the backoff before the given retry
+     *
+     * @param attempt
+     *          the number of attempts made so far
+     * @throws InterruptedIOException
+     *           if the thread is interrupted while waiting
+     */
+    public void backoff(final int attempt) throws InterruptedIOException {
+        pause(backoffNanos(attempt));
+    }
+
+    /**
+     * Sleep for a backoff delay
+     *
+     * @param delayNanos
+     * @throws InterruptedIOException
+     *           if the thread is interrupted while waiting
+     */
+    public void pause(final long delayNanos) throws InterruptedIOException {
+        if (delayNanos <= 0)
+            return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(delayNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during retry backoff");
+        }
+    }
+
+    /**
+     * Builder of {@link RetryPolicy}
+     */
+    public static class Builder {
+
+        private int maxAttempts = 3;
+
+        private long baseDelayNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+        private long maxDelayNanos = TimeUnit.SECONDS.toNanos(10);
+
+        private Set<Integer> retryableCodes = new HashSet<Integer>(Arrays.asList(429, 502, 503, 504));
+
+        private List<Class<? extends IOException>> retryableExceptions =
+                Collections.<Class<? extends IOException>>singletonList(IOException.class);
+
+        private boolean idempotentOnly = true;
+
+        private RetryBudget budget = RetryBudget.DEFAULT;
+
+        private Builder() {
+        }
+
+        /**
+         * Set the maximum number of attempts, including the first one
+         *
+         * @param maxAttempts
+         * @return this builder
+         */
+        public Builder maxAttempts(final int maxAttempts) {
+            if (maxAttempts < 1)
+                throw new IllegalArgumentException("Max attempts must be greater than zero");
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Set the backoff delays
+         *
+         * @param baseDelay
+         *          the ceiling of the delay before the first retry
+         * @param maxDelay
+         *          the largest ceiling of any delay
+         * @param unit
+         * @return this builder
+         */
+        public Builder backoff(final long baseDelay, final long maxDelay, final TimeUnit unit) {
+            this.baseDelayNanos = unit.toNanos(baseDelay);
+            this.maxDelayNanos = unit.toNanos(maxDelay);
+            return this;
+        }
+
+        /**
+         * Set the response codes that are retried
+         *
+         * @param codes
+         * @return this builder
+         */
+        public Builder retryOnCodes(final Integer... codes) {
+            this.retryableCodes = new HashSet<Integer>(Arrays.asList(codes));
+            return this;
+        }
+
+        /**
+         * Set the exception types that are retried
+         *
+         * @param types
+         * @return this builder
+         */
+        @SafeVarargs
+        public final Builder retryOnExceptions(final Class<? extends IOException>... types) {
+            List<Class<? extends IOException>> list =
+                    new ArrayList<Class<? extends IOException>>(types.length);
+            for (Class<? extends IOException> type : types)
+                list.add(type);
+            this.retryableExceptions = list;
+            return this;
+        }
+
+        /**
+         * Set whether only idempotent methods are retried
+         *
+         * @param idempotentOnly
+         * @return this builder
+         */
+        public Builder idempotentOnly(final boolean idempotentOnly) {
+            this.idempotentOnly = idempotentOnly;
+            return this;
+        }
+
+        /**
+         * Set the budget retries are drawn from
+         *
+         * @param budget
+         * @return this builder
+         */
+        public Builder budget(final RetryBudget budget) {
+            this.budget = budget;
+            return this;
+        }
+
+        /**
+         * Build the policy
+         *
+         * @return policy
+         */
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
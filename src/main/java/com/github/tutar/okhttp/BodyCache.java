@@ -0,0 +1,298 @@
+package com.github.tutar.okhttp;
+
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory cache of response bodies that have already been read
+ * <p>
+ * Entries are keyed by method and URL, evicted least recently used first once
+ * the total body size exceeds the limit and expire after a fixed time to live.
+ * Within the optional stale-while-revalidate window an expired entry is still
+ * served while a single background call refreshes it.
+ * <p>
+ * Only successful responses are stored. The decoded body is kept alongside the
+ * bytes so repeated {@link OkHttpRequest#body()} calls skip decoding too, and
+ * counts towards the size limit at two bytes per char once decoded. The
+ * response headers kept with each entry are not counted.
+ */
+public class BodyCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final long maxSize;
+
+    private final long ttlNanos;
+
+    private long staleNanos;
+
+    private long size;
+
+    private final LinkedHashMap<String, Entry> entries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong staleHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a cache
+     *
+     * @param maxSize
+     *          the maximum total size of the cached bodies in bytes, encoded
+     *          and decoded
+     * @param ttl
+     *          how long an entry is fresh
+     * @param unit
+     */
+    public BodyCache(final long maxSize, final long ttl, final TimeUnit unit) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Max size must be greater than zero");
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * Keep serving expired entries for the given time while they are
+     * refreshed in the background
+     *
+     * @param window
+     * @param unit
+     * @return this cache
+     */
+    public BodyCache staleWhileRevalidate(final long window, final TimeUnit unit) {
+        this.staleNanos = unit.toNanos(window);
+        return this;
+    }
+
+    static String key(final Request request) {
+        return request.method() + ' ' + request.urlString();
+    }
+
+    /**
+     * Get a fresh or still servable stale entry
+     *
+     * @param key
+     * @return entry or null on a miss
+     */
+    synchronized Entry get(final String key) {
+        Entry entry = entries.get(key);
+        long now = System.nanoTime();
+        if (entry != null && now - entry.storedAt > ttlNanos + staleNanos) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (entry.isStale(now))
+            staleHits.incrementAndGet();
+        else
+            hits.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Store a successful response whose body has been read
+     *
+     * @param key
+     * @param response
+     * @param bytes
+     */
+    void put(final String key, final Response response, final byte[] bytes) {
+        if (!response.isSuccessful())
+            return;
+        MediaType contentType = response.body().contentType();
+        Charset charset = contentType != null ? contentType.charset(UTF_8) : UTF_8;
+        Entry entry = new Entry(key, response, bytes, charset, System.nanoTime());
+        synchronized (this) {
+            if (entry.weight > maxSize)
+                return;
+            remove(key);
+            entries.put(key, entry);
+            size += entry.weight;
+            trim();
+        }
+    }
+
+    /**
+     * Evict the least recently used entries until the cache is within its
+     * size limit
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            size -= eldest.next().getValue().weight;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Refresh a stale entry in the background unless a refresh is already
+     * running
+     *
+     * @param key
+     * @param entry
+     * @param client
+     * @param request
+     */
+    void refresh(final String key, final Entry entry, final OkHttpClient client,
+                 final Request request) {
+        if (!entry.refreshing.compareAndSet(false, true))
+            return;
+        // 不沿用前台请求的计时器
+        client.newCall(request.newBuilder().tag(null).build()).enqueue(new Callback() {
+
+            @Override
+            public void onFailure(Request request, IOException e) {
+                entry.refreshing.set(false);
+            }
+
+            @Override
+            public void onResponse(Response response) throws IOException {
+                try {
+                    put(key, response, response.body().bytes());
+                } finally {
+                    response.body().close();
+                    entry.refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    private void remove(final String key) {
+        Entry previous = entries.remove(key);
+        if (previous != null)
+            size -= previous.weight;
+    }
+
+    /**
+     * Remove every entry
+     */
+    public synchronized void evictAll() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Get the total size of the cached bodies, encoded and decoded
+     *
+     * @return size in bytes
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Get the number of requests served from a fresh entry
+     *
+     * @return count
+     */
+    public long hitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of requests served from a stale entry being refreshed
+     *
+     * @return count
+     */
+    public long staleHitCount() {
+        return staleHits.get();
+    }
+
+    /**
+     * Get the number of requests not found in the cache
+     *
+     * @return count
+     */
+    public long missCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of entries evicted to stay within the size limit
+     *
+     * @return count
+     */
+    public long evictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Cached response
+     */
+    class Entry {
+
+        final String key;
+
+        final Response response;
+
+        final byte[] bytes;
+
+        final Charset charset;
+
+        final long storedAt;
+
+        /**
+         * Size counted against the limit, guarded by the cache
+         */
+        long weight;
+
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private volatile String body;
+
+        Entry(final String key, final Response response, final byte[] bytes,
+              final Charset charset, final long storedAt) {
+            this.key = key;
+            this.response = response;
+            this.bytes = bytes;
+            this.charset = charset;
+            this.storedAt = storedAt;
+            this.weight = bytes.length;
+        }
+
+        boolean isStale(final long now) {
+            return now - storedAt > ttlNanos;
+        }
+
+        String body() {
+            String decoded = body;
+            if (decoded != null)
+                return decoded;
+            decoded = new String(bytes, charset);
+            synchronized (BodyCache.this) {
+                if (body != null)
+                    return body;
+                body = decoded;
+                // 解码后的字符串按 UTF-16 计入容量, 必要时淘汰
+                long added = 2L * decoded.length();
+                weight += added;
+                if (entries.get(key) == this) {
+                    size += added;
+                    trim();
+                }
+            }
+            return decoded;
+        }
+    }
+}
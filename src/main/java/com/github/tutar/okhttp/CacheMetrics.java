@@ -0,0 +1,103 @@
+package com.github.tutar.okhttp;
+
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+
+/**
+ * Hit, miss and revalidation counters of the response {@link Cache} of an
+ * {@link OkHttpClientProfile}
+ * <p>
+ * Installed as an application interceptor so every response is classified
+ * once, after the cache has decided how to serve it.
+ */
+public class CacheMetrics implements Interceptor {
+
+    private final Cache cache;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong conditionalHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    CacheMetrics(final Cache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+        Response networkResponse = response.networkResponse();
+        if (networkResponse == null) {
+            if (response.cacheResponse() != null)
+                hits.incrementAndGet();
+        } else if (response.cacheResponse() != null
+                && networkResponse.code() == HTTP_NOT_MODIFIED) {
+            conditionalHits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return response;
+    }
+
+    /**
+     * Get the cache these metrics describe
+     *
+     * @return cache
+     */
+    public Cache cache() {
+        return cache;
+    }
+
+    /**
+     * Get the number of responses served from the cache without contacting
+     * the server
+     *
+     * @return count
+     */
+    public long hitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of cached responses served after the server confirmed
+     * them with a '304 Not Modified'
+     *
+     * @return count
+     */
+    public long conditionalHitCount() {
+        return conditionalHits.get();
+    }
+
+    /**
+     * Get the number of responses whose body came from the network
+     *
+     * @return count
+     */
+    public long missCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the fraction of responses whose body was served from the cache
+     *
+     * @return ratio between 0 and 1
+     */
+    public double hitRatio() {
+        long served = hits.get() + conditionalHits.get();
+        long total = served + misses.get();
+        return total == 0 ? 0 : (double) served / total;
+    }
+
+    @Override
+    public String toString() {
+        return "Hits:" + hitCount() + ",ConditionalHits:" + conditionalHitCount()
+                + ",Misses:" + missCount();
+    }
+}
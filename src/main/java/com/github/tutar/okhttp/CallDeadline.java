@@ -0,0 +1,86 @@
+package com.github.tutar.okhttp;
+
+import com.github.tutar.http.Deadline;
+import com.github.tutar.http.Exception.DeadlineExceededException;
+import com.github.tutar.http.Exception.HttpRequestException;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+/**
+ * Enforces the {@link Deadline} of one {@link OkHttpRequest}
+ * <p>
+ * The request is cancelled once the deadline passes, which cancels every
+ * call made for it, including retries and hedges, and aborts a response
+ * body still being read.
+ */
+final class CallDeadline implements Runnable {
+
+    final Deadline deadline;
+
+    private final OkHttpRequest request;
+
+    private final String host;
+
+    private final Future<?> expiry;
+
+    private boolean expired;
+
+    private boolean finished;
+
+    CallDeadline(final Deadline deadline, final OkHttpRequest request) {
+        this.deadline = deadline;
+        this.request = request;
+        this.host = request.host();
+        this.expiry = deadline.schedule(this);
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            expired = true;
+        }
+        request.cancel();
+    }
+
+    /**
+     * Stop enforcing the deadline, the request is complete
+     */
+    void finish() {
+        synchronized (this) {
+            finished = true;
+        }
+        expiry.cancel(false);
+    }
+
+    /**
+     * Throw if the deadline has passed
+     *
+     * @throws DeadlineExceededException
+     */
+    void check() {
+        if (deadline.isExpired()) {
+            throw new DeadlineExceededException(host);
+        }
+    }
+
+    /**
+     * Get the exception to report for the given failure
+     *
+     * @param e
+     * @return deadline exception if the deadline caused the failure
+     */
+    HttpRequestException failure(final IOException e) {
+        synchronized (this) {
+            if (!expired && !deadline.isExpired()) {
+                return new HttpRequestException(e);
+            }
+        }
+        DeadlineExceededException exceeded = new DeadlineExceededException(host);
+        exceeded.addSuppressed(e);
+        return exceeded;
+    }
+}
@@ -0,0 +1,249 @@
+package com.github.tutar.okhttp;
+
+import com.github.tutar.http.RequestTiming;
+import com.github.tutar.http.RequestTiming.Phase;
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.Dns;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import okio.BufferedSink;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+/**
+ * Collects the {@link RequestTiming} of one {@link OkHttpRequest}
+ * <p>
+ * The timer travels as the tag of the OkHttp request. The application
+ * interceptor binds it to the thread running the call so the DNS and socket
+ * hooks, which do not see the request, can report to it. The network
+ * interceptor times the exchange on the established connection.
+ */
+final class CallTimer {
+
+    private static final ThreadLocal<CallTimer> CURRENT = new ThreadLocal<CallTimer>();
+
+    final RequestTiming timing = new RequestTiming();
+
+    private final long startNanos = System.nanoTime();
+
+    private volatile long connectEndNanos;
+
+    private volatile boolean connected;
+
+    private volatile long writeEndNanos;
+
+    private volatile boolean written;
+
+    /**
+     * Get the time since the request was built
+     *
+     * @return nanoseconds
+     */
+    long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Record the end of the response headers, the call is complete unless the
+     * body is read later
+     *
+     * @return nanoseconds since the request was built
+     */
+    long responseReceived() {
+        long total = System.nanoTime() - startNanos;
+        timing.set(Phase.TOTAL, total);
+        return total;
+    }
+
+    /**
+     * Record the body having been read since the given time
+     *
+     * @param readStart
+     */
+    void bodyRead(long readStart) {
+        long now = System.nanoTime();
+        timing.set(Phase.BODY_READ, now - readStart);
+        timing.set(Phase.TOTAL, now - startNanos);
+    }
+
+    private static CallTimer of(Request request) {
+        Object tag = request.tag();
+        return tag instanceof CallTimer ? (CallTimer) tag : null;
+    }
+
+    /**
+     * Application interceptor timing the queue and binding the timer to the
+     * thread running the call
+     */
+    static final class ApplicationInterceptor implements Interceptor {
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            CallTimer timer = of(chain.request());
+            if (timer == null) {
+                return chain.proceed(chain.request());
+            }
+            // 重试时只记录第一次排队时间
+            if (timer.timing.nanos(Phase.QUEUE) < 0) {
+                timer.timing.set(Phase.QUEUE, System.nanoTime() - timer.startNanos);
+            }
+            timer.connected = false;
+            timer.timing.set(Phase.DNS, -1).set(Phase.CONNECT, -1).set(Phase.TLS, -1);
+            CallTimer previous = CURRENT.get();
+            CURRENT.set(timer);
+            try {
+                return chain.proceed(chain.request());
+            } finally {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Network interceptor timing the request write and the wait for the
+     * response headers
+     */
+    static final class NetworkInterceptor implements Interceptor {
+
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            CallTimer timer = of(chain.request());
+            if (timer == null) {
+                return chain.proceed(chain.request());
+            }
+            long start = System.nanoTime();
+            boolean reused = !timer.connected;
+            timer.timing.connectionReused(reused);
+            Connection connection = chain.connection();
+            if (!reused && connection != null && connection.getHandshake() != null) {
+                timer.timing.set(Phase.TLS, start - timer.connectEndNanos);
+            }
+            timer.written = false;
+            Response response = chain.proceed(chain.request());
+            long end = System.nanoTime();
+            long written = timer.written ? timer.writeEndNanos : start;
+            timer.timing.set(Phase.REQUEST_WRITE, written - start);
+            timer.timing.set(Phase.TTFB, end - written);
+            return response;
+        }
+    }
+
+    /**
+     * Request body recording when it has been written
+     */
+    static final class TimedRequestBody extends RequestBody {
+
+        private final RequestBody delegate;
+
+        private final CallTimer timer;
+
+        TimedRequestBody(RequestBody delegate, CallTimer timer) {
+            this.delegate = delegate;
+            this.timer = timer;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            delegate.writeTo(sink);
+            timer.writeEndNanos = System.nanoTime();
+            timer.written = true;
+        }
+    }
+
+    /**
+     * Host name resolver timing the lookups made for the current call
+     */
+    static final class TimedDns implements Dns {
+
+        private final Dns delegate;
+
+        TimedDns(Dns delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            long start = System.nanoTime();
+            List<InetAddress> addresses = delegate.lookup(hostname);
+            CallTimer timer = CURRENT.get();
+            if (timer != null) {
+                timer.timing.set(Phase.DNS, System.nanoTime() - start);
+            }
+            return addresses;
+        }
+    }
+
+    /**
+     * Socket factory timing the TCP connect of new connections
+     */
+    static final class TimedSocketFactory extends SocketFactory {
+
+        private final SocketFactory delegate;
+
+        TimedSocketFactory(SocketFactory delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Socket createSocket() {
+            return new TimedSocket();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost,
+                                   int localPort) throws IOException {
+            return delegate.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return delegate.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port,
+                                   InetAddress localAddress, int localPort) throws IOException {
+            return delegate.createSocket(address, port, localAddress, localPort);
+        }
+    }
+
+    private static final class TimedSocket extends Socket {
+
+        @Override
+        public void connect(SocketAddress endpoint, int timeout) throws IOException {
+            long start = System.nanoTime();
+            super.connect(endpoint, timeout);
+            CallTimer timer = CURRENT.get();
+            if (timer != null) {
+                long end = System.nanoTime();
+                timer.timing.set(Phase.CONNECT, end - start);
+                timer.connectEndNanos = end;
+                timer.connected = true;
+            }
+        }
+    }
+}
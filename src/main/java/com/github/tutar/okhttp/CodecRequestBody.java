@@ -0,0 +1,45 @@
+package com.github.tutar.okhttp;
+
+import com.github.tutar.http.codec.Codec;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+
+/**
+ * Request body encoded by a {@link Codec} while it is written to the
+ * connection
+ * <p>
+ * The encoded length is unknown up front so the body is sent chunked. The
+ * value is encoded again if the request is retried.
+ */
+class CodecRequestBody extends RequestBody {
+
+    private final Object value;
+
+    private final Codec codec;
+
+    private final MediaType contentType;
+
+    CodecRequestBody(final Object value, final Codec codec) {
+        this.value = value;
+        this.codec = codec;
+        this.contentType = MediaType.parse(codec.contentType());
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(final BufferedSink sink) throws IOException {
+        codec.encode(value, sink.outputStream());
+    }
+}
@@ -0,0 +1,209 @@
+package com.github.tutar.okhttp;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live metrics of the {@link ConnectionPool} of an
+ * {@link OkHttpClientProfile}
+ * <p>
+ * Installed as a network interceptor so every exchange reports whether its
+ * connection was freshly opened or reused from the pool.
+ */
+public class ConnectionPoolMetrics implements Interceptor {
+
+    private final ConnectionPool pool;
+
+    private final Map<Connection, Boolean> seen =
+            Collections.synchronizedMap(new WeakHashMap<Connection, Boolean>());
+
+    private final AtomicLong newConnections = new AtomicLong();
+
+    private final AtomicLong reusedConnections = new AtomicLong();
+
+    private final AtomicLong multiplexedStreams = new AtomicLong();
+
+    private long lastSnapshotNanos = System.nanoTime();
+
+    private long lastNewConnections;
+
+    ConnectionPoolMetrics(final ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public Response intercept(final Chain chain) throws IOException {
+        Connection connection = chain.connection();
+        if (connection != null) {
+            if (seen.put(connection, Boolean.TRUE) == null)
+                newConnections.incrementAndGet();
+            else
+                reusedConnections.incrementAndGet();
+            if (connection.getProtocol() != Protocol.HTTP_1_0
+                    && connection.getProtocol() != Protocol.HTTP_1_1)
+                multiplexedStreams.incrementAndGet();
+        }
+        return chain.proceed(chain.request());
+    }
+
+    /**
+     * Take a snapshot of the pool
+     * <p>
+     * The new connection rate is computed since the previous snapshot.
+     *
+     * @return snapshot
+     */
+    public synchronized Snapshot snapshot() {
+        long now = System.nanoTime();
+        long created = newConnections.get();
+        double seconds = (now - lastSnapshotNanos) / 1e9;
+        double rate = seconds > 0 ? (created - lastNewConnections) / seconds : 0;
+        lastSnapshotNanos = now;
+        lastNewConnections = created;
+        return new Snapshot(pool.getConnectionCount(),
+                pool.getIdleConnectionCount(),
+                pool.getMultiplexedConnectionCount(), created,
+                reusedConnections.get(), multiplexedStreams.get(), rate);
+    }
+
+    /**
+     * Point in time view of a connection pool
+     */
+    public static class Snapshot {
+
+        private final int connectionCount;
+
+        private final int idleConnectionCount;
+
+        private final int multiplexedConnectionCount;
+
+        private final long newConnections;
+
+        private final long reusedConnections;
+
+        private final long multiplexedStreams;
+
+        private final double newConnectionRate;
+
+        Snapshot(final int connectionCount, final int idleConnectionCount,
+                 final int multiplexedConnectionCount, final long newConnections,
+                 final long reusedConnections, final long multiplexedStreams,
+                 final double newConnectionRate) {
+            this.connectionCount = connectionCount;
+            this.idleConnectionCount = idleConnectionCount;
+            this.multiplexedConnectionCount = multiplexedConnectionCount;
+            this.newConnections = newConnections;
+            this.reusedConnections = reusedConnections;
+            this.multiplexedStreams = multiplexedStreams;
+            this.newConnectionRate = newConnectionRate;
+        }
+
+        /**
+         * Get the number of open connections in the pool
+         *
+         * @return count
+         */
+        public int connectionCount() {
+            return connectionCount;
+        }
+
+        /**
+         * Get the number of idle connections in the pool
+         *
+         * @return count
+         */
+        public int idleConnectionCount() {
+            return idleConnectionCount;
+        }
+
+        /**
+         * Get the number of multiplexed (HTTP/2 or SPDY) connections in the
+         * pool
+         *
+         * @return count
+         */
+        public int multiplexedConnectionCount() {
+            return multiplexedConnectionCount;
+        }
+
+        /**
+         * Get the number of connections opened since the profile was built
+         *
+         * @return count
+         */
+        public long newConnections() {
+            return newConnections;
+        }
+
+        /**
+         * Get the number of exchanges that reused a pooled connection
+         *
+         * @return count
+         */
+        public long reusedConnections() {
+            return reusedConnections;
+        }
+
+        /**
+         * Get the number of exchanges carried as streams of a multiplexed
+         * (HTTP/2 or SPDY) connection
+         *
+         * @return count
+         */
+        public long multiplexedStreams() {
+            return multiplexedStreams;
+        }
+
+        /**
+         * Get the number of opened connections that have since been evicted
+         * or closed
+         *
+         * @return count
+         */
+        public long evictedConnections() {
+            return Math.max(0, newConnections - connectionCount);
+        }
+
+        /**
+         * Get the fraction of exchanges that reused a pooled connection
+         *
+         * @return ratio between 0 and 1
+         */
+        public double reuseRatio() {
+            long total = newConnections + reusedConnections;
+            return total == 0 ? 0 : (double) reusedConnections / total;
+        }
+
+        /**
+         * Get the number of connections opened per second since the previous
+         * snapshot
+         *
+         * @return rate
+         */
+        public double newConnectionRate() {
+            return newConnectionRate;
+        }
+
+        @Override
+        public String toString() {
+            return "ConnectionCount:" + connectionCount
+                    + ",IdleConnectionCount:" + idleConnectionCount
+                    + ",MultiplexedConnectionCount:" + multiplexedConnectionCount
+                    + ",NewConnections:" + newConnections
+                    + ",ReusedConnections:" + reusedConnections
+                    + ",MultiplexedStreams:" + multiplexedStreams
+                    + ",EvictedConnections:" + evictedConnections()
+                    + ",ReuseRatio:" + String.format("%.3f", reuseRatio())
+                    + ",NewConnectionRate:" + String.format("%.1f/s", newConnectionRate);
+        }
+    }
+}
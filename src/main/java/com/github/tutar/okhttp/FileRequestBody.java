@@ -0,0 +1,53 @@
+package com.github.tutar.okhttp;
+
+import com.github.tutar.http.MappedFileInputStream;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Request body of a file, large files are read through memory-mapped
+ * windows of its channel
+ * <p>
+ * Each segment written to the connection is filled straight from the page
+ * cache instead of through the read buffer of a {@link java.io.FileInputStream}.
+ */
+class FileRequestBody extends RequestBody {
+
+    private final MediaType contentType;
+
+    private final File file;
+
+    FileRequestBody(final MediaType contentType, final File file) {
+        if (file == null) {
+            throw new NullPointerException("content == null");
+        }
+        this.contentType = contentType;
+        this.file = file;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return file.length();
+    }
+
+    @Override
+    public void writeTo(final BufferedSink sink) throws IOException {
+        Source source = Okio.source(MappedFileInputStream.open(file));
+        try {
+            sink.writeAll(source);
+        } finally {
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.tutar.okhttp;
+
+import com.github.tutar.http.GzipOutputStream;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+
+import java.io.IOException;
+
+/**
+ * Request body gzip compressed while it is written to the connection
+ * <p>
+ * The compressed length is unknown up front so the body is sent chunked.
+ */
+class GzipRequestBody extends RequestBody {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final RequestBody delegate;
+
+    private final int level;
+
+    GzipRequestBody(final RequestBody delegate, final int level) {
+        this.delegate = delegate;
+        this.level = level;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(final BufferedSink sink) throws IOException {
+        GzipOutputStream gzip = new GzipOutputStream(sink.outputStream(), level, BUFFER_SIZE);
+        try {
+            BufferedSink gzipSink = Okio.buffer(Okio.sink(gzip));
+            delegate.writeTo(gzipSink);
+            gzipSink.emit();
+        } finally {
+            gzip.finishAndRelease();
+        }
+    }
+}
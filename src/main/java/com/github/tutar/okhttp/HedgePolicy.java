@@ -0,0 +1,130 @@
+package com.github.tutar.okhttp;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * When to send a second copy of a slow idempotent request
+ * <p>
+ * If no response arrived within the hedge delay a second call is sent and
+ * whichever completes first is used, the other one is cancelled. The delay
+ * is either fixed or derived from a percentile of the latencies observed by
+ * this policy.
+ *
+ * @see OkHttpRequest#hedge(HedgePolicy)
+ */
+public class HedgePolicy {
+
+    private static final int SAMPLES = 1024;
+
+    private static final int RECOMPUTE_INTERVAL = 64;
+
+    private final double percentile;
+
+    private final long minDelayNanos;
+
+    private final long[] samples = new long[SAMPLES];
+
+    private int recorded;
+
+    private volatile long delayNanos;
+
+    private final AtomicLong hedgesSent = new AtomicLong();
+
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    private HedgePolicy(final double percentile, final long delayNanos) {
+        this.percentile = percentile;
+        this.minDelayNanos = delayNanos;
+        this.delayNanos = delayNanos;
+    }
+
+    /**
+     * Hedge after a fixed delay
+     *
+     * @param delay
+     * @param unit
+     * @return policy
+     */
+    public static HedgePolicy fixed(final long delay, final TimeUnit unit) {
+        return new HedgePolicy(-1, unit.toNanos(delay));
+    }
+
+    /**
+     * Hedge after the given percentile of observed latencies, such as 0.95
+     * <p>
+     * Until enough latencies were observed, and whenever the percentile is
+     * lower, the minimum delay is used.
+     *
+     * @param percentile
+     *          between 0 and 1
+     * @param minDelay
+     * @param unit
+     * @return policy
+     */
+    public static HedgePolicy percentile(final double percentile,
+                                         final long minDelay, final TimeUnit unit) {
+        if (percentile <= 0 || percentile >= 1)
+            throw new IllegalArgumentException("Percentile must be between 0 and 1");
+        return new HedgePolicy(percentile, unit.toNanos(minDelay));
+    }
+
+    /**
+     * Get the current hedge delay
+     *
+     * @return delay in nanoseconds
+     */
+    public long delayNanos() {
+        return delayNanos;
+    }
+
+    /**
+     * Record the latency of a completed request
+     *
+     * @param latencyNanos
+     */
+    void record(final long latencyNanos) {
+        if (percentile < 0)
+            return;
+        long[] sorted = null;
+        synchronized (samples) {
+            samples[recorded % SAMPLES] = latencyNanos;
+            recorded++;
+            if (recorded >= RECOMPUTE_INTERVAL && recorded % RECOMPUTE_INTERVAL == 0)
+                sorted = Arrays.copyOf(samples, Math.min(recorded, SAMPLES));
+        }
+        if (sorted != null) {
+            Arrays.sort(sorted);
+            long observed = sorted[(int) Math.min(sorted.length - 1,
+                    Math.ceil(percentile * sorted.length) - 1)];
+            delayNanos = Math.max(minDelayNanos, observed);
+        }
+    }
+
+    void hedgeSent() {
+        hedgesSent.incrementAndGet();
+    }
+
+    void hedgeWon() {
+        hedgesWon.incrementAndGet();
+    }
+
+    /**
+     * Get the number of hedged copies sent
+     *
+     * @return count
+     */
+    public long hedgesSent() {
+        return hedgesSent.get();
+    }
+
+    /**
+     * Get the number of hedged copies that completed before the original
+     *
+     * @return count
+     */
+    public long hedgesWon() {
+        return hedgesWon.get();
+    }
+}
@@ -0,0 +1,293 @@
+package com.github.tutar.okhttp;
+
+import com.github.tutar.http.Exception.HttpRequestException;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes a batch of independent {@link OkHttpRequest requests} with bounded
+ * concurrency
+ * <p>
+ * Requests are enqueued on the dispatcher of their client profile as earlier
+ * ones complete, so no thread is blocked per request. The dispatcher limits of
+ * each profile still apply on top of the limits of the batch. A request only
+ * completes once its response body has been read into memory, so the limits
+ * also bound the connections held open by the batch. Later requests
+ * are started from the thread completing an earlier one, which a rate limiter
+ * configured to wait for permits delays, but no lock of the batch is held
+ * meanwhile.
+ *
+ * @see OkHttpRequest#executeAll(Collection, int, int, long, TimeUnit)
+ */
+public class OkHttpBatch {
+
+    private final List<OkHttpRequest> requests;
+
+    private int maxConcurrency = 64;
+
+    private int maxConcurrencyPerHost = 5;
+
+    private long timeoutNanos = -1;
+
+    private final LinkedList<Integer> pending = new LinkedList<Integer>();
+
+    private final Map<String, Integer> runningPerHost = new HashMap<String, Integer>();
+
+    private RequestFuture[] futures;
+
+    private int running;
+
+    private boolean expired;
+
+    private boolean pumping;
+
+    private boolean repump;
+
+    private CountDownLatch remaining;
+
+    private OkHttpCallback callback;
+
+    private OkHttpBatch(final Collection<OkHttpRequest> requests) {
+        this.requests = new ArrayList<OkHttpRequest>(requests);
+    }
+
+    /**
+     * Create a batch of the given requests
+     *
+     * @param requests
+     * @return batch
+     */
+    public static OkHttpBatch of(final Collection<OkHttpRequest> requests) {
+        return new OkHttpBatch(requests);
+    }
+
+    /**
+     * Set the maximum number of requests in flight at once
+     *
+     * @param maxConcurrency
+     * @return this batch
+     */
+    public OkHttpBatch maxConcurrency(final int maxConcurrency) {
+        if (maxConcurrency < 1)
+            throw new IllegalArgumentException("Max concurrency must be greater than zero");
+        this.maxConcurrency = maxConcurrency;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of requests in flight at once against a single
+     * host
+     *
+     * @param maxConcurrencyPerHost
+     * @return this batch
+     */
+    public OkHttpBatch maxConcurrencyPerHost(final int maxConcurrencyPerHost) {
+        if (maxConcurrencyPerHost < 1)
+            throw new IllegalArgumentException("Max concurrency per host must be greater than zero");
+        this.maxConcurrencyPerHost = maxConcurrencyPerHost;
+        return this;
+    }
+
+    /**
+     * Set the total time allowed for the whole batch
+     * <p>
+     * Requests still running or not yet started when the deadline passes are
+     * cancelled and their futures fail.
+     *
+     * @param timeout
+     * @param unit
+     * @return this batch
+     */
+    public OkHttpBatch deadline(final long timeout, final TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * Execute the batch and wait for every request to complete or the
+     * deadline to pass
+     *
+     * @return futures of the requests, in the order they were given
+     * @throws HttpRequestException
+     *           if the calling thread is interrupted
+     */
+    public List<RequestFuture> execute() throws HttpRequestException {
+        return execute(null);
+    }
+
+    /**
+     * Execute the batch and wait for every request to complete or the
+     * deadline to pass
+     *
+     * @param callback
+     *          notified as each request completes, in completion order
+     * @return futures of the requests, in the order they were given
+     * @throws HttpRequestException
+     *           if the calling thread is interrupted
+     */
+    public List<RequestFuture> execute(final OkHttpCallback callback)
+            throws HttpRequestException {
+        synchronized (this) {
+            if (futures != null)
+                throw new IllegalStateException("The batch has already been executed");
+            this.callback = callback;
+            futures = new RequestFuture[requests.size()];
+            remaining = new CountDownLatch(requests.size());
+            for (int i = 0; i < requests.size(); i++)
+                pending.add(i);
+        }
+        pump();
+
+        try {
+            if (timeoutNanos < 0)
+                remaining.await();
+            else if (!remaining.await(timeoutNanos, TimeUnit.NANOSECONDS))
+                expire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            expire();
+            throw new HttpRequestException(new InterruptedIOException());
+        }
+
+        List<RequestFuture> results = new ArrayList<RequestFuture>(futures.length);
+        synchronized (this) {
+            for (RequestFuture future : futures)
+                results.add(future);
+        }
+        return results;
+    }
+
+    /**
+     * Start as many pending requests as the limits allow
+     * <p>
+     * Requests are picked under the lock but started outside of it, since a
+     * request rejected by its policies completes, and pumps again, from
+     * within {@link OkHttpRequest#sendAsync(OkHttpCallback)}. Such nested
+     * pumps are left to the thread already pumping.
+     */
+    private void pump() {
+        synchronized (this) {
+            if (pumping) {
+                repump = true;
+                return;
+            }
+            pumping = true;
+        }
+        while (true) {
+            List<Integer> started;
+            synchronized (this) {
+                started = next();
+                if (started.isEmpty() && !repump) {
+                    pumping = false;
+                    return;
+                }
+                repump = false;
+            }
+            for (int index : started)
+                start(index);
+        }
+    }
+
+    /**
+     * Take the pending requests the limits allow to start and count them as
+     * running
+     */
+    private List<Integer> next() {
+        List<Integer> started = new ArrayList<Integer>();
+        if (expired)
+            return started;
+        Iterator<Integer> iterator = pending.iterator();
+        while (running < maxConcurrency && iterator.hasNext()) {
+            final int index = iterator.next();
+            final String host = requests.get(index).host();
+            Integer count = runningPerHost.get(host);
+            if (count == null)
+                count = 0;
+            if (count >= maxConcurrencyPerHost)
+                continue;
+            iterator.remove();
+            running++;
+            runningPerHost.put(host, count + 1);
+            started.add(index);
+        }
+        return started;
+    }
+
+    private void start(final int index) {
+        final OkHttpRequest request = requests.get(index);
+        final String host = request.host();
+        request.bufferAsync();
+        RequestFuture future = request.sendAsync(new OkHttpCallback() {
+
+            @Override
+            public void onResponse(OkHttpRequest request) {
+                finished(host, request, null);
+            }
+
+            @Override
+            public void onFailure(OkHttpRequest request, HttpRequestException e) {
+                finished(host, request, e);
+            }
+        });
+        boolean cancel;
+        synchronized (this) {
+            futures[index] = future;
+            cancel = expired;
+        }
+        // 截止时间已过, 取消时该请求还未登记
+        if (cancel && !future.isDone())
+            future.cancel(true);
+    }
+
+    private void finished(final String host, final OkHttpRequest request,
+                          final HttpRequestException e) {
+        synchronized (this) {
+            running--;
+            int count = runningPerHost.get(host) - 1;
+            if (count == 0)
+                runningPerHost.remove(host);
+            else
+                runningPerHost.put(host, count);
+        }
+        pump();
+        try {
+            if (callback != null) {
+                if (e == null)
+                    callback.onResponse(request);
+                else
+                    callback.onFailure(request, e);
+            }
+        } finally {
+            remaining.countDown();
+        }
+    }
+
+    private void expire() {
+        List<RequestFuture> inFlight = new ArrayList<RequestFuture>();
+        synchronized (this) {
+            expired = true;
+            HttpRequestException timeout = new HttpRequestException(
+                    new InterruptedIOException("Batch deadline exceeded"));
+            for (int index : pending) {
+                RequestFuture future = new RequestFuture(requests.get(index), null);
+                future.fail(timeout);
+                futures[index] = future;
+            }
+            pending.clear();
+            for (RequestFuture future : futures)
+                if (future != null && !future.isDone())
+                    inFlight.add(future);
+        }
+        for (RequestFuture future : inFlight)
+            future.cancel(true);
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.tutar.okhttp;
+
+import com.github.tutar.http.Exception.HttpRequestException;
+
+/**
+ * Callback interface for requests sent with {@link OkHttpRequest#sendAsync()}
+ * <p>
+ * Methods are invoked on the dispatcher thread of the shared client, so
+ * implementations should not block.
+ */
+public interface OkHttpCallback {
+
+    /**
+     * Callback invoked once the response has been read
+     *
+     * @param request the completed request
+     */
+    void onResponse(OkHttpRequest request);
+
+    /**
+     * Callback invoked when the request could not be executed
+     *
+     * @param request the failed request
+     * @param e the failure
+     */
+    void onFailure(OkHttpRequest request, HttpRequestException e);
+}
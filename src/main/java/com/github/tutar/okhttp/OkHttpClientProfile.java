@@ -0,0 +1,675 @@
+package com.github.tutar.okhttp;
+
+import com.github.tutar.http.dns.HostResolver;
+import com.github.tutar.http.metrics.LatencyHistograms;
+import com.github.tutar.http.policy.Bulkhead;
+import com.github.tutar.http.policy.CircuitBreakerRegistry;
+import com.github.tutar.http.policy.RateLimiter;
+import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.Dns;
+import com.squareup.okhttp.HttpUrl;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Protocol;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import javax.net.SocketFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Named {@link OkHttpClient} configuration built once and shared by every
+ * {@link OkHttpRequest} that selects it
+ * <p>
+ * Each profile owns its own connection pool and dispatcher. Profiles are
+ * registered with {@link OkHttpClients} either by name or for a host.
+ * <p>
+ * The pool defaults can be changed with the
+ * {@value #PROPERTY_MAX_IDLE_CONNECTIONS} and
+ * {@value #PROPERTY_KEEP_ALIVE_DURATION} (milliseconds) system properties.
+ */
+public class OkHttpClientProfile {
+
+    /**
+     * System property overriding the default number of idle pooled connections
+     */
+    public static final String PROPERTY_MAX_IDLE_CONNECTIONS = "okhttp.pool.maxIdleConnections";
+
+    /**
+     * System property overriding the default keep-alive of pooled connections
+     */
+    public static final String PROPERTY_KEEP_ALIVE_DURATION = "okhttp.pool.keepAliveDuration";
+
+    private final String name;
+
+    private final OkHttpClient client;
+
+    private final ConnectionPoolMetrics poolMetrics;
+
+    private final CacheMetrics cacheMetrics;
+
+    private final CircuitBreakerRegistry circuitBreakers;
+
+    private final RateLimiter rateLimiter;
+
+    private final Bulkhead bulkhead;
+
+    private final Map<String, RateLimiter> hostRateLimiters;
+
+    private final List<Interceptor> interceptors;
+
+    private final List<Interceptor> networkInterceptors;
+
+    private final LatencyHistograms latencies = new LatencyHistograms();
+
+    private final int maxIdleConnections;
+
+    private OkHttpClientProfile(final Builder builder) {
+        this.name = builder.name;
+        this.maxIdleConnections = builder.maxIdleConnections;
+        this.circuitBreakers = builder.circuitBreakers;
+        this.rateLimiter = builder.rateLimiter;
+        this.bulkhead = builder.bulkhead;
+        this.hostRateLimiters = new HashMap<String, RateLimiter>(builder.hostRateLimiters);
+        this.interceptors = Collections.unmodifiableList(
+                new ArrayList<Interceptor>(builder.interceptors));
+        this.networkInterceptors = Collections.unmodifiableList(
+                new ArrayList<Interceptor>(builder.networkInterceptors));
+
+        OkHttpClient client = new OkHttpClient();
+        ConnectionPool pool = new ConnectionPool(builder.maxIdleConnections,
+                builder.keepAliveDurationMs);
+        client.setConnectionPool(pool);
+        client.setDns(new CallTimer.TimedDns(builder.resolver != null
+                ? new ResolverDns(builder.resolver) : Dns.SYSTEM));
+        client.setSocketFactory(new CallTimer.TimedSocketFactory(SocketFactory.getDefault()));
+        client.interceptors().add(new CallTimer.ApplicationInterceptor());
+        client.interceptors().addAll(interceptors);
+        poolMetrics = new ConnectionPoolMetrics(pool);
+        client.networkInterceptors().add(poolMetrics);
+        client.networkInterceptors().addAll(networkInterceptors);
+        client.networkInterceptors().add(new CallTimer.NetworkInterceptor());
+        client.setConnectTimeout(builder.connectTimeout, TimeUnit.MILLISECONDS);
+        client.setReadTimeout(builder.readTimeout, TimeUnit.MILLISECONDS);
+        client.setWriteTimeout(builder.writeTimeout, TimeUnit.MILLISECONDS);
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(builder.maxRequests);
+        dispatcher.setMaxRequestsPerHost(builder.maxRequestsPerHost);
+        client.setDispatcher(dispatcher);
+        if (builder.protocols != null) {
+            client.setProtocols(builder.protocols);
+        }
+        if (builder.cacheDirectory != null) {
+            Cache cache = new Cache(builder.cacheDirectory, builder.cacheMaxSize);
+            client.setCache(cache);
+            cacheMetrics = new CacheMetrics(cache);
+            client.interceptors().add(cacheMetrics);
+        } else {
+            cacheMetrics = null;
+        }
+        this.client = client;
+    }
+
+    /**
+     * Start building a profile with the given name
+     *
+     * @param name
+     * @return builder
+     */
+    public static Builder builder(final String name) {
+        return new Builder(name);
+    }
+
+    /**
+     * Get the name of this profile
+     *
+     * @return name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Get the shared client of this profile
+     * <p>
+     * The returned client must not be reconfigured, derive a copy with
+     * {@link OkHttpClient#clone()} instead.
+     *
+     * @return client
+     */
+    public OkHttpClient client() {
+        return client;
+    }
+
+    /**
+     * Get the metrics of the connection pool of this profile
+     *
+     * @return metrics
+     */
+    public ConnectionPoolMetrics poolMetrics() {
+        return poolMetrics;
+    }
+
+    /**
+     * Get the latency histograms of the requests made with this profile, by
+     * host and status class
+     * <p>
+     * Latencies are measured from sending the request to receiving the
+     * response headers.
+     *
+     * @return histograms
+     */
+    public LatencyHistograms latencies() {
+        return latencies;
+    }
+
+    /**
+     * Get the metrics of the response cache of this profile
+     *
+     * @return metrics or null if the profile has no cache
+     */
+    public CacheMetrics cacheMetrics() {
+        return cacheMetrics;
+    }
+
+    /**
+     * Get the circuit breakers guarding the hosts requested with this profile
+     *
+     * @return registry or null if the profile has no circuit breakers
+     */
+    public CircuitBreakerRegistry circuitBreakers() {
+        return circuitBreakers;
+    }
+
+    /**
+     * Get the rate limiter applying to requests to the given host
+     *
+     * @param host
+     * @return limiter of the host, else the limiter of the profile, else null
+     */
+    public RateLimiter rateLimiter(final String host) {
+        RateLimiter limiter = hostRateLimiters.get(host);
+        return limiter != null ? limiter : rateLimiter;
+    }
+
+    /**
+     * Get the bulkhead limiting the requests in flight with this profile
+     *
+     * @return bulkhead or null if the profile has none
+     */
+    public Bulkhead bulkhead() {
+        return bulkhead;
+    }
+
+    /**
+     * Get the number of calls queued by the dispatcher of this profile
+     *
+     * @return count
+     */
+    public int queuedCallCount() {
+        return client.getDispatcher().getQueuedCallCount();
+    }
+
+    /**
+     * Get the number of calls run by the dispatcher of this profile
+     *
+     * @return count
+     */
+    public int runningCallCount() {
+        return client.getDispatcher().getRunningCallCount();
+    }
+
+    /**
+     * Get the application interceptors added to this profile, outermost first
+     *
+     * @return unmodifiable list
+     */
+    public List<Interceptor> interceptors() {
+        return interceptors;
+    }
+
+    /**
+     * Get the network interceptors added to this profile, outermost first
+     *
+     * @return unmodifiable list
+     */
+    public List<Interceptor> networkInterceptors() {
+        return networkInterceptors;
+    }
+
+    /**
+     * Open connections to the given URL ahead of traffic and park them in the
+     * connection pool
+     * <p>
+     * Sends concurrent HEAD requests, each held once it has a connection
+     * until all of them have one, so every request opens its own connection
+     * and pays the TCP and TLS setup. The number of connections is capped to
+     * the maximum number of idle connections of the pool, more would be
+     * evicted right away. Over HTTP/2 all requests share one connection.
+     * <p>
+     * Warmup requests skip the rate limiters, bulkhead, circuit breakers
+     * and latency histograms of the profile. Failures are counted in the
+     * result rather than thrown.
+     *
+     * @param url
+     *          root URL of the host, e.g. https://api.example.com
+     * @param connections
+     * @return result
+     */
+    public WarmupResult warmup(final String url, final int connections) {
+        if (connections < 1)
+            throw new IllegalArgumentException("Connections must be greater than zero");
+        final HttpUrl parsed = HttpUrl.parse(url);
+        if (parsed == null)
+            throw new IllegalArgumentException("Invalid URL " + url);
+        final int count = Math.min(connections, maxIdleConnections);
+        final long start = System.nanoTime();
+        if (count == 0)
+            return new WarmupResult(url, 0, 0, 0, 0);
+
+        final CountDownLatch arrived = new CountDownLatch(count);
+        final Set<Object> counted = Collections.newSetFromMap(
+                new IdentityHashMap<Object, Boolean>());
+        final OkHttpClient warmupClient = client.clone();
+        warmupClient.networkInterceptors().add(0, new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                arrive(arrived, counted, chain.request().tag());
+                try {
+                    arrived.await(Math.max(connectTimeout(), 1000), TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted during warmup");
+                }
+                return chain.proceed(chain.request());
+            }
+        });
+
+        List<Callable<Boolean>> calls = new ArrayList<Callable<Boolean>>(count);
+        for (int i = 0; i < count; i++) {
+            calls.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    CallTimer timer = new CallTimer();
+                    try {
+                        Response response = warmupClient.newCall(new Request.Builder()
+                                .url(parsed).head().tag(timer).build()).execute();
+                        response.body().close();
+                        return !timer.timing.connectionReused();
+                    } finally {
+                        // 失败的请求也要放行其他请求
+                        arrive(arrived, counted, timer);
+                    }
+                }
+            });
+        }
+
+        int established = 0;
+        int failed = 0;
+        try {
+            for (Future<Boolean> call : client.getDispatcher().getExecutorService().invokeAll(calls)) {
+                try {
+                    if (call.get())
+                        established++;
+                } catch (ExecutionException e) {
+                    failed++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed = count - established;
+        }
+        return new WarmupResult(url, count, established, failed, System.nanoTime() - start);
+    }
+
+    private static void arrive(final CountDownLatch arrived, final Set<Object> counted,
+                               final Object call) {
+        boolean first;
+        synchronized (counted) {
+            first = counted.add(call);
+        }
+        if (first)
+            arrived.countDown();
+    }
+
+    /**
+     * Get the connect timeout of this profile
+     *
+     * @return timeout in milliseconds
+     */
+    public int connectTimeout() {
+        return client.getConnectTimeout();
+    }
+
+    /**
+     * Get the read timeout of this profile
+     *
+     * @return timeout in milliseconds
+     */
+    public int readTimeout() {
+        return client.getReadTimeout();
+    }
+
+    /**
+     * Get the write timeout of this profile
+     *
+     * @return timeout in milliseconds
+     */
+    public int writeTimeout() {
+        return client.getWriteTimeout();
+    }
+
+    @Override
+    public String toString() {
+        return "OkHttpClientProfile{" + name + '}';
+    }
+
+    /**
+     * Builder of {@link OkHttpClientProfile}
+     */
+    public static class Builder {
+
+        private final String name;
+
+        private int maxIdleConnections = Integer.getInteger(PROPERTY_MAX_IDLE_CONNECTIONS, 5);
+
+        // 默认设置5min
+        private long keepAliveDurationMs = Long.getLong(PROPERTY_KEEP_ALIVE_DURATION, 5 * 60 * 1000);
+
+        private int connectTimeout = 10_000;
+
+        private int readTimeout = 10_000;
+
+        private int writeTimeout = 10_000;
+
+        private int maxRequests = 64;
+
+        private int maxRequestsPerHost = 5;
+
+        private File cacheDirectory;
+
+        private long cacheMaxSize;
+
+        private CircuitBreakerRegistry circuitBreakers;
+
+        private RateLimiter rateLimiter;
+
+        private Bulkhead bulkhead;
+
+        private List<Protocol> protocols;
+
+        private HostResolver resolver;
+
+        private final List<Interceptor> interceptors = new ArrayList<Interceptor>();
+
+        private final List<Interceptor> networkInterceptors = new ArrayList<Interceptor>();
+
+        private final Map<String, RateLimiter> hostRateLimiters = new HashMap<String, RateLimiter>();
+
+        private Builder(final String name) {
+            if (name == null)
+                throw new IllegalArgumentException("Name must not be null");
+            this.name = name;
+        }
+
+        /**
+         * Set the number of idle connections kept in the pool
+         *
+         * @param maxIdleConnections
+         * @return this builder
+         */
+        public Builder maxIdleConnections(final int maxIdleConnections) {
+            if (maxIdleConnections < 0)
+                throw new IllegalArgumentException("Max idle connections must not be negative");
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        /**
+         * Set how long idle connections are kept in the pool
+         *
+         * @param duration
+         * @param unit
+         * @return this builder
+         */
+        public Builder keepAlive(final long duration, final TimeUnit unit) {
+            this.keepAliveDurationMs = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * Set the connect timeout
+         *
+         * @param timeout Time unit representing one thousandth of a second
+         * @return this builder
+         */
+        public Builder connectTimeout(final int timeout) {
+            this.connectTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Set the read timeout
+         *
+         * @param timeout Time unit representing one thousandth of a second
+         * @return this builder
+         */
+        public Builder readTimeout(final int timeout) {
+            this.readTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Set the write timeout
+         *
+         * @param timeout Time unit representing one thousandth of a second
+         * @return this builder
+         */
+        public Builder writeTimeout(final int timeout) {
+            this.writeTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of asynchronous calls executed concurrently
+         *
+         * @param maxRequests
+         * @return this builder
+         */
+        public Builder maxRequests(final int maxRequests) {
+            if (maxRequests < 1)
+                throw new IllegalArgumentException("Max requests must be greater than zero");
+            this.maxRequests = maxRequests;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of asynchronous calls executed concurrently
+         * against a single host
+         *
+         * @param maxRequestsPerHost
+         * @return this builder
+         */
+        public Builder maxRequestsPerHost(final int maxRequestsPerHost) {
+            if (maxRequestsPerHost < 1)
+                throw new IllegalArgumentException("Max requests per host must be greater than zero");
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        /**
+         * Cache responses in the given directory
+         * <p>
+         * Responses are stored and served according to their 'Cache-Control',
+         * 'Expires', 'ETag' and 'Last-Modified' headers and stale entries are
+         * revalidated with 'If-None-Match' or 'If-Modified-Since'. The
+         * directory must not be shared with another profile.
+         *
+         * @param directory
+         * @param maxSize
+         *          the maximum size of the directory in bytes
+         * @return this builder
+         */
+        public Builder cache(final File directory, final long maxSize) {
+            if (maxSize < 1)
+                throw new IllegalArgumentException("Max size must be greater than zero");
+            this.cacheDirectory = directory;
+            this.cacheMaxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Guard every host requested with this profile by its circuit breaker
+         * from the given registry
+         *
+         * @param registry
+         * @return this builder
+         */
+        public Builder circuitBreakers(final CircuitBreakerRegistry registry) {
+            this.circuitBreakers = registry;
+            return this;
+        }
+
+        /**
+         * Limit the rate of all requests made with this profile
+         *
+         * @param limiter
+         * @return this builder
+         */
+        public Builder rateLimiter(final RateLimiter limiter) {
+            this.rateLimiter = limiter;
+            return this;
+        }
+
+        /**
+         * Limit the rate of requests made with this profile to the given host,
+         * replacing the limiter of the profile for that host
+         *
+         * @param host
+         * @param limiter
+         * @return this builder
+         */
+        public Builder rateLimiter(final String host, final RateLimiter limiter) {
+            if (limiter == null)
+                hostRateLimiters.remove(host);
+            else
+                hostRateLimiters.put(host, limiter);
+            return this;
+        }
+
+        /**
+         * Limit the requests in flight with this profile, in total and per
+         * host
+         * <p>
+         * Unlike {@link #maxRequests(int)} and {@link #maxRequestsPerHost(int)},
+         * which only bound the calls run by the dispatcher, the bulkhead also
+         * applies to synchronous calls. A slot is held until the response
+         * headers arrive.
+         *
+         * @param bulkhead
+         * @return this builder
+         */
+        public Builder bulkhead(final Bulkhead bulkhead) {
+            this.bulkhead = bulkhead;
+            return this;
+        }
+
+        /**
+         * Set the protocols offered to servers, in order of preference
+         * <p>
+         * HTTP/2 and SPDY are only negotiated with ALPN over TLS, calls over
+         * plain 'http' always use HTTP/1.1. Multiplexed connections carry
+         * all concurrent calls to a host, see
+         * {@link ConnectionPoolMetrics.Snapshot#multiplexedStreams()}.
+         *
+         * @param protocols
+         *          must contain {@link Protocol#HTTP_1_1}
+         * @return this builder
+         */
+        public Builder protocols(final Protocol... protocols) {
+            List<Protocol> list = new ArrayList<Protocol>(Arrays.asList(protocols));
+            if (!list.contains(Protocol.HTTP_1_1))
+                throw new IllegalArgumentException("Protocols must contain http/1.1");
+            if (list.contains(Protocol.HTTP_1_0))
+                throw new IllegalArgumentException("Protocols must not contain http/1.0");
+            this.protocols = list;
+            return this;
+        }
+
+        /**
+         * Set the resolver used to look up the hosts of new connections, the
+         * system resolver by default
+         * <p>
+         * Use a {@link com.github.tutar.http.dns.CachingResolver} to cache
+         * lookups beyond the JVM's own cache and keep serving known addresses
+         * while DNS is slow or failing.
+         *
+         * @param resolver
+         * @return this builder
+         */
+        public Builder resolver(final HostResolver resolver) {
+            this.resolver = resolver;
+            return this;
+        }
+
+        /**
+         * Add an application interceptor to every call made with this profile
+         * <p>
+         * Application interceptors run once per call, before the response
+         * cache, and see the request as built by {@link OkHttpRequest}.
+         * Interceptors run in the order they are added.
+         *
+         * @param interceptor
+         * @return this builder
+         */
+        public Builder addInterceptor(final Interceptor interceptor) {
+            if (interceptor == null)
+                throw new IllegalArgumentException("Interceptor must not be null");
+            interceptors.add(interceptor);
+            return this;
+        }
+
+        /**
+         * Add a network interceptor to every call made with this profile
+         * <p>
+         * Network interceptors run for every exchange with the server,
+         * including redirects and retries, and can inspect the connection.
+         * They are not run for responses served from the cache.
+         *
+         * @param interceptor
+         * @return this builder
+         */
+        public Builder addNetworkInterceptor(final Interceptor interceptor) {
+            if (interceptor == null)
+                throw new IllegalArgumentException("Interceptor must not be null");
+            networkInterceptors.add(interceptor);
+            return this;
+        }
+
+        /**
+         * Build the profile and its client
+         *
+         * @return profile
+         */
+        public OkHttpClientProfile build() {
+            return new OkHttpClientProfile(this);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.tutar.okhttp;
+
+import com.squareup.okhttp.HttpUrl;
+
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the {@link OkHttpClientProfile profiles} used by
+ * {@link OkHttpRequest}
+ * <p>
+ * A request uses the profile registered for its host, falling back to the
+ * default profile, unless one is selected with
+ * {@link OkHttpRequest#profile(String)}.
+ */
+public final class OkHttpClients {
+
+    /**
+     * Name of the default profile
+     */
+    public static final String DEFAULT = "default";
+
+    private static final ConcurrentMap<String, OkHttpClientProfile> PROFILES =
+            new ConcurrentHashMap<String, OkHttpClientProfile>();
+
+    private static final ConcurrentMap<String, OkHttpClientProfile> HOSTS =
+            new ConcurrentHashMap<String, OkHttpClientProfile>();
+
+    private static volatile OkHttpClientProfile defaultProfile =
+            OkHttpClientProfile.builder(DEFAULT).build();
+
+    static {
+        PROFILES.put(DEFAULT, defaultProfile);
+    }
+
+    private OkHttpClients() {
+    }
+
+    /**
+     * Register a profile under its name, replacing any previous profile with
+     * the same name
+     * <p>
+     * Registering a profile named {@link #DEFAULT} replaces the default
+     * profile.
+     *
+     * @param profile
+     * @return the given profile
+     */
+    public static OkHttpClientProfile register(final OkHttpClientProfile profile) {
+        PROFILES.put(profile.name(), profile);
+        if (DEFAULT.equals(profile.name()))
+            defaultProfile = profile;
+        return profile;
+    }
+
+    /**
+     * Register a profile and use it for every request to the given host
+     *
+     * @param host
+     * @param profile
+     * @return the given profile
+     */
+    public static OkHttpClientProfile register(final String host,
+                                               final OkHttpClientProfile profile) {
+        register(profile);
+        HOSTS.put(host.toLowerCase(), profile);
+        return profile;
+    }
+
+    /**
+     * Get the profile registered under the given name
+     *
+     * @param name
+     * @return profile
+     * @throws IllegalArgumentException
+     *           if no profile is registered with that name
+     */
+    public static OkHttpClientProfile profile(final String name) {
+        OkHttpClientProfile profile = PROFILES.get(name);
+        if (profile == null)
+            throw new IllegalArgumentException("No client profile named " + name);
+        return profile;
+    }
+
+    /**
+     * Get the default profile
+     *
+     * @return profile
+     */
+    public static OkHttpClientProfile defaultProfile() {
+        return defaultProfile;
+    }
+
+    /**
+     * Get the profile used for requests to the given URL
+     *
+     * @param url
+     * @return host profile or the default profile
+     */
+    public static OkHttpClientProfile forUrl(final String url) {
+        if (!HOSTS.isEmpty()) {
+            HttpUrl parsed = HttpUrl.parse(url);
+            if (parsed != null) {
+                OkHttpClientProfile profile = HOSTS.get(parsed.host());
+                if (profile != null)
+                    return profile;
+            }
+        }
+        return defaultProfile;
+    }
+
+    /**
+     * Remove a profile and any host mapping to it
+     *
+     * @param name
+     */
+    public static void unregister(final String name) {
+        if (DEFAULT.equals(name))
+            throw new IllegalArgumentException("The default profile can not be removed");
+        OkHttpClientProfile profile = PROFILES.remove(name);
+        if (profile != null)
+            HOSTS.values().removeAll(Collections.singleton(profile));
+    }
+}
@@ -1,15 +1,45 @@
 package com.github.tutar.okhttp;
 
 
+import com.github.tutar.http.Deadline;
+import com.github.tutar.http.Exception.BulkheadFullException;
+import com.github.tutar.http.Exception.CircuitBreakerOpenException;
+import com.github.tutar.http.Exception.DeadlineExceededException;
 import com.github.tutar.http.Exception.HttpRequestException;
+import com.github.tutar.http.Exception.RateLimitExceededException;
+import com.github.tutar.http.MappedFileInputStream;
+import com.github.tutar.http.RequestTiming;
+import com.github.tutar.http.TagRegistry;
 import com.github.tutar.http.Utils;
+import com.github.tutar.http.codec.Codec;
+import com.github.tutar.http.policy.Bulkhead;
+import com.github.tutar.http.policy.CircuitBreaker;
+import com.github.tutar.http.policy.CircuitBreakerRegistry;
+import com.github.tutar.http.policy.RateLimiter;
+import com.github.tutar.http.policy.RetryPolicy;
 import com.squareup.okhttp.*;
+import okio.BufferedSink;
+import okio.Okio;
 
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
 
 import static java.net.HttpURLConnection.*;
 
@@ -17,7 +47,7 @@ import static java.net.HttpURLConnection.*;
  * 封装Okhttp
  * @author tutar
  */
-public class OkHttpRequest {
+public class OkHttpRequest implements Closeable {
 
     /**
      * 'application/json' content type header value
@@ -34,181 +64,1560 @@ public class OkHttpRequest {
      */
     public static final String HEADER_CONTENT_TYPE = "Content-Type";
 
+    /**
+     * 'Content-Encoding' header name
+     */
+    public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+    /**
+     * 'Content-Length' header name
+     */
+    public static final String HEADER_CONTENT_LENGTH = "Content-Length";
+
+    /**
+     * 'ETag' header name
+     */
+    public static final String HEADER_ETAG = "ETag";
+
+    /**
+     * 'Last-Modified' header name
+     */
+    public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+
+    /**
+     * 'gzip' encoding header value
+     */
+    public static final String ENCODING_GZIP = "gzip";
+
     /**
      * 'POST' request method
      */
     public static final String METHOD_POST = "POST";
 
     /**
-     * 'GET' request method
+     * 'GET' request method
+     */
+    public static final String METHOD_GET = "GET";
+
+    /**
+     * 'PUT' request method
+     */
+    public static final String METHOD_PUT = "PUT";
+
+    /**
+     * 'DELETE' request method
+     */
+    public static final String METHOD_DELETE = "DELETE";
+
+    /**
+     * 'HEAD' request method
+     */
+    public static final String METHOD_HEAD = "HEAD";
+
+    /**
+     * 'OPTIONS' request method
+     */
+    public static final String METHOD_OPTIONS = "OPTIONS";
+
+    private static final String[] EMPTY_STRINGS = new String[0];
+
+    private static final Headers EMPTY_HEADERS = new Headers.Builder().build();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final TagRegistry<OkHttpRequest> TAGS = new TagRegistry<OkHttpRequest>();
+
+    private static final MediaType MEDIA_TYPE_JSON = MediaType.parse(CONTENT_TYPE_JSON);
+
+    /**
+     * Unread bodies up to this size are buffered when only the status or
+     * headers of the response are read, larger ones are discarded
+     */
+    private static final long MAX_RELEASE_BUFFER = 64 * 1024;
+
+    private Request.Builder builder;
+    private Request request;
+
+
+    private Response response;
+    private boolean bodyConsumed;
+    private boolean bodyDiscarded;
+    private byte[] bytes;
+    private String body;
+    private String message;
+    private Integer code;
+
+
+    private final String requestMethod;
+
+    private final String url;
+
+    private RequestFuture future;
+    private String[] coalesceHeaders;
+    private BodyCache bodyCache;
+    private RetryPolicy retryPolicy;
+    private HedgePolicy hedgePolicy;
+    private CircuitBreakerRegistry circuitBreakers;
+    private BodyCache.Entry cachedEntry;
+    private int connectTimeout = -1;
+    private int readTimeout = -1;
+    private int writeTimeout = -1;
+    private long compressMinSize = -1;
+    private CallTimer timer;
+    private int compressLevel;
+    private long deadlineNanos = -1;
+    private CallDeadline callDeadline;
+    private Object tag;
+    private boolean cancelled;
+    private boolean bufferAsync;
+    private final List<Call> calls = new ArrayList<Call>(2);
+
+    /**
+     * 共享连接池与调度器的客户端配置
+     */
+    private OkHttpClientProfile profile;
+
+    /**
+     * 仅在当前请求覆盖了超时设置时才从profile派生
+     */
+    private OkHttpClient currentClient;
+
+
+    private FormEncodingBuilder formEncodingBuilder;
+
+    /**
+     * default content-type:application/json
+     */
+    private MediaType mediaType = MEDIA_TYPE_JSON;
+
+    public OkHttpRequest(String url,final String method){
+        this.url = url;
+        this.requestMethod = method;
+        this.builder = new Request.Builder();
+
+        profile = OkHttpClients.forUrl(url);
+    }
+
+    protected OkHttpClient getOkHttpClient(){
+        if (currentClient != null) {
+            return currentClient;
+        }
+        if (!overridesTimeouts()) {
+            return profile.client();
+        }
+        // 覆盖超时的请求使用独立的客户端副本，连接池与调度器仍然共享
+        currentClient = profile.client().clone();
+        if (connectTimeout >= 0) {
+            currentClient.setConnectTimeout(connectTimeout, TimeUnit.MILLISECONDS);
+        }
+        if (readTimeout >= 0) {
+            currentClient.setReadTimeout(readTimeout, TimeUnit.MILLISECONDS);
+        }
+        if (writeTimeout >= 0) {
+            currentClient.setWriteTimeout(writeTimeout, TimeUnit.MILLISECONDS);
+        }
+        return currentClient;
+    }
+
+    private boolean overridesTimeouts() {
+        return (connectTimeout >= 0 && connectTimeout != profile.connectTimeout())
+                || (readTimeout >= 0 && readTimeout != profile.readTimeout())
+                || (writeTimeout >= 0 && writeTimeout != profile.writeTimeout());
+    }
+
+    /**
+     * Execute the given requests with bounded concurrency and wait for all of
+     * them to complete
+     *
+     * @param requests
+     * @param maxConcurrency
+     *          the maximum number of requests in flight at once
+     * @param maxConcurrencyPerHost
+     *          the maximum number of requests in flight at once per host
+     * @param timeout
+     *          the total time allowed for the batch
+     * @param unit
+     * @return futures of the requests, in the order they were given
+     * @see OkHttpBatch
+     */
+    public static List<RequestFuture> executeAll(final Collection<OkHttpRequest> requests,
+                                                 final int maxConcurrency,
+                                                 final int maxConcurrencyPerHost,
+                                                 final long timeout, final TimeUnit unit) {
+        return OkHttpBatch.of(requests).maxConcurrency(maxConcurrency)
+                .maxConcurrencyPerHost(maxConcurrencyPerHost)
+                .deadline(timeout, unit).execute();
+    }
+
+    /**
+     * Read the whole response body before completing an asynchronous send,
+     * so the connection is released by the time the future completes
+     */
+    void bufferAsync() {
+        bufferAsync = true;
+    }
+
+    /**
+     * Get the host this request is sent to
+     *
+     * @return host
+     */
+    String host() {
+        HttpUrl parsed = HttpUrl.parse(url);
+        return parsed != null ? parsed.host() : url;
+    }
+
+    /**
+     * Use the client profile registered under the given name
+     *
+     * @param name
+     * @return this request
+     * @see OkHttpClients#register(OkHttpClientProfile)
+     */
+    public OkHttpRequest profile(final String name) {
+        return profile(OkHttpClients.profile(name));
+    }
+
+    /**
+     * Use the given client profile
+     *
+     * @param profile
+     * @return this request
+     */
+    public OkHttpRequest profile(final OkHttpClientProfile profile) {
+        if (request != null)
+            throw new IllegalStateException("The request has already been sent");
+        this.profile = profile;
+        this.currentClient = null;
+        return this;
+    }
+
+    /**
+     * Get the client profile used by this request
+     *
+     * @return profile
+     */
+    public OkHttpClientProfile profile() {
+        return profile;
+    }
+
+    /**
+     * Write char sequence to request body
+     * <p>
+     * The charset configured via {@link #contentType(String)} will be used and
+     * UTF-8 will be used if it is unset.
+     *
+     * @param content
+     * @return this request
+     * @throws HttpRequestException
+     */
+    public OkHttpRequest send(final String content) throws HttpRequestException {
+        RequestBody requestBody = RequestBody.create(mediaType,content);
+        doSend(requestBody);
+        return this;
+    }
+
+    /**
+     * Write contents of file to request body
+     * <p>
+     * Files of at least {@link MappedFileInputStream#MAP_THRESHOLD} bytes are
+     * read through memory-mapped windows.
+     *
+     * @param input
+     * @return this request
+     * @throws HttpRequestException
+     */
+    public OkHttpRequest send(final File input) throws HttpRequestException {
+        RequestBody requestBody = new FileRequestBody(mediaType, input);
+        doSend(requestBody);
+        return this;
+    }
+
+    /**
+     * Encode value to request body with the given codec
+     * <p>
+     * The value is written directly to the connection and the request
+     * content type is the one of the codec.
+     *
+     * @param value
+     * @param codec
+     * @return this request
+     * @throws HttpRequestException
+     */
+    public OkHttpRequest send(final Object value, final Codec codec) throws HttpRequestException {
+        doSend(new CodecRequestBody(value, codec));
+        return this;
+    }
+
+    private OkHttpRequest doSend(RequestBody requestBody){
+        startCall();
+        Request request = buildRequest(requestBody);
+        try {
+            if (bodyCache != null && METHOD_GET.equals(requestMethod)) {
+                doSendCached(request);
+            } else {
+                execute(request);
+            }
+        } catch (HttpRequestException e) {
+            finishCall();
+            profile.latencies().record(host(), -1, timer.elapsedNanos());
+            throw e;
+        }
+        long elapsed = timer.responseReceived();
+        // 缓存命中不计入主机延迟
+        if (cachedEntry == null) {
+            profile.latencies().record(host(), code, elapsed);
+        }
+        if (bytes != null) {
+            finishCall();
+        }
+        return this;
+    }
+
+    private OkHttpRequest doSendCached(Request request){
+        String key = BodyCache.key(request);
+        BodyCache.Entry entry = bodyCache.get(key);
+        if (entry != null) {
+            if (entry.isStale(System.nanoTime())) {
+                bodyCache.refresh(key, entry, getOkHttpClient(), request);
+            }
+            message = entry.response.message();
+            code = entry.response.code();
+            response = entry.response;
+            bodyConsumed = true;
+            bytes = entry.bytes;
+            cachedEntry = entry;
+            return this;
+        }
+        execute(request);
+        bodyCache.put(key, response, bytes());
+        return this;
+    }
+
+    private OkHttpRequest execute(Request request){
+        if (coalesceHeaders != null && isIdempotent()) {
+            return doSendCoalesced(request);
+        }
+        try {
+            readResponse(executeCall(request));
+        } catch (IOException e){
+            throw failure(e);
+        }
+        return this;
+    }
+
+    private OkHttpRequest doSendCoalesced(Request request){
+        String key = RequestCoalescer.key(request, coalesceHeaders);
+        RequestCoalescer.Flight flight = new RequestCoalescer.Flight();
+        RequestCoalescer.Flight leader = RequestCoalescer.join(key, flight);
+        if (leader != null) {
+            leader.await();
+            message = leader.message;
+            code = leader.code;
+            response = leader.response;
+            bodyConsumed = true;
+            bytes = leader.bytes;
+            return this;
+        }
+        try {
+            readResponse(executeCall(request));
+            // 共享的响应体需要完整读取
+            flight.complete(code, message, response, bytes());
+        } catch (IOException e) {
+            HttpRequestException failure = failure(e);
+            flight.fail(failure);
+            throw failure;
+        } catch (HttpRequestException e) {
+            flight.fail(e);
+            throw e;
+        } finally {
+            RequestCoalescer.land(key, flight);
+        }
+        return this;
+    }
+
+    /**
+     * Execute the call, retrying it as allowed by the retry policy
+     */
+    private Response executeCall(Request request) throws IOException {
+        if (retryPolicy == null) {
+            return executeAttempt(request);
+        }
+        retryPolicy.onRequest();
+        Deadline deadline = callDeadline != null ? callDeadline.deadline : null;
+        int attempt = 1;
+        while (true) {
+            Response response;
+            long delay;
+            try {
+                response = executeAttempt(request);
+            } catch (IOException e) {
+                // 重试等待不能超过截止时间, 先检查再从预算中扣除
+                if ((delay = retryPolicy.backoffNanos(attempt, deadline)) < 0
+                        || !retryPolicy.shouldRetry(requestMethod, attempt, e)) {
+                    throw e;
+                }
+                attempt++;
+                retryPolicy.pause(delay);
+                continue;
+            }
+            if ((delay = retryPolicy.backoffNanos(attempt, deadline)) < 0
+                    || !retryPolicy.shouldRetry(requestMethod, attempt, response.code())) {
+                return response;
+            }
+            attempt++;
+            response.body().close();
+            retryPolicy.pause(delay);
+        }
+    }
+
+    private Response executeAttempt(Request request) throws IOException {
+        checkCancelled();
+        acquireRateLimit();
+        Bulkhead bulkhead = profile.bulkhead();
+        if (bulkhead == null) {
+            return executeWithBreaker(request);
+        }
+        Bulkhead.Permit permit = acquireBulkhead(bulkhead);
+        try {
+            return executeWithBreaker(request);
+        } finally {
+            permit.release();
+        }
+    }
+
+    private Response executeWithBreaker(Request request) throws IOException {
+        CircuitBreaker breaker = acquireCircuitBreaker();
+        if (breaker == null) {
+            return executeGuarded(request);
+        }
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = executeGuarded(request);
+        } catch (IOException e) {
+            breaker.onFailure(System.nanoTime() - start);
+            throw e;
+        } catch (RuntimeException e) {
+            // 取消等中止同样要报告结果, 否则半开状态的探测名额无法归还
+            breaker.onFailure(System.nanoTime() - start);
+            throw e;
+        }
+        recordOutcome(breaker, response.code(), start);
+        return response;
+    }
+
+    private Response executeGuarded(Request request) throws IOException {
+        if (hedgePolicy != null && isIdempotent()) {
+            return executeHedged(request);
+        }
+        return createCall(request).execute();
+    }
+
+    /**
+     * Get the circuit breaker of the host and ask it for permission
+     *
+     * @return breaker, null if none applies
+     * @throws CircuitBreakerOpenException if the breaker is open
+     */
+    private CircuitBreaker acquireCircuitBreaker() {
+        CircuitBreakerRegistry registry = circuitBreakers != null ? circuitBreakers : profile.circuitBreakers();
+        if (registry == null) {
+            return null;
+        }
+        String host = host();
+        CircuitBreaker breaker = registry.forHost(host);
+        if (!breaker.tryAcquire()) {
+            throw new CircuitBreakerOpenException(host);
+        }
+        return breaker;
+    }
+
+    /**
+     * Take a permit from the rate limiter of the host, waiting as configured
+     * on the limiter
+     *
+     * @throws RateLimitExceededException if no permit became available
+     */
+    private void acquireRateLimit() throws InterruptedIOException {
+        RateLimiter limiter = profile.rateLimiter(host());
+        if (limiter == null) {
+            return;
+        }
+        boolean acquired = callDeadline == null ? limiter.acquire()
+                : limiter.acquire(callDeadline.deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+        if (!acquired) {
+            checkCancelled();
+            throw new RateLimitExceededException(host());
+        }
+    }
+
+    /**
+     * Take a slot of the bulkhead, waiting as configured on the bulkhead but
+     * not past the deadline
+     *
+     * @throws BulkheadFullException if no slot became free
+     */
+    private Bulkhead.Permit acquireBulkhead(Bulkhead bulkhead) throws InterruptedIOException {
+        if (callDeadline == null) {
+            return bulkhead.acquire(host());
+        }
+        try {
+            return bulkhead.acquire(host(), callDeadline.deadline.remaining(TimeUnit.NANOSECONDS),
+                    TimeUnit.NANOSECONDS);
+        } catch (BulkheadFullException e) {
+            checkCancelled();
+            throw e;
+        }
+    }
+
+    /**
+     * Register the request under its tag and start enforcing its deadline
+     */
+    private void startCall() {
+        if (tag != null) {
+            TAGS.add(tag, this);
+        }
+        Deadline deadline = Deadline.effective(deadlineNanos >= 0
+                ? Deadline.after(deadlineNanos, TimeUnit.NANOSECONDS) : null);
+        callDeadline = deadline != null ? new CallDeadline(deadline, this) : null;
+    }
+
+    /**
+     * The request is complete, unregister it and stop its deadline
+     */
+    private void finishCall() {
+        if (tag != null) {
+            TAGS.remove(tag, this);
+        }
+        if (callDeadline != null) {
+            callDeadline.finish();
+        }
+    }
+
+    private void checkCancelled() {
+        if (callDeadline != null) {
+            callDeadline.check();
+        }
+        synchronized (calls) {
+            if (cancelled) {
+                throw new HttpRequestException(new IOException("Canceled"));
+            }
+        }
+    }
+
+    /**
+     * Wrap the failure of the call, reporting an expired deadline as such
+     */
+    private HttpRequestException failure(IOException e) {
+        return callDeadline != null ? callDeadline.failure(e) : new HttpRequestException(e);
+    }
+
+    private static void release(Bulkhead.Permit permit) {
+        if (permit != null) {
+            permit.release();
+        }
+    }
+
+    private static void recordOutcome(CircuitBreaker breaker, int code, long start) {
+        // 5xx 视为服务端故障
+        if (code >= HTTP_INTERNAL_ERROR) {
+            breaker.onFailure(System.nanoTime() - start);
+        } else {
+            breaker.onSuccess(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Execute the call and a second copy of it if no response arrived within
+     * the hedge delay, the first to complete wins and the other is cancelled
+     */
+    private Response executeHedged(Request request) throws IOException {
+        final long start = System.nanoTime();
+        final BlockingQueue<HedgeOutcome> outcomes = new ArrayBlockingQueue<HedgeOutcome>(2);
+        final AtomicBoolean decided = new AtomicBoolean();
+        Call[] calls = new Call[2];
+        calls[0] = enqueueHedge(request, 0, outcomes, decided);
+        int pending = 1;
+        HedgeOutcome outcome = null;
+        try {
+            outcome = outcomes.poll(hedgePolicy.delayNanos(), TimeUnit.NANOSECONDS);
+            RateLimiter limiter = profile.rateLimiter(host());
+            // 限流时不发送对冲请求
+            if (outcome == null && (limiter == null || limiter.tryAcquire())) {
+                calls[1] = enqueueHedge(request, 1, outcomes, decided);
+                hedgePolicy.hedgeSent();
+                pending = 2;
+            }
+            while (true) {
+                if (outcome == null) {
+                    outcome = outcomes.take();
+                }
+                pending--;
+                // 失败时如果另一个请求仍在进行则继续等待
+                if (outcome.response != null || pending == 0) {
+                    break;
+                }
+                outcome = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            synchronized (outcomes) {
+                decided.set(true);
+                for (HedgeOutcome loser; (loser = outcomes.poll()) != null; ) {
+                    loser.close();
+                }
+            }
+            for (int i = 0; i < calls.length; i++) {
+                if (calls[i] != null && (outcome == null || outcome.index != i)) {
+                    calls[i].cancel();
+                }
+            }
+        }
+        if (outcome.error != null) {
+            throw outcome.error;
+        }
+        hedgePolicy.record(System.nanoTime() - start);
+        if (outcome.index == 1) {
+            hedgePolicy.hedgeWon();
+        }
+        return outcome.response;
+    }
+
+    private Call enqueueHedge(Request request, final int index,
+                              final BlockingQueue<HedgeOutcome> outcomes,
+                              final AtomicBoolean decided) {
+        Call call = createCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Request request, IOException e) {
+                offer(new HedgeOutcome(index, null, e));
+            }
+
+            @Override
+            public void onResponse(Response response) {
+                offer(new HedgeOutcome(index, response, null));
+            }
+
+            private void offer(HedgeOutcome outcome) {
+                synchronized (outcomes) {
+                    if (!decided.get()) {
+                        outcomes.add(outcome);
+                        return;
+                    }
+                }
+                outcome.close();
+            }
+        });
+        return call;
+    }
+
+    /**
+     * Result of one of the calls of a hedged request
+     */
+    private static class HedgeOutcome {
+
+        final int index;
+
+        final Response response;
+
+        final IOException error;
+
+        HedgeOutcome(int index, Response response, IOException error) {
+            this.index = index;
+            this.response = response;
+            this.error = error;
+        }
+
+        void close() {
+            if (response != null) {
+                try {
+                    response.body().close();
+                } catch (IOException e) {
+                    // Ignored
+                }
+            }
+        }
+    }
+
+    private boolean isIdempotent(){
+        return METHOD_GET.equals(requestMethod) || METHOD_HEAD.equals(requestMethod);
+    }
+
+    private RequestFuture doSendAsync(RequestBody requestBody, final OkHttpCallback callback){
+        if (future != null) {
+            throw new IllegalStateException("The request has already been sent");
+        }
+        final RequestFuture result = new RequestFuture(this, callback);
+        future = result;
+        startCall();
+        final CircuitBreaker breaker;
+        Bulkhead.Permit acquired = null;
+        try {
+            acquireRateLimit();
+            if (profile.bulkhead() != null) {
+                // 异步请求不等待隔离舱空位
+                acquired = profile.bulkhead().acquire(host(), 0, TimeUnit.NANOSECONDS);
+            }
+            breaker = acquireCircuitBreaker();
+        } catch (HttpRequestException e) {
+            release(acquired);
+            finishCall();
+            result.fail(e);
+            return result;
+        } catch (InterruptedIOException e) {
+            release(acquired);
+            finishCall();
+            result.fail(new HttpRequestException(e));
+            return result;
+        }
+        final Bulkhead.Permit permit = acquired;
+        final long start = System.nanoTime();
+        Call asyncCall;
+        try {
+            asyncCall = createCall(buildRequest(requestBody));
+        } catch (RuntimeException e) {
+            release(permit);
+            if (breaker != null) {
+                breaker.onFailure(System.nanoTime() - start);
+            }
+            finishCall();
+            throw e;
+        }
+        asyncCall.enqueue(new Callback() {
+            @Override
+            public void onFailure(Request request, IOException e) {
+                release(permit);
+                profile.latencies().record(host(), -1, timer.elapsedNanos());
+                if (breaker != null) {
+                    breaker.onFailure(System.nanoTime() - start);
+                }
+                HttpRequestException failure = failure(e);
+                finishCall();
+                result.fail(failure);
+            }
+
+            @Override
+            public void onResponse(Response response) throws IOException {
+                release(permit);
+                if (breaker != null) {
+                    recordOutcome(breaker, response.code(), start);
+                }
+                try {
+                    readResponse(response);
+                } catch (IOException e) {
+                    HttpRequestException failure = failure(e);
+                    finishCall();
+                    result.fail(failure);
+                    return;
+                }
+                profile.latencies().record(host(), code, timer.responseReceived());
+                if (bufferAsync && bytes == null) {
+                    try {
+                        readBody();
+                    } catch (IOException e) {
+                        result.fail(failure(e));
+                        return;
+                    }
+                }
+                if (bytes != null) {
+                    finishCall();
+                }
+                // future 已被取消, 释放未读的响应体
+                if (!result.complete()) {
+                    close();
+                }
+            }
+        });
+        return result;
+    }
+
+    private Request buildRequest(RequestBody requestBody){
+        if (compressMinSize >= 0 && requestBody != null) {
+            requestBody = compress(requestBody);
+        }
+        timer = new CallTimer();
+        if (requestBody != null) {
+            requestBody = new CallTimer.TimedRequestBody(requestBody, timer);
+        }
+        builder = builder.url(url).method(requestMethod, requestBody).tag(timer);
+        request = builder.build();
+        return request;
+    }
+
+    private RequestBody compress(RequestBody requestBody) {
+        long length;
+        try {
+            length = requestBody.contentLength();
+        } catch (IOException e) {
+            length = -1;
+        }
+        // 长度未知时总是压缩
+        if (length >= 0 && length < compressMinSize) {
+            return requestBody;
+        }
+        builder.header(HEADER_CONTENT_ENCODING, ENCODING_GZIP);
+        return new GzipRequestBody(requestBody, compressLevel);
+    }
+
+    private void readResponse(Response response) throws IOException {
+        message = response.message();
+        code = response.code();
+        this.response = response;
+        // 空响应体直接释放连接
+        if (response.body().contentLength() == 0 || METHOD_HEAD.equals(requestMethod)) {
+            bytes = new byte[0];
+            response.body().close();
+        }
+    }
+
+    /**
+     * Take the unread response body, the connection is released once the
+     * returned body is closed
+     */
+    private ResponseBody openBody() throws IOException {
+        ensureResponse();
+        if (bodyDiscarded) {
+            throw new IOException("Response body larger than " + MAX_RELEASE_BUFFER
+                    + " bytes was discarded once the status was read, read it before the status");
+        }
+        if (bodyConsumed) {
+            throw new IOException("Response body has already been consumed");
+        }
+        bodyConsumed = true;
+        return response.body();
+    }
+
+    private Charset charset() {
+        MediaType contentType = response.body().contentType();
+        return contentType != null ? contentType.charset(UTF_8) : UTF_8;
+    }
+
+    private RequestBody emptyBody(){
+        if(METHOD_POST.equals(requestMethod)){
+            return RequestBody.create(mediaType,"");
+        }
+        return null;
+    }
+
+    /**
+     * Send this request without a body on the shared dispatcher
+     * <p>
+     * The calling thread is not blocked, {@link #code()} and {@link #body()}
+     * are available once the returned future completes. Only a rate limiter
+     * configured to wait for permits delays the calling thread, a bulkhead
+     * slot is taken without waiting and the future fails with a
+     * {@link BulkheadFullException} if none is free.
+     *
+     * @return future completed with this request
+     */
+    public RequestFuture sendAsync() {
+        return doSendAsync(emptyBody(), null);
+    }
+
+    /**
+     * Send this request without a body on the shared dispatcher
+     *
+     * @param callback
+     *          notified on the dispatcher thread once the response is read
+     * @return future completed with this request
+     */
+    public RequestFuture sendAsync(final OkHttpCallback callback) {
+        return doSendAsync(emptyBody(), callback);
+    }
+
+    /**
+     * Write char sequence to request body and send it on the shared dispatcher
+     *
+     * @param content
+     * @return future completed with this request
+     */
+    public RequestFuture sendAsync(final String content) {
+        return sendAsync(content, null);
+    }
+
+    /**
+     * Write char sequence to request body and send it on the shared dispatcher
+     *
+     * @param content
+     * @param callback
+     *          notified on the dispatcher thread once the response is read
+     * @return future completed with this request
+     */
+    public RequestFuture sendAsync(final String content, final OkHttpCallback callback) {
+        return doSendAsync(RequestBody.create(mediaType, content), callback);
+    }
+
+    /**
+     * Write contents of file to request body and send it on the shared
+     * dispatcher
+     *
+     * @param input
+     * @return future completed with this request
+     */
+    public RequestFuture sendAsync(final File input) {
+        return sendAsync(input, null);
+    }
+
+    /**
+     * Write contents of file to request body and send it on the shared
+     * dispatcher
+     *
+     * @param input
+     * @param callback
+     *          notified on the dispatcher thread once the response is read
+     * @return future completed with this request
+     */
+    public RequestFuture sendAsync(final File input, final OkHttpCallback callback) {
+        return doSendAsync(new FileRequestBody(mediaType, input), callback);
+    }
+
+    /**
+     * Encode value to request body with the given codec and send it on the
+     * shared dispatcher
+     *
+     * @param value
+     * @param codec
+     * @param callback
+     *          notified on the dispatcher thread once the response is read,
+     *          may be null
+     * @return future completed with this request
+     */
+    public RequestFuture sendAsync(final Object value, final Codec codec,
+            final OkHttpCallback callback) {
+        return doSendAsync(new CodecRequestBody(value, codec), callback);
+    }
+
+    /**
+     * 设置支持的扩展属性
+     * @param request
+     * @return
+     */
+    private Call createCall(Request request){
+        Call call = getOkHttpClient().newCall(request);
+        synchronized (calls) {
+            if (!cancelled) {
+                calls.add(call);
+                return call;
+            }
+        }
+        // 已取消的请求不再发送
+        call.cancel();
+        return call;
+    }
+
+    /**
+     * Get the status code of the response
+     * <p>
+     * Unless a body accessor such as {@link #body()} or {@link #stream()} has
+     * been used first, reading the status, message or headers of the response
+     * releases its connection: a body of up to 64 KiB is buffered for later
+     * reads and a larger one is discarded.
+     *
+     * @return the response code
+     * @throws HttpRequestException
+     */
+    public int code() throws HttpRequestException {
+        ensureResponse();
+        releaseUnreadBody();
+        return code;
+    }
+
+    /**
+     * Send the request, or wait for it if sent asynchronously, unless the
+     * response has already been received
+     */
+    private void ensureResponse() {
+        // 兼容空请求
+        if(code == null){
+            if(future != null){
+                future.join();
+            } else {
+                doSend(emptyBody());
+            }
+        }
+    }
+
+    /**
+     * Only the status or headers have been read, buffer an unread body of up
+     * to {@link #MAX_RELEASE_BUFFER} bytes and discard a larger one so the
+     * connection is not held until the request is collected
+     */
+    private void releaseUnreadBody() {
+        if (response == null || bodyConsumed || bytes != null) {
+            return;
+        }
+        ResponseBody responseBody = response.body();
+        try {
+            long length = responseBody.contentLength();
+            // 长度未知时最多预读 MAX_RELEASE_BUFFER 字节
+            boolean small = length >= 0 ? length <= MAX_RELEASE_BUFFER
+                    : !responseBody.source().request(MAX_RELEASE_BUFFER + 1);
+            if (small) {
+                readBody();
+                return;
+            }
+        } catch (IOException e) {
+            // 读取失败时同样丢弃响应体
+        }
+        bodyDiscarded = true;
+        close();
+    }
+
+
+    /**
+     * Get response as {@link String} in given character set
+     * <p>
+     * This will fall back to using the UTF-8 character set if the given charset
+     * is null
+     *
+     * @return string
+     * @throws HttpRequestException
+     */
+    public String body() throws HttpRequestException {
+        if (body == null) {
+            ensureResponse();
+            body = cachedEntry != null ? cachedEntry.body()
+                    : new String(bytes(), charset());
+        }
+        return body;
+    }
+
+    /**
+     * Get response as byte array
+     *
+     * @return byte array
+     * @throws HttpRequestException
+     */
+    public byte[] bytes() throws HttpRequestException {
+        ensureResponse();
+        if (bytes == null) {
+            try {
+                readBody();
+            } catch (IOException e) {
+                throw failure(e);
+            }
+        }
+        return bytes;
+    }
+
+    private void readBody() throws IOException {
+        try {
+            long start = System.nanoTime();
+            bytes = openBody().bytes();
+            timer.bodyRead(start);
+        } finally {
+            finishCall();
+        }
+    }
+
+    /**
+     * Get stream to response body
+     * <p>
+     * The body is read incrementally from the connection, which is released
+     * once the returned stream is closed.
+     *
+     * @return stream
+     * @throws HttpRequestException
+     */
+    public InputStream stream() throws HttpRequestException {
+        ensureResponse();
+        if (bytes != null) {
+            return new ByteArrayInputStream(bytes);
+        }
+        try {
+            return openBody().byteStream();
+        } catch (IOException e) {
+            throw new HttpRequestException(e);
+        }
+    }
+
+    /**
+     * Decode response body with the given codec
+     * <p>
+     * The body is decoded directly from the connection without being buffered
+     * as a whole, the connection is released once it has been read.
+     *
+     * @param type
+     * @param codec
+     * @return value
+     * @throws HttpRequestException
+     */
+    public <T> T as(final Class<T> type, final Codec codec) throws HttpRequestException {
+        try {
+            return decodeBody(type, codec);
+        } catch (IOException e) {
+            throw failure(e);
+        }
+    }
+
+    private <T> T decodeBody(Class<T> type, Codec codec) throws IOException {
+        ensureResponse();
+        if (bytes != null) {
+            return codec.decode(new ByteArrayInputStream(bytes), type);
+        }
+        ResponseBody responseBody = openBody();
+        try {
+            long start = System.nanoTime();
+            T value = codec.decode(responseBody.byteStream(), type);
+            timer.bodyRead(start);
+            return value;
+        } finally {
+            responseBody.close();
+            finishCall();
+        }
+    }
+
+    /**
+     * Stream response body to file
+     *
+     * @param file
+     * @return this request
+     * @throws HttpRequestException
+     */
+    public OkHttpRequest receive(final File file) throws HttpRequestException {
+        try {
+            BufferedSink sink = Okio.buffer(Okio.sink(file));
+            try {
+                writeBodyTo(sink);
+            } finally {
+                sink.close();
+            }
+        } catch (IOException e) {
+            throw failure(e);
+        }
+        return this;
+    }
+
+    /**
+     * Stream response body to output stream
+     * <p>
+     * The given stream is flushed but not closed.
+     *
+     * @param output
+     * @return this request
+     * @throws HttpRequestException
+     */
+    public OkHttpRequest receive(final OutputStream output)
+            throws HttpRequestException {
+        try {
+            BufferedSink sink = Okio.buffer(Okio.sink(output));
+            writeBodyTo(sink);
+            sink.flush();
+        } catch (IOException e) {
+            throw failure(e);
+        }
+        return this;
+    }
+
+    private void writeBodyTo(BufferedSink sink) throws IOException {
+        ensureResponse();
+        if (bytes != null) {
+            sink.write(bytes);
+            return;
+        }
+        ResponseBody responseBody = openBody();
+        try {
+            long start = System.nanoTime();
+            sink.writeAll(responseBody.source());
+            timer.bodyRead(start);
+        } finally {
+            responseBody.close();
+            finishCall();
+        }
+    }
+
+    /**
+     * Release the connection of this request without reading the rest of the
+     * response body
+     * <p>
+     * Only needed when the body is opened through {@link #stream()} but not
+     * read to the end. The other body accessors and the status and header
+     * accessors release it themselves.
+     */
+    @Override
+    public void close() {
+        if (response == null || bodyConsumed) {
+            return;
+        }
+        bodyConsumed = true;
+        finishCall();
+        try {
+            response.body().close();
+        } catch (IOException e) {
+            // Ignored
+        }
+    }
+
+    /**
+     * Get status message of the response
+     *
+     * @return message
+     * @throws HttpRequestException
      */
-    public static final String METHOD_GET = "GET";
+    public String message() throws HttpRequestException {
+        if (message == null && future != null) {
+            future.join();
+        }
+        releaseUnreadBody();
+        return message;
+    }
 
     /**
-     * 'PUT' request method
+     * Get the time this request spent in each phase of the call
+     * <p>
+     * Sends the request if needed. The body read phase is only measured once
+     * the body is read through {@link #body()}, {@link #bytes()} or the
+     * receive methods.
+     *
+     * @return timing
+     * @throws HttpRequestException
      */
-    public static final String METHOD_PUT = "PUT";
+    public RequestTiming timing() throws HttpRequestException {
+        code();
+        return timer.timing;
+    }
 
     /**
-     * 'DELETE' request method
+     * Get the protocol the response was received with, such as 'http/1.1' or
+     * 'h2'
+     *
+     * @return protocol
+     * @throws HttpRequestException
      */
-    public static final String METHOD_DELETE = "DELETE";
+    public String protocol() throws HttpRequestException {
+        code();
+        return response != null ? response.protocol().toString() : null;
+    }
+
+    private Headers responseHeaders() {
+        code();
+        return response != null ? response.headers() : EMPTY_HEADERS;
+    }
 
     /**
-     * 保证只使用一个连接池
+     * Get a response header
+     * <p>
+     * Sends the request if needed, the response body is left unread.
+     *
+     * @param name
+     * @return last value of the header, null if missing
+     * @throws HttpRequestException
      */
-    private static final OkHttpClient OK_HTTP_CLIENT = new OkHttpClient();
-
-    private Request.Builder builder;
-    private Request request;
-
+    public String header(final String name) throws HttpRequestException {
+        return responseHeaders().get(name);
+    }
 
-    private String body;
-    private String message;
-    private Integer code;
+    /**
+     * Get all the response headers
+     *
+     * @return map of response header names to their value(s)
+     * @throws HttpRequestException
+     */
+    public Map<String, List<String>> headers() throws HttpRequestException {
+        return responseHeaders().toMultimap();
+    }
 
+    /**
+     * Get all values of the given header from the response
+     *
+     * @param name
+     * @return non-null but possibly empty array of {@link String} header values
+     * @throws HttpRequestException
+     */
+    public String[] headers(final String name) throws HttpRequestException {
+        List<String> values = responseHeaders().values(name);
+        return values.isEmpty() ? EMPTY_STRINGS : values.toArray(new String[values.size()]);
+    }
 
-    private final String requestMethod;
+    /**
+     * Get a date header from the response falling back to returning -1 if the
+     * header is missing or parsing fails
+     *
+     * @param name
+     * @return date in milliseconds since the epoch, -1 on failures
+     * @throws HttpRequestException
+     */
+    public long dateHeader(final String name) throws HttpRequestException {
+        Date date = responseHeaders().getDate(name);
+        return date != null ? date.getTime() : -1;
+    }
 
-    private final String url;
+    /**
+     * Get the 'Content-Length' header from the response
+     * <p>
+     * Unlike the length of {@link #bytes()} this is available for 'HEAD'
+     * requests and without reading the body.
+     *
+     * @return length, -1 if missing or invalid
+     * @throws HttpRequestException
+     */
+    public long contentLength() throws HttpRequestException {
+        String value = header(HEADER_CONTENT_LENGTH);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
 
-    private Call call = null;
-    private int connectTimeout = 10_000;
-    private int readTimeout = 10_000;
-    private int writeTimeout = 10_000;
+    /**
+     * Get the 'ETag' header from the response
+     *
+     * @return entity tag
+     * @throws HttpRequestException
+     */
+    public String eTag() throws HttpRequestException {
+        return header(HEADER_ETAG);
+    }
 
     /**
-     * 从okHttpClient获取基础特性下情况下，保持当前请求配置可扩展
+     * Get the 'Last-Modified' header from the response
+     *
+     * @return last modified value, -1 on failures
+     * @throws HttpRequestException
      */
-    private final OkHttpClient currentClient;
+    public long lastModified() throws HttpRequestException {
+        return dateHeader(HEADER_LAST_MODIFIED);
+    }
 
+    /**
+     * Set header name to given value
+     *
+     * @param name
+     * @param value
+     * @return this request
+     */
+    public OkHttpRequest header(final String name, final String value) {
+        builder.header(name, value);
+        return this;
+    }
 
-    private FormEncodingBuilder formEncodingBuilder;
+    /**
+     * Set header name to given value
+     *
+     * @param name
+     * @param value
+     * @return this request
+     */
+    public OkHttpRequest header(final String name, final Number value) {
+        return header(name, value != null ? value.toString() : null);
+    }
 
     /**
-     * default content-type:application/json
+     * Set all headers found in given map where the keys are the header names and
+     * the values are the header values
+     *
+     * @param headers
+     * @return this request
      */
-    private MediaType mediaType = MediaType.parse("application/json; charset=utf-8");
+    public OkHttpRequest headers(final Map<String, String> headers) {
+        if (!headers.isEmpty())
+            for (Map.Entry<String, String> header : headers.entrySet())
+                header(header.getKey(), header.getValue());
+        return this;
+    }
 
-    //全局okHttpClient设置
-    static {
-        // 默认设置5min
-        long defaultKeepAliveDurationMs = 5 * 60 * 1000;
-        ConnectionPool connectionPool = new ConnectionPool(5, defaultKeepAliveDurationMs);
-        OK_HTTP_CLIENT.setConnectionPool(connectionPool);
+    /**
+     * Set whether or not the response cache of the client profile may be used
+     * <p>
+     * When disabled the request always goes to the network, the response may
+     * still be stored.
+     *
+     * @param useCaches
+     * @return this request
+     */
+    public OkHttpRequest useCaches(final boolean useCaches) {
+        builder.cacheControl(useCaches ? new CacheControl.Builder().build()
+                : CacheControl.FORCE_NETWORK);
+        return this;
     }
 
-    public OkHttpRequest(String url,final String method){
-        this.url = url;
-        this.requestMethod = method;
-        this.builder = new Request.Builder();
+    /**
+     * Tag this request so it can be cancelled with {@link #cancel(Object)}
+     * while it is in flight
+     *
+     * @param tag
+     * @return this request
+     */
+    public OkHttpRequest tag(final Object tag) {
+        this.tag = tag;
+        return this;
+    }
 
-        currentClient = OK_HTTP_CLIENT.clone();
+    /**
+     * Cancel this request
+     * <p>
+     * Queued calls are never sent and calls in flight are aborted, closing
+     * their connections. The response body can no longer be read.
+     */
+    public void cancel() {
+        List<Call> cancelling;
+        synchronized (calls) {
+            cancelled = true;
+            cancelling = new ArrayList<Call>(calls);
+        }
+        for (Call call : cancelling) {
+            call.cancel();
+        }
     }
 
-    protected OkHttpClient getOkHttpClient(){
-        return currentClient;
+    /**
+     * Cancel every queued and in-flight request with the given tag
+     * <p>
+     * A request is in flight from being sent until its response body has
+     * been read or it has been closed.
+     *
+     * @param tag
+     * @return number of requests cancelled
+     */
+    public static int cancel(final Object tag) {
+        List<OkHttpRequest> requests = TAGS.removeAll(tag);
+        for (OkHttpRequest request : requests) {
+            request.cancel();
+        }
+        return requests.size();
     }
 
     /**
-     * Write char sequence to request body
+     * Complete this request within the given time of sending it, or fail it
+     * with a {@link DeadlineExceededException}
      * <p>
-     * The charset configured via {@link #contentType(String)} will be used and
-     * UTF-8 will be used if it is unset.
+     * Unlike the socket timeouts the deadline covers the whole call: waiting
+     * for rate limit permits and bulkhead slots, queueing on the dispatcher,
+     * connecting, retries with their backoff and reading the response body
+     * through {@link #body()}, {@link #bytes()} or the receive methods. The
+     * calls of the request are cancelled once it passes. A deadline bound
+     * with {@link Deadline#bind()} applies as well when it is earlier.
      *
-     * @param content
+     * @param timeout
+     * @param unit
      * @return this request
-     * @throws HttpRequestException
      */
-    public OkHttpRequest send(final String content) throws HttpRequestException {
-        RequestBody requestBody = RequestBody.create(mediaType,content);
-        doSend(requestBody);
+    public OkHttpRequest deadline(final long timeout, final TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative");
+        }
+        this.deadlineNanos = unit.toNanos(timeout);
         return this;
     }
 
     /**
-     * Write contents of file to request body
+     * Retry this request as allowed by the given policy
+     * <p>
+     * Only applies to requests sent synchronously.
      *
-     * @param input
+     * @param policy
      * @return this request
-     * @throws HttpRequestException
      */
-    public OkHttpRequest send(final File input) throws HttpRequestException {
-        RequestBody requestBody = RequestBody.create(mediaType,input);
-        doSend(requestBody);
+    public OkHttpRequest retry(final RetryPolicy policy) {
+        this.retryPolicy = policy;
         return this;
     }
 
-    private OkHttpRequest doSend(RequestBody requestBody){
-        try {
-            builder = builder.url(url).method(requestMethod, requestBody);
-            request = builder.build();
-            Response response = createCall(request).execute();
-            message = response.message();
-            code = response.code();
-            body = response.body().string();
-            response.body().close();
-        } catch (IOException e){
-            throw new HttpRequestException(e);
-        }
+    /**
+     * Send a second copy of this request when it is slow, as decided by the
+     * given policy
+     * <p>
+     * Only applies to 'GET' and 'HEAD' requests sent synchronously.
+     *
+     * @param policy
+     * @return this request
+     */
+    public OkHttpRequest hedge(final HedgePolicy policy) {
+        this.hedgePolicy = policy;
         return this;
     }
 
     /**
-     * 设置支持的扩展属性
-     * @param request
-     * @return
+     * Guard this request with the circuit breaker of its host from the given
+     * registry instead of the one configured on the client profile
+     * <p>
+     * Connection failures and 5xx responses count as failed calls. When the
+     * breaker is open a {@link CircuitBreakerOpenException} is thrown without
+     * contacting the server.
+     *
+     * @param registry
+     * @return this request
      */
-    private Call createCall(Request request){
-//        OkHttpClient currentClient = okHttpClient.clone();
-        // 设置 请求参数
-        currentClient.setWriteTimeout(writeTimeout,TimeUnit.MILLISECONDS);
-        currentClient.setReadTimeout(readTimeout,TimeUnit.MILLISECONDS);
-        currentClient.setConnectTimeout(connectTimeout,TimeUnit.MILLISECONDS);
-
-        return currentClient.newCall(request);
+    public OkHttpRequest circuitBreakers(final CircuitBreakerRegistry registry) {
+        this.circuitBreakers = registry;
+        return this;
     }
 
     /**
-     * Get the status code of the response
+     * Serve this request from the given in-memory body cache when possible
+     * <p>
+     * Only applies to 'GET' requests sent synchronously. On a miss the body
+     * is read fully so it can be stored.
      *
-     * @return the response code
-     * @throws HttpRequestException
+     * @param cache
+     * @return this request
      */
-    public int code() throws HttpRequestException {
-        // 兼容空请求
-        if(code == null){
-            RequestBody requestBody = null;
-            if(METHOD_POST.equals(requestMethod)){
-                requestBody = RequestBody.create(mediaType,"");
-            }
-            doSend(requestBody);
-        }
-        return code;
+    public OkHttpRequest bodyCache(final BodyCache cache) {
+        this.bodyCache = cache;
+        return this;
     }
 
+    /**
+     * Share a single network call with concurrent identical requests
+     * <p>
+     * Only applies to 'GET' and 'HEAD' requests sent synchronously. Requests
+     * are identical when their method, URL and the values of the given request
+     * headers match. Every request sharing the call receives the same code,
+     * message and fully buffered body.
+     *
+     * @param headerNames
+     *          request headers that must also match, such as 'Authorization'
+     * @return this request
+     */
+    public OkHttpRequest coalesce(final String... headerNames) {
+        this.coalesceHeaders = headerNames != null ? headerNames : new String[0];
+        return this;
+    }
 
     /**
-     * Get response as {@link String} in given character set
+     * Gzip compress the request body while it is sent when it is at least the
+     * given number of bytes long
      * <p>
-     * This will fall back to using the UTF-8 character set if the given charset
-     * is null
+     * The body is sent with 'Content-Encoding: gzip' and chunked, the server
+     * must accept compressed request bodies.
      *
-     * @return string
-     * @throws HttpRequestException
+     * @param minSize
+     *          smaller bodies are sent as is
+     * @return this request
      */
-    public String body() throws HttpRequestException {
-        return body;
+    public OkHttpRequest compress(final long minSize) {
+        return compress(minSize, Deflater.DEFAULT_COMPRESSION);
     }
 
     /**
-     * Get status message of the response
+     * Gzip compress the request body while it is sent when it is at least the
+     * given number of bytes long
      *
-     * @return message
-     * @throws HttpRequestException
+     * @param minSize
+     *          smaller bodies are sent as is
+     * @param level
+     *          compression level 0-9
+     * @return this request
+     * @see #compress(long)
      */
-    public String message() throws HttpRequestException {
-        return message;
+    public OkHttpRequest compress(final long minSize, final int level) {
+        if (minSize < 0) {
+            throw new IllegalArgumentException("Min size must not be negative");
+        }
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Level must be between 0 and 9");
+        }
+        this.compressMinSize = minSize;
+        this.compressLevel = level;
+        return this;
     }
 
     /**
@@ -469,6 +1878,93 @@ public class OkHttpRequest {
     }
 
 
+    /**
+     * Start a 'HEAD' request to the given URL
+     *
+     * @param url
+     * @return request
+     * @throws HttpRequestException
+     */
+    public static OkHttpRequest head(final CharSequence url)
+            throws HttpRequestException {
+        return new OkHttpRequest(url.toString(), METHOD_HEAD);
+    }
+
+    /**
+     * Start a 'HEAD' request to the given URL
+     *
+     * @param url
+     * @return request
+     * @throws HttpRequestException
+     */
+    public static OkHttpRequest head(final URL url) throws HttpRequestException {
+        return new OkHttpRequest(url.toString(), METHOD_HEAD);
+    }
+
+    /**
+     * Start a 'HEAD' request to the given URL along with the query params
+     *
+     * @param baseUrl
+     * @param params
+     *          The query parameters to include as part of the baseUrl
+     * @param encode
+     *          true to encode the full URL
+     *
+     * @see Utils#append(CharSequence, Map)
+     * @see Utils#encode(CharSequence)
+     *
+     * @return request
+     */
+    public static OkHttpRequest head(final CharSequence baseUrl,
+                                   final Map<?, ?> params, final boolean encode) {
+        String url = Utils.append(baseUrl, params);
+        return head(encode ? Utils.encode(url) : url);
+    }
+
+    /**
+     * Start a 'HEAD' request to the given URL along with the query params
+     *
+     * @param baseUrl
+     * @param encode
+     *          true to encode the full URL
+     * @param params
+     *          the name/value query parameter pairs to include as part of the
+     *          baseUrl
+     *
+     * @see Utils#append(CharSequence, Object...)
+     * @see Utils#encode(CharSequence)
+     *
+     * @return request
+     */
+    public static OkHttpRequest head(final CharSequence baseUrl,
+                                   final boolean encode, final Object... params) {
+        String url = Utils.append(baseUrl, params);
+        return head(encode ? Utils.encode(url) : url);
+    }
+
+    /**
+     * Start an 'OPTIONS' request to the given URL
+     *
+     * @param url
+     * @return request
+     * @throws HttpRequestException
+     */
+    public static OkHttpRequest options(final CharSequence url)
+            throws HttpRequestException {
+        return new OkHttpRequest(url.toString(), METHOD_OPTIONS);
+    }
+
+    /**
+     * Start an 'OPTIONS' request to the given URL
+     *
+     * @param url
+     * @return request
+     * @throws HttpRequestException
+     */
+    public static OkHttpRequest options(final URL url) throws HttpRequestException {
+        return new OkHttpRequest(url.toString(), METHOD_OPTIONS);
+    }
+
     /**
      * Is the response code a 200 OK?
      *
@@ -552,6 +2048,7 @@ public class OkHttpRequest {
      */
     public OkHttpRequest readTimeout(final int timeout) {
         this.readTimeout = timeout;
+        this.currentClient = null;
         return this;
     }
 
@@ -563,6 +2060,7 @@ public class OkHttpRequest {
      */
     public OkHttpRequest connectTimeout(final int timeout) {
         this.connectTimeout = timeout;
+        this.currentClient = null;
         return this;
     }
 
@@ -574,6 +2072,7 @@ public class OkHttpRequest {
      */
     public OkHttpRequest writeTimeout(final int timeout) {
         this.writeTimeout = timeout;
+        this.currentClient = null;
         return this;
     }
 
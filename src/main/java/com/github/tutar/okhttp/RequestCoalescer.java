@@ -0,0 +1,111 @@
+package com.github.tutar.okhttp;
+
+import com.github.tutar.http.Exception.HttpRequestException;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Shares a single network call between concurrent identical requests
+ * <p>
+ * The first request for a key becomes the leader and executes the call,
+ * requests arriving while it is in flight wait for and copy its response.
+ */
+final class RequestCoalescer {
+
+    private static final ConcurrentMap<String, Flight> IN_FLIGHT =
+            new ConcurrentHashMap<String, Flight>();
+
+    private RequestCoalescer() {
+    }
+
+    /**
+     * Build the key identifying identical requests
+     *
+     * @param request
+     * @param headerNames
+     *          request headers whose values must also match
+     * @return key
+     */
+    static String key(final Request request, final String[] headerNames) {
+        StringBuilder key = new StringBuilder(request.method())
+                .append(' ').append(request.urlString());
+        for (String name : headerNames) {
+            key.append('\n').append(name).append(':');
+            String value = request.header(name);
+            if (value != null)
+                key.append(value);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Join the flight for the given key
+     *
+     * @param key
+     * @param flight
+     *          the flight to lead if none is in progress
+     * @return the flight in progress or null if the given flight now leads
+     */
+    static Flight join(final String key, final Flight flight) {
+        return IN_FLIGHT.putIfAbsent(key, flight);
+    }
+
+    /**
+     * Remove a completed flight so later requests go to the network again
+     *
+     * @param key
+     * @param flight
+     */
+    static void land(final String key, final Flight flight) {
+        IN_FLIGHT.remove(key, flight);
+    }
+
+    /**
+     * Response of a coalesced call shared by the leader with its followers
+     */
+    static class Flight {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        int code;
+
+        String message;
+
+        Response response;
+
+        byte[] bytes;
+
+        HttpRequestException failure;
+
+        void complete(final int code, final String message,
+                      final Response response, final byte[] bytes) {
+            this.code = code;
+            this.message = message;
+            this.response = response;
+            this.bytes = bytes;
+            latch.countDown();
+        }
+
+        void fail(final HttpRequestException failure) {
+            this.failure = failure;
+            latch.countDown();
+        }
+
+        Flight await() throws HttpRequestException {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HttpRequestException(new InterruptedIOException());
+            }
+            if (failure != null)
+                throw failure;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.github.tutar.okhttp;
+
+import com.github.tutar.http.Exception.HttpRequestException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pending result of an {@link OkHttpRequest} enqueued on the shared
+ * dispatcher
+ * <p>
+ * Cancelling the future {@link OkHttpRequest#cancel() cancels} the request,
+ * unless it has already completed.
+ */
+public class RequestFuture implements Future<OkHttpRequest> {
+
+    private final OkHttpRequest request;
+
+    private final OkHttpCallback callback;
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    private volatile HttpRequestException failure;
+
+    private volatile boolean cancelled;
+
+    RequestFuture(final OkHttpRequest request, final OkHttpCallback callback) {
+        this.request = request;
+        this.callback = callback;
+    }
+
+    /**
+     * Complete the future with its request
+     *
+     * @return false if the future was already done, such as cancelled
+     */
+    boolean complete() {
+        if (!done.compareAndSet(false, true)) {
+            return false;
+        }
+        latch.countDown();
+        if (callback != null) {
+            callback.onResponse(request);
+        }
+        return true;
+    }
+
+    void fail(final HttpRequestException e) {
+        if (done.compareAndSet(false, true)) {
+            failed(e);
+        }
+    }
+
+    private void failed(final HttpRequestException e) {
+        failure = e;
+        latch.countDown();
+        if (callback != null) {
+            callback.onFailure(request, e);
+        }
+    }
+
+    /**
+     * Get the request this future completes with
+     *
+     * @return request
+     */
+    public OkHttpRequest request() {
+        return request;
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        // 以 CAS 决定胜负, 已完成的请求不再取消
+        if (!done.compareAndSet(false, true)) {
+            return false;
+        }
+        cancelled = true;
+        request.cancel();
+        failed(new HttpRequestException(new IOException("Canceled")));
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    @Override
+    public OkHttpRequest get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return result();
+    }
+
+    @Override
+    public OkHttpRequest get(final long timeout, final TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    /**
+     * Wait for the request to complete
+     *
+     * @return request
+     * @throws HttpRequestException
+     *           if the request failed, was cancelled or the wait was
+     *           interrupted
+     */
+    public OkHttpRequest join() throws HttpRequestException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpRequestException(new InterruptedIOException());
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return request;
+    }
+
+    private OkHttpRequest result() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.tutar.okhttp;
+
+import com.github.tutar.http.dns.HostResolver;
+import com.squareup.okhttp.Dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+/**
+ * {@link Dns} looking hosts up with a {@link HostResolver}
+ */
+final class ResolverDns implements Dns {
+
+    private final HostResolver resolver;
+
+    ResolverDns(final HostResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    @Override
+    public List<InetAddress> lookup(final String hostname) throws UnknownHostException {
+        return resolver.resolve(hostname);
+    }
+}
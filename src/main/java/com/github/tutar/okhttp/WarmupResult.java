@@ -0,0 +1,87 @@
+package com.github.tutar.okhttp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of {@link OkHttpClientProfile#warmup(String, int)}
+ */
+public class WarmupResult {
+
+    private final String url;
+
+    private final int requested;
+
+    private final int established;
+
+    private final int failed;
+
+    private final long elapsedNanos;
+
+    WarmupResult(final String url, final int requested, final int established,
+                 final int failed, final long elapsedNanos) {
+        this.url = url;
+        this.requested = requested;
+        this.established = established;
+        this.failed = failed;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Get the URL the connections were opened to
+     *
+     * @return url
+     */
+    public String url() {
+        return url;
+    }
+
+    /**
+     * Get the number of connections attempted, capped to the pool's maximum
+     * number of idle connections
+     *
+     * @return count
+     */
+    public int requested() {
+        return requested;
+    }
+
+    /**
+     * Get the number of new connections opened and parked in the pool
+     * <p>
+     * Attempts served by a connection already in the pool succeed without
+     * being counted here.
+     *
+     * @return count
+     */
+    public int established() {
+        return established;
+    }
+
+    /**
+     * Get the number of attempts that failed
+     *
+     * @return count
+     */
+    public int failed() {
+        return failed;
+    }
+
+    /**
+     * Get how long the warmup took
+     *
+     * @param unit
+     * @return elapsed time
+     */
+    public long elapsed(final TimeUnit unit) {
+        return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "Warmup:" + url
+                + ",Requested:" + requested
+                + ",Established:" + established
+                + ",Failed:" + failed
+                + ",Elapsed:" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms";
+    }
+}
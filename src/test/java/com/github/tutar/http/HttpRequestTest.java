@@ -21,7 +21,17 @@
  */
 package com.github.tutar.http;
 
+import com.github.tutar.http.Exception.BulkheadFullException;
+import com.github.tutar.http.Exception.CircuitBreakerOpenException;
+import com.github.tutar.http.Exception.DeadlineExceededException;
 import com.github.tutar.http.Exception.HttpRequestException;
+import com.github.tutar.http.codec.JsonCodec;
+import com.github.tutar.http.dns.CachingResolver;
+import com.github.tutar.http.dns.ResolvingConnectionFactory;
+import com.github.tutar.http.metrics.LatencyHistogram;
+import com.github.tutar.http.policy.Bulkhead;
+import com.github.tutar.http.policy.CircuitBreaker;
+import com.github.tutar.http.policy.CircuitBreakerRegistry;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.util.B64Code;
 import org.junit.After;
@@ -38,10 +48,13 @@ import java.net.Proxy;
 import java.net.URL;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import static com.github.tutar.http.HttpRequest.*;
@@ -653,6 +666,46 @@ public class HttpRequestTest extends ServerTestCase {
     assertEquals("hello world", body.get());
   }
 
+  /**
+   * Upload a file large enough to be memory-mapped as the whole request body
+   *
+   * @throws Exception
+   */
+  @Test
+  public void uploadLargeFile() throws Exception {
+    final byte[] content = new byte[(int) MappedFileInputStream.MAP_THRESHOLD * 2 + 7];
+    for (int i = 0; i < content.length; i++)
+      content[i] = (byte) (i % 251);
+    final AtomicReference<byte[]> body = new AtomicReference<byte[]>();
+    final AtomicReference<String> length = new AtomicReference<String>();
+    handler = new RequestHandler() {
+
+      @Override
+      public void handle(Request request, HttpServletResponse response) {
+        length.set(request.getHeader("Content-Length"));
+        body.set(read());
+        response.setStatus(HTTP_OK);
+      }
+    };
+    File file = File.createTempFile("post", ".bin");
+    FileOutputStream output = new FileOutputStream(file);
+    output.write(content);
+    output.close();
+    int code = post(url).upload(file).code();
+    assertEquals(HTTP_OK, code);
+    assertEquals(Integer.toString(content.length), length.get());
+    assertArrayEquals(content, body.get());
+
+    HttpRequest request = post(url).send("a");
+    try {
+      request.upload(file);
+      fail("Exception not thrown");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+    request.code();
+  }
+
   /**
    * Make a POST request with a non-empty request body
    *
@@ -3460,6 +3513,35 @@ public class HttpRequestTest extends ServerTestCase {
     assertEquals(200, code);
   }
 
+  /**
+   * Verify a resolving connection factory sends plain requests to the
+   * resolved address with the original host
+   *
+   * @throws Exception
+   */
+  @Test
+  public void resolvingConnectionFactory() throws Exception {
+    final AtomicReference<String> host = new AtomicReference<String>();
+    handler = new RequestHandler() {
+
+      @Override
+      public void handle(Request request, HttpServletResponse response) {
+        host.set(request.getHeader("Host"));
+        response.setStatus(HTTP_OK);
+      }
+    };
+    CachingResolver resolver = CachingResolver.builder()
+        .override("dns.test", "127.0.0.1").build();
+    HttpRequest.setConnectionFactory(new ResolvingConnectionFactory(resolver));
+    try {
+      String dnsUrl = url.replace("localhost", "dns.test");
+      assertTrue(get(dnsUrl).ok());
+      assertEquals(new URL(dnsUrl).getAuthority(), host.get());
+    } finally {
+      HttpRequest.setConnectionFactory(null);
+    }
+  }
+
   /**
    * Verify reading response body for empty 200
    *
@@ -3657,4 +3739,339 @@ public class HttpRequestTest extends ServerTestCase {
     assertEquals(HTTP_OK, code);
     assertEquals("hello", body.get());
   }
+
+  /**
+   * Verify requests fail fast once the circuit breaker of the host opens
+   *
+   * @throws Exception
+   */
+  @Test
+  public void circuitBreakerOpens() throws Exception {
+    final AtomicInteger hits = new AtomicInteger();
+    handler = new RequestHandler() {
+
+      @Override
+      public void handle(Request request, HttpServletResponse response) {
+        hits.incrementAndGet();
+        response.setStatus(HTTP_INTERNAL_ERROR);
+      }
+    };
+    setCircuitBreakers(new CircuitBreakerRegistry(CircuitBreaker.builder()
+        .slidingWindow(10, 2).openDuration(1, TimeUnit.MINUTES).build()));
+    try {
+      assertTrue(get(url).serverError());
+      assertTrue(post(url).send("data").serverError());
+      try {
+        get(url).code();
+        fail("Exception not thrown");
+      } catch (CircuitBreakerOpenException e) {
+        assertEquals("localhost", e.getHost());
+      }
+      assertEquals(2, hits.get());
+    } finally {
+      setCircuitBreakers(null);
+    }
+  }
+
+  /**
+   * Verify a probe disconnected before its response is read is reported as
+   * failed instead of keeping the breaker half-open
+   *
+   * @throws Exception
+   */
+  @Test
+  public void circuitBreakerProbeDisconnected() throws Exception {
+    handler = new RequestHandler() {
+
+      @Override
+      public void handle(Request request, HttpServletResponse response) {
+        response.setStatus(HTTP_OK);
+      }
+    };
+    CircuitBreakerRegistry registry = new CircuitBreakerRegistry(CircuitBreaker.builder()
+        .slidingWindow(10, 1).halfOpenCalls(1)
+        .openDuration(50, TimeUnit.MILLISECONDS).build());
+    CircuitBreaker breaker = registry.forHost("localhost");
+    breaker.onFailure(0);
+    Thread.sleep(60);
+    setCircuitBreakers(registry);
+    try {
+      post(url).send("data").disconnect();
+      assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+      Thread.sleep(60);
+      assertTrue(get(url).ok());
+      assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    } finally {
+      setCircuitBreakers(null);
+    }
+  }
+
+  /**
+   * Verify the bulkhead slot is released once the response code is read
+   *
+   * @throws Exception
+   */
+  @Test
+  public void bulkheadReleasedAfterCode() throws Exception {
+    handler = new RequestHandler() {
+
+      @Override
+      public void handle(Request request, HttpServletResponse response) {
+        response.setStatus(HTTP_OK);
+      }
+    };
+    Bulkhead bulkhead = Bulkhead.builder().maxConcurrentPerHost(1).build();
+    setBulkhead(bulkhead);
+    try {
+      assertTrue(get(url).ok());
+      assertTrue(post(url).send("data").ok());
+      assertEquals(0, bulkhead.inFlight());
+      assertEquals(2, bulkhead.acquiredCount());
+      HttpRequest request = post(url).send("data");
+      assertEquals(1, bulkhead.inFlight("localhost"));
+      try {
+        get(url).code();
+        fail("Exception not thrown");
+      } catch (BulkheadFullException e) {
+        assertEquals("localhost", e.getHost());
+      }
+      request.disconnect();
+      assertEquals(0, bulkhead.inFlight());
+    } finally {
+      setBulkhead(null);
+    }
+  }
+
+  /**
+   * Verify request bodies above the threshold are sent gzip compressed
+   *
+   * @throws Exception
+   */
+  @Test
+  public void postCompressed() throws Exception {
+    final AtomicReference<String> encoding = new AtomicReference<String>();
+    final AtomicReference<String> body = new AtomicReference<String>();
+    handler = new RequestHandler() {
+
+      @Override
+      public void handle(Request request, HttpServletResponse response) {
+        encoding.set(request.getHeader("Content-Encoding"));
+        try {
+          InputStream input = request.getInputStream();
+          if (encoding.get() != null)
+            input = new GZIPInputStream(input);
+          ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+          byte[] buffer = new byte[8192];
+          for (int read; (read = input.read(buffer)) != -1;)
+            bytes.write(buffer, 0, read);
+          body.set(new String(bytes.toByteArray(), CHARSET_UTF8));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        response.setStatus(HTTP_OK);
+      }
+    };
+    StringBuilder json = new StringBuilder();
+    for (int i = 0; i < 1000; i++)
+      json.append("{\"id\":").append(i).append('}');
+    assertTrue(post(url).compress(1024, 9).send(json).ok());
+    assertEquals("gzip", encoding.get());
+    assertEquals(json.toString(), body.get());
+
+    assertTrue(post(url).compress(1024).send("small").ok());
+    assertNull(encoding.get());
+    assertEquals("small", body.get());
+
+    StringBuilder accented = new StringBuilder();
+    for (int i = 0; i < 600; i++)
+      accented.append('\u00e9');
+    assertTrue(post(url).compress(1024).send(accented).ok());
+    assertEquals("gzip", encoding.get());
+    assertEquals(accented.toString(), body.get());
+
+    File file = File.createTempFile("post", ".json");
+    new FileWriter(file).append(json).close();
+    assertTrue(post(url).compress(1024).send(file).ok());
+    assertEquals("gzip", encoding.get());
+    assertEquals(json.toString(), body.get());
+  }
+
+  /**
+   * Verify the phases of a call are timed
+   *
+   * @throws Exception
+   */
+  @Test
+  public void timing() throws Exception {
+    handler = new RequestHandler() {
+
+      @Override
+      public void handle(Request request, HttpServletResponse response) {
+        read();
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException ignored) {
+        }
+        response.setStatus(HTTP_OK);
+        write("hello");
+      }
+    };
+    HttpRequest request = post(url);
+    assertNull(request.timing());
+    assertEquals("hello", request.send("data").body());
+    RequestTiming timing = request.timing();
+    assertTrue(timing.nanos(RequestTiming.Phase.QUEUE) >= 0);
+    assertTrue(timing.nanos(RequestTiming.Phase.CONNECT) >= 0);
+    assertTrue(timing.nanos(RequestTiming.Phase.REQUEST_WRITE) >= 0);
+    assertTrue(timing.get(RequestTiming.Phase.TTFB, TimeUnit.MILLISECONDS) >= 50);
+    assertTrue(timing.nanos(RequestTiming.Phase.BODY_READ) >= 0);
+    assertTrue(timing.nanos(RequestTiming.Phase.TOTAL) >= timing.nanos(RequestTiming.Phase.TTFB));
+    assertEquals(-1, timing.nanos(RequestTiming.Phase.DNS));
+  }
+
+  /**
+   * Verify the latency of each request is recorded by host and status class
+   *
+   * @throws Exception
+   */
+  @Test
+  public void latencyHistograms() throws Exception {
+    handler = new RequestHandler() {
+
+      @Override
+      public void handle(Request request, HttpServletResponse response) {
+        response.setStatus(HTTP_NOT_FOUND);
+      }
+    };
+    LatencyHistogram histogram = latencies().histogram("localhost", "4xx");
+    long before = histogram != null ? histogram.snapshot().count() : 0;
+    HttpRequest request = get(url);
+    assertTrue(request.notFound());
+    assertTrue(request.notFound());
+    request.header("Content-Type");
+    assertEquals(before + 1,
+        latencies().histogram("localhost", "4xx").snapshot().count());
+  }
+
+  /**
+   * Verify a request whose response trickles in fails at its deadline
+   *
+   * @throws Exception
+   */
+  @Test
+  public void deadlineExceeded() throws Exception {
+    handler = new RequestHandler() {
+
+      @Override
+      public void handle(Request request, HttpServletResponse response) {
+        response.setStatus(HTTP_OK);
+        try {
+          for (int i = 0; i < 20; i++) {
+            response.getOutputStream().write('a');
+            response.flushBuffer();
+            Thread.sleep(100);
+          }
+        } catch (Exception e) {
+          // Client went away
+        }
+      }
+    };
+    long start = System.nanoTime();
+    try {
+      get(url).readTimeout(1000).deadline(300, TimeUnit.MILLISECONDS).body();
+      fail("Exception not thrown");
+    } catch (DeadlineExceededException expected) {
+      assertEquals("localhost", expected.getHost());
+    }
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+
+    Deadline.Scope scope = Deadline.after(300, TimeUnit.MILLISECONDS).bind();
+    try {
+      get(url).bytes();
+      fail("Exception not thrown");
+    } catch (DeadlineExceededException expected) {
+    } finally {
+      scope.close();
+    }
+  }
+
+  /**
+   * Verify in-flight requests are disconnected by tag
+   *
+   * @throws Exception
+   */
+  @Test
+  public void cancelByTag() throws Exception {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    handler = new RequestHandler() {
+
+      @Override
+      public void handle(Request request, HttpServletResponse response) {
+        entered.countDown();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          // Ignored
+        }
+        response.setStatus(HTTP_OK);
+      }
+    };
+    final String tag = "cancelByTag";
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          get(url).tag(tag).code();
+        } catch (Throwable e) {
+          failure.set(e);
+        }
+      }
+    };
+    thread.start();
+    try {
+      assertTrue(entered.await(5, TimeUnit.SECONDS));
+      assertEquals(1, HttpRequest.cancel(tag));
+      thread.join(2000);
+      assertFalse(thread.isAlive());
+      assertTrue(failure.get() instanceof HttpRequestException);
+    } finally {
+      release.countDown();
+    }
+    assertEquals(0, HttpRequest.cancel(tag));
+  }
+
+  /**
+   * Verify a value encoded into the request and decoded from the response
+   * with a codec
+   *
+   * @throws Exception
+   */
+  @Test
+  public void codecRoundTrip() throws Exception {
+    final AtomicReference<String> contentType = new AtomicReference<String>();
+    handler = new RequestHandler() {
+
+      @Override
+      public void handle(Request request, HttpServletResponse response) {
+        contentType.set(request.getContentType());
+        response.setStatus(HTTP_OK);
+        response.setContentType(request.getContentType());
+        try {
+          write(new String(read(), CHARSET_UTF8));
+        } catch (UnsupportedEncodingException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    JsonCodec codec = new JsonCodec();
+    Map<String, Object> value = new LinkedHashMap<String, Object>();
+    value.put("name", "caf\u00e9");
+    value.put("ids", Arrays.asList(1L, 2L));
+    HttpRequest request = post(url).send(value, codec);
+    assertTrue(request.ok());
+    assertEquals(JsonCodec.CONTENT_TYPE, contentType.get());
+    assertEquals(value, request.as(Map.class, codec));
+  }
 }
@@ -0,0 +1,116 @@
+package com.github.tutar.http;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link MappedFileInputStream}
+ */
+public class MappedFileInputStreamTest {
+
+    private static final long WINDOW = 16 * 1024 * 1024;
+
+    /**
+     * Create a sparse file with markers on both sides of the first window
+     */
+    private static File windowedFile() throws Exception {
+        File file = File.createTempFile("mapped", ".bin");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(WINDOW + 3);
+            raf.seek(WINDOW - 1);
+            raf.write(new byte[]{1, 2, 3, 4});
+        } finally {
+            raf.close();
+        }
+        return file;
+    }
+
+    /**
+     * Reads continue across mapped windows
+     *
+     * @throws Exception
+     */
+    @Test
+    public void readAcrossWindows() throws Exception {
+        File file = windowedFile();
+        InputStream input = MappedFileInputStream.open(file);
+        try {
+            assertTrue(input instanceof MappedFileInputStream);
+            assertEquals(file.length(), input.available());
+            byte[] buffer = new byte[65536];
+            long total = 0;
+            byte previous = 0;
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                // A read never spans two windows
+                if (total < WINDOW)
+                    assertTrue(total + read <= WINDOW);
+                if (total + read == WINDOW)
+                    previous = buffer[read - 1];
+                if (total == WINDOW)
+                    assertArrayEquals(new byte[]{2, 3, 4}, new byte[]{buffer[0], buffer[1], buffer[2]});
+                total += read;
+            }
+            assertEquals(1, previous);
+            assertEquals(file.length(), total);
+            assertEquals(-1, input.read());
+            assertEquals(0, input.available());
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Skipping moves between windows
+     *
+     * @throws Exception
+     */
+    @Test
+    public void skip() throws Exception {
+        InputStream input = new MappedFileInputStream(windowedFile());
+        try {
+            assertEquals(10, input.skip(10));
+            assertEquals(0, input.read());
+            assertEquals(WINDOW - 12, input.skip(WINDOW - 12));
+            assertEquals(1, input.read());
+            assertEquals(2, input.read());
+            assertEquals(2, input.skip(10));
+            assertEquals(-1, input.read());
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Small files are read without mapping
+     *
+     * @throws Exception
+     */
+    @Test
+    public void smallFile() throws Exception {
+        File file = File.createTempFile("small", ".bin");
+        file.deleteOnExit();
+        InputStream input = MappedFileInputStream.open(file);
+        try {
+            assertTrue(input instanceof FileInputStream);
+            assertEquals(-1, input.read());
+        } finally {
+            input.close();
+        }
+        input = new MappedFileInputStream(file);
+        try {
+            assertEquals(-1, input.read(new byte[8], 0, 8));
+            assertEquals(0, input.skip(1));
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.tutar.http;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link TagRegistry}
+ */
+public class TagRegistryTest {
+
+    /**
+     * Requests are grouped by tag and tags are dropped once emptied
+     */
+    @Test
+    public void addAndRemove() {
+        TagRegistry<Object> registry = new TagRegistry<Object>();
+        Object first = new Object();
+        Object second = new Object();
+        registry.add("a", first);
+        registry.add("a", second);
+        registry.add("b", first);
+        assertEquals(2, registry.count("a"));
+        assertEquals(2, registry.size());
+        registry.remove("b", first);
+        assertEquals(0, registry.count("b"));
+        assertEquals(1, registry.size());
+        assertEquals(2, registry.removeAll("a").size());
+        assertEquals(0, registry.size());
+        assertEquals(Arrays.asList(), registry.removeAll("a"));
+    }
+
+    /**
+     * Tags whose requests were collected without being removed do not
+     * accumulate
+     *
+     * @throws Exception
+     */
+    @Test
+    public void purgeCollectedTags() throws Exception {
+        TagRegistry<Object> registry = new TagRegistry<Object>();
+        Object live = new Object();
+        registry.add("live", live);
+        for (int attempt = 0; attempt < 20; attempt++) {
+            for (int i = 0; i < 1000; i++)
+                registry.add(new Object(), new Object());
+            System.gc();
+            Thread.sleep(10);
+            if (registry.size() < 1000)
+                break;
+        }
+        for (int i = 0; i < 1000; i++)
+            registry.add(new Object(), new Object());
+        assertTrue(registry.size() < 2000);
+        assertEquals(1, registry.count("live"));
+        assertNotNull(live);
+    }
+}
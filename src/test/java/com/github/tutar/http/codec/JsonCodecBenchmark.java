@@ -0,0 +1,130 @@
+package com.github.tutar.http.codec;
+
+import com.github.tutar.http.HttpRequest;
+import com.github.tutar.okhttp.OkHttpRequest;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation of reading a JSON response with
+ * {@link OkHttpRequest#body()} and parsing the string versus decoding it
+ * from the connection with {@link OkHttpRequest#as(Class, Codec)}, and the
+ * same for {@link HttpRequest}
+ * <p>
+ * Run with {@link #main(String[])}, the GC profiler reports
+ * 'gc.alloc.rate.norm' in bytes per response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+    /**
+     * Number of objects in the response array
+     */
+    @Param({"100", "10000"})
+    public int items;
+
+    private final JsonCodec codec = new JsonCodec();
+
+    private Server server;
+
+    private String url;
+
+    @Setup
+    public void setUp() throws Exception {
+        List<Object> payload = new ArrayList<Object>(items);
+        for (int i = 0; i < items; i++) {
+            Map<String, Object> item = new LinkedHashMap<String, Object>();
+            item.put("id", i);
+            item.put("name", "item-" + i);
+            item.put("price", i * 0.25);
+            item.put("available", i % 2 == 0);
+            payload.add(item);
+        }
+        final byte[] body = codec.toJson(payload).getBytes("UTF-8");
+        server = new Server();
+        server.setHandler(new AbstractHandler() {
+            public void handle(String target, Request baseRequest,
+                    HttpServletRequest request, HttpServletResponse response)
+                    throws IOException {
+                response.setContentType(JsonCodec.CONTENT_TYPE);
+                response.setContentLength(body.length);
+                response.getOutputStream().write(body);
+                baseRequest.setHandled(true);
+            }
+        });
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.start();
+        url = "http://localhost:" + connector.getLocalPort() + "/items";
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    /**
+     * Previous behaviour: read the whole body as a string, then parse it
+     */
+    @Benchmark
+    public List<?> okHttpBodyThenParse() throws IOException {
+        return codec.fromJson(OkHttpRequest.get(url).body(), List.class);
+    }
+
+    /**
+     * Current behaviour: decode from the response stream
+     */
+    @Benchmark
+    public List<?> okHttpDecode() {
+        return OkHttpRequest.get(url).as(List.class, codec);
+    }
+
+    @Benchmark
+    public List<?> httpBodyThenParse() throws IOException {
+        return codec.fromJson(HttpRequest.get(url).body(), List.class);
+    }
+
+    @Benchmark
+    public List<?> httpDecode() {
+        return HttpRequest.get(url).as(List.class, codec);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(JsonCodecBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
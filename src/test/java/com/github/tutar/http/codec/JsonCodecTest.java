@@ -0,0 +1,168 @@
+package com.github.tutar.http.codec;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link JsonCodec}
+ */
+public class JsonCodecTest {
+
+    enum Status {
+        ACTIVE, DISABLED
+    }
+
+    static class Item {
+
+        String name;
+
+        int count;
+    }
+
+    static class Order {
+
+        static final String IGNORED = "ignored";
+
+        long id;
+
+        Status status;
+
+        double total;
+
+        List<Item> items;
+
+        Map<String, Integer> quantities;
+
+        Set<String> tags;
+
+        int[] codes;
+
+        transient String cached = "cached";
+    }
+
+    private final JsonCodec codec = new JsonCodec();
+
+    /**
+     * Untyped values decode to maps, lists, strings, numbers and booleans
+     *
+     * @throws Exception
+     */
+    @Test
+    public void decodeNatural() throws Exception {
+        Map<?, ?> value = codec.fromJson(" {\"a\": [1, 2.5, -3e2, \"x\", true, null],"
+                + " \"b\": {}, \"c\": 12345678901234567890}", Map.class);
+        assertEquals(Arrays.asList(1L, 2.5, -300.0, "x", true, null), value.get("a"));
+        assertEquals(new LinkedHashMap<String, Object>(), value.get("b"));
+        assertEquals(new BigInteger("12345678901234567890"), value.get("c"));
+        assertEquals(Integer.valueOf(5), codec.fromJson("5", int.class));
+        assertNull(codec.fromJson("null", String.class));
+    }
+
+    /**
+     * Objects bind to fields, including generic collections and arrays
+     *
+     * @throws Exception
+     */
+    @Test
+    public void decodeObject() throws Exception {
+        Order order = codec.fromJson("{\"id\":7,\"status\":\"ACTIVE\",\"total\":9.5,"
+                + "\"items\":[{\"name\":\"pen\",\"count\":2},{\"name\":\"ink\",\"count\":null}],"
+                + "\"quantities\":{\"pen\":2},\"tags\":[\"a\",\"a\",\"b\"],\"codes\":[1,2],"
+                + "\"unknown\":{\"nested\":[1,{\"x\":\"y\"}]},\"cached\":\"no\"}", Order.class);
+        assertEquals(7, order.id);
+        assertEquals(Status.ACTIVE, order.status);
+        assertEquals(9.5, order.total, 0);
+        assertEquals(2, order.items.size());
+        assertEquals("pen", order.items.get(0).name);
+        assertEquals(2, order.items.get(0).count);
+        assertEquals(0, order.items.get(1).count);
+        assertEquals(Integer.valueOf(2), order.quantities.get("pen"));
+        assertEquals(2, order.tags.size());
+        assertArrayEquals(new int[]{1, 2}, order.codes);
+        assertEquals("cached", order.cached);
+    }
+
+    /**
+     * Encoded values decode back to equal values
+     *
+     * @throws Exception
+     */
+    @Test
+    public void roundTrip() throws Exception {
+        Order order = new Order();
+        order.id = 42;
+        order.status = Status.DISABLED;
+        order.items = Arrays.asList(new Item());
+        order.items.get(0).name = "quote \" slash \\ line\n tab\t \u00e9 \u2028 \u0001";
+        order.codes = new int[]{3};
+        String json = codec.toJson(order);
+        assertFalse(json.contains("cached"));
+        assertFalse(json.contains("IGNORED"));
+        assertFalse(json.contains("quantities"));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        codec.encode(order, output);
+        assertEquals(json, output.toString("UTF-8"));
+
+        Order decoded = codec.decode(new ByteArrayInputStream(output.toByteArray()), Order.class);
+        assertEquals(42, decoded.id);
+        assertEquals(Status.DISABLED, decoded.status);
+        assertEquals(order.items.get(0).name, decoded.items.get(0).name);
+        assertArrayEquals(new int[]{3}, decoded.codes);
+        assertNull(decoded.quantities);
+    }
+
+    /**
+     * Strings longer than the read buffer and escapes spanning it are decoded
+     *
+     * @throws Exception
+     */
+    @Test
+    public void decodeAcrossBuffers() throws Exception {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            value.append(i % 10 == 0 ? "\u00e9\"" : "x");
+        }
+        String json = codec.toJson(Arrays.asList(value, value));
+        List<?> decoded = codec.decode(new ByteArrayInputStream(json.getBytes("UTF-8")), List.class);
+        assertEquals(Arrays.asList(value.toString(), value.toString()), decoded);
+    }
+
+    /**
+     * Malformed documents fail with the offset of the error
+     *
+     * @throws Exception
+     */
+    @Test
+    public void malformed() throws Exception {
+        String[] documents = {"", "{", "[1,]", "{\"a\" 1}", "01", "1.", "\"abc", "tru",
+                "[1] 2", "\"\\x\"", "{\"count\":\"1\"}"};
+        for (String document : documents) {
+            try {
+                codec.fromJson(document, document.startsWith("{\"count") ? Item.class : Object.class);
+                fail("Accepted " + document);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("offset"));
+            }
+        }
+    }
+
+    /**
+     * Numbers that are not representable are rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void encodeNaN() {
+        codec.toJson(Arrays.asList(Double.NaN));
+    }
+}
@@ -0,0 +1,161 @@
+package com.github.tutar.http.dns;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link CachingResolver}
+ */
+public class CachingResolverTest {
+
+    /**
+     * Resolver answering with a single address until told to fail
+     */
+    private static class FakeResolver implements HostResolver {
+
+        final AtomicInteger lookups = new AtomicInteger();
+
+        volatile int lastOctet = 1;
+
+        volatile boolean fail;
+
+        public List<InetAddress> resolve(String host) throws UnknownHostException {
+            lookups.incrementAndGet();
+            if (fail)
+                throw new UnknownHostException(host);
+            return Collections.singletonList(
+                    InetAddress.getByAddress(host, new byte[]{10, 0, 0, (byte) lastOctet}));
+        }
+    }
+
+    private static final Executor DIRECT = new Executor() {
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Lookups are cached for the TTL
+     *
+     * @throws Exception
+     */
+    @Test
+    public void positiveTtl() throws Exception {
+        FakeResolver fake = new FakeResolver();
+        CachingResolver resolver = CachingResolver.builder().delegate(fake)
+                .ttl(50, TimeUnit.MILLISECONDS).refreshAfter(1).build();
+        resolver.resolve("a");
+        resolver.resolve("a");
+        assertEquals(1, fake.lookups.get());
+        assertEquals(1, resolver.hitCount());
+        Thread.sleep(60);
+        fake.lastOctet = 2;
+        assertEquals(2, resolver.resolve("a").get(0).getAddress()[3]);
+        assertEquals(2, fake.lookups.get());
+        assertEquals(2, resolver.missCount());
+    }
+
+    /**
+     * Failed lookups are cached for the negative TTL
+     *
+     * @throws Exception
+     */
+    @Test
+    public void negativeTtl() throws Exception {
+        FakeResolver fake = new FakeResolver();
+        fake.fail = true;
+        CachingResolver resolver = CachingResolver.builder().delegate(fake)
+                .negativeTtl(50, TimeUnit.MILLISECONDS).build();
+        for (int i = 0; i < 2; i++) {
+            try {
+                resolver.resolve("a");
+                fail("Exception not thrown");
+            } catch (UnknownHostException expected) {
+                assertEquals("a", expected.getMessage());
+            }
+        }
+        assertEquals(1, fake.lookups.get());
+        Thread.sleep(60);
+        fake.fail = false;
+        assertEquals(1, resolver.resolve("a").size());
+        assertEquals(2, fake.lookups.get());
+    }
+
+    /**
+     * Expired addresses are served when the lookup fails
+     *
+     * @throws Exception
+     */
+    @Test
+    public void serveStale() throws Exception {
+        FakeResolver fake = new FakeResolver();
+        CachingResolver resolver = CachingResolver.builder().delegate(fake)
+                .ttl(20, TimeUnit.MILLISECONDS).refreshAfter(1)
+                .staleTtl(1, TimeUnit.MINUTES).build();
+        InetAddress address = resolver.resolve("a").get(0);
+        Thread.sleep(30);
+        fake.fail = true;
+        assertEquals(address, resolver.resolve("a").get(0));
+        assertEquals(address, resolver.resolve("a").get(0));
+        assertEquals(1, resolver.staleCount());
+        assertEquals(2, fake.lookups.get());
+
+        resolver = CachingResolver.builder().delegate(fake)
+                .ttl(20, TimeUnit.MILLISECONDS).staleTtl(0, TimeUnit.MILLISECONDS).build();
+        fake.fail = false;
+        resolver.resolve("a");
+        Thread.sleep(30);
+        fake.fail = true;
+        try {
+            resolver.resolve("a");
+            fail("Exception not thrown");
+        } catch (UnknownHostException expected) {
+        }
+    }
+
+    /**
+     * Entries used after the refresh point are refreshed in the background
+     *
+     * @throws Exception
+     */
+    @Test
+    public void backgroundRefresh() throws Exception {
+        FakeResolver fake = new FakeResolver();
+        CachingResolver resolver = CachingResolver.builder().delegate(fake)
+                .ttl(1, TimeUnit.MINUTES).refreshAfter(0.000001)
+                .refreshExecutor(DIRECT).build();
+        assertEquals(1, resolver.resolve("a").get(0).getAddress()[3]);
+        Thread.sleep(5);
+        fake.lastOctet = 2;
+        assertEquals(1, resolver.resolve("a").get(0).getAddress()[3]);
+        assertEquals(1, resolver.refreshCount());
+        assertEquals(2, resolver.resolve("a").get(0).getAddress()[3]);
+        assertEquals(2, fake.lookups.get());
+    }
+
+    /**
+     * Overridden hosts are never looked up
+     *
+     * @throws Exception
+     */
+    @Test
+    public void override() throws Exception {
+        FakeResolver fake = new FakeResolver();
+        CachingResolver resolver = CachingResolver.builder().delegate(fake)
+                .override("a", "127.0.0.1", "::1").build();
+        List<InetAddress> addresses = resolver.resolve("a");
+        assertEquals(2, addresses.size());
+        assertEquals("a", addresses.get(0).getHostName());
+        assertTrue(addresses.get(0).isLoopbackAddress());
+        assertEquals(0, fake.lookups.get());
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.tutar.http.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link LatencyHistogram} and {@link LatencyHistograms}
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Every value falls in a bucket whose highest value is within 1/32 of it
+     */
+    @Test
+    public void bucketPrecision() {
+        int previous = -1;
+        for (long value = 0; value < TimeUnit.HOURS.toNanos(1); value = value * 17 / 16 + 1) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(index >= previous);
+            previous = index;
+            long highest = LatencyHistogram.highestValue(index);
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / 32);
+            assertEquals(index, LatencyHistogram.index(highest));
+            assertEquals(index + 1, LatencyHistogram.index(highest + 1));
+        }
+    }
+
+    /**
+     * Percentiles of a uniform distribution
+     */
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++)
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.count());
+        assertEquals(500, snapshot.percentile(50, TimeUnit.MILLISECONDS), 500 / 32);
+        assertEquals(990, snapshot.percentile(99, TimeUnit.MILLISECONDS), 990 / 32);
+        assertEquals(999, snapshot.percentile(99.9, TimeUnit.MILLISECONDS), 999 / 32);
+        assertEquals(1000, snapshot.max(TimeUnit.MILLISECONDS), 1000 / 32);
+        assertEquals(500.5, snapshot.mean(TimeUnit.MILLISECONDS), 0.001);
+    }
+
+    /**
+     * Reset and interval snapshots only cover the latest latencies
+     */
+    @Test
+    public void resetAndInterval() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.record(200);
+        assertEquals(2, histogram.intervalSnapshot().count());
+        histogram.record(300);
+        LatencyHistogram.Snapshot interval = histogram.intervalSnapshot();
+        assertEquals(1, interval.count());
+        assertEquals(300, interval.percentile(50, TimeUnit.NANOSECONDS), 300 / 32);
+        assertEquals(3, histogram.snapshot().count());
+
+        assertEquals(3, histogram.snapshotAndReset().count());
+        assertEquals(0, histogram.snapshot().count());
+        assertEquals(0, histogram.snapshot().percentile(99, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Concurrent recording loses no values
+     *
+     * @throws Exception
+     */
+    @Test
+    public void concurrentRecord() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++)
+                        histogram.record(i);
+                    done.countDown();
+                }
+            }.start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(40000, histogram.snapshot().count());
+    }
+
+    /**
+     * Latencies are kept apart by host and status class
+     */
+    @Test
+    public void byHostAndStatusClass() {
+        LatencyHistograms histograms = new LatencyHistograms();
+        histograms.record("a", 200, 10);
+        histograms.record("a", 204, 20);
+        histograms.record("a", 503, 30);
+        histograms.record("b", -1, 40);
+        assertEquals(2, histograms.histogram("a", "2xx").snapshot().count());
+        assertNull(histograms.histogram("a", "4xx"));
+        assertNull(histograms.histogram("c", "2xx"));
+        Map<String, LatencyHistogram.Snapshot> snapshot = histograms.snapshot();
+        assertEquals(3, snapshot.size());
+        assertEquals(1, snapshot.get("a 5xx").count());
+        assertEquals(1, snapshot.get("b failed").count());
+        histograms.record("a", 200, 10);
+        assertEquals(3, histograms.intervalSnapshot().get("a 2xx").count());
+        assertEquals(0, histograms.intervalSnapshot().get("a 2xx").count());
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.tutar.http.policy;
+
+import com.github.tutar.http.Exception.BulkheadFullException;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link Bulkhead}
+ */
+public class BulkheadTest {
+
+    /**
+     * A busy host does not use up the slots of other hosts
+     *
+     * @throws Exception
+     */
+    @Test
+    public void perHostLimit() throws Exception {
+        Bulkhead bulkhead = Bulkhead.builder().maxConcurrent(3)
+                .maxConcurrentPerHost(2).build();
+        Bulkhead.Permit a1 = bulkhead.acquire("a");
+        bulkhead.acquire("a");
+        try {
+            bulkhead.acquire("a");
+            fail("Exception not thrown");
+        } catch (BulkheadFullException e) {
+            assertEquals("a", e.getHost());
+        }
+        Bulkhead.Permit b1 = bulkhead.acquire("b");
+        assertEquals(3, bulkhead.inFlight());
+        assertEquals(2, bulkhead.inFlight("a"));
+        try {
+            bulkhead.acquire("b");
+            fail("Exception not thrown");
+        } catch (BulkheadFullException e) {
+            assertEquals(0, bulkhead.inFlight("c"));
+        }
+        a1.release();
+        a1.release();
+        b1.release();
+        assertEquals(1, bulkhead.inFlight());
+        assertEquals(1, bulkhead.inFlight("a"));
+        assertEquals(2, bulkhead.rejectedCount());
+        assertEquals(3, bulkhead.acquiredCount());
+    }
+
+    /**
+     * Requests queue for a slot up to the max wait and the wait is recorded
+     *
+     * @throws Exception
+     */
+    @Test
+    public void queueForSlot() throws Exception {
+        final Bulkhead bulkhead = Bulkhead.builder().maxConcurrentPerHost(1)
+                .maxWait(5, TimeUnit.SECONDS).build();
+        final Bulkhead.Permit held = bulkhead.acquire("a");
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Bulkhead.Permit> waiter = new AtomicReference<Bulkhead.Permit>();
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    waiter.set(bulkhead.acquire("a"));
+                } catch (Exception ignored) {
+                }
+                done.countDown();
+            }
+        }.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bulkhead.queueDepth() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+        assertEquals(1, bulkhead.queueDepth());
+        Thread.sleep(20);
+        held.release();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNotNull(waiter.get());
+        assertEquals(0, bulkhead.queueDepth());
+        assertEquals(1, bulkhead.queuedCount());
+        assertTrue(bulkhead.maxWait(TimeUnit.MILLISECONDS) >= 20);
+        assertEquals(bulkhead.maxWait(TimeUnit.NANOSECONDS),
+                bulkhead.averageWait(TimeUnit.NANOSECONDS));
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.tutar.http.policy;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link CircuitBreaker}
+ */
+public class CircuitBreakerTest {
+
+    private static CircuitBreaker.Builder builder() {
+        return CircuitBreaker.builder().failureRateThreshold(0.5)
+                .slidingWindow(10, 4).halfOpenCalls(2)
+                .openDuration(50, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The breaker opens once the failure rate reaches the threshold
+     */
+    @Test
+    public void opensOnFailureRate() {
+        CircuitBreaker breaker = builder().build();
+        breaker.onSuccess(0);
+        breaker.onSuccess(0);
+        breaker.onSuccess(0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+        assertFalse(breaker.tryAcquire());
+    }
+
+    /**
+     * The breaker opens once the slow call rate reaches the threshold
+     */
+    @Test
+    public void opensOnSlowCallRate() {
+        CircuitBreaker breaker = builder().slowCallRateThreshold(0.75)
+                .slowCallDuration(1, TimeUnit.SECONDS).build();
+        long slow = TimeUnit.SECONDS.toNanos(2);
+        breaker.onSuccess(slow);
+        breaker.onSuccess(slow);
+        breaker.onSuccess(0);
+        breaker.onSuccess(slow);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    /**
+     * Probes that never report an outcome do not keep the breaker half-open
+     * and rejecting calls
+     *
+     * @throws Exception
+     */
+    @Test
+    public void unreportedProbes() throws Exception {
+        CircuitBreaker breaker = builder().build();
+        for (int i = 0; i < 4; i++)
+            breaker.onFailure(0);
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        Thread.sleep(60);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.onSuccess(0);
+        breaker.onSuccess(0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    /**
+     * Successful probes close the breaker, a failed probe opens it again
+     *
+     * @throws Exception
+     */
+    @Test
+    public void halfOpenProbes() throws Exception {
+        CircuitBreaker breaker = builder().build();
+        for (int i = 0; i < 4; i++)
+            breaker.onFailure(0);
+        assertFalse(breaker.tryAcquire());
+        Thread.sleep(60);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.onSuccess(0);
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess(0);
+        breaker.onSuccess(0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        assertTrue(breaker.tryAcquire());
+    }
+
+    /**
+     * Old outcomes leave the sliding window
+     */
+    @Test
+    public void slidingWindow() {
+        CircuitBreaker breaker = builder().failureRateThreshold(0.6).build();
+        for (int i = 0; i < 5; i++)
+            breaker.onFailure(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+        breaker = builder().failureRateThreshold(0.6).build();
+        for (int i = 0; i < 5; i++)
+            breaker.onSuccess(0);
+        for (int i = 0; i < 5; i++)
+            breaker.onFailure(0);
+        assertEquals(0.5, breaker.failureRate(), 0.001);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    /**
+     * The registry keeps one breaker per host
+     */
+    @Test
+    public void registryPerHost() {
+        CircuitBreakerRegistry registry = new CircuitBreakerRegistry(builder().build());
+        CircuitBreaker a = registry.forHost("a.example.com");
+        assertSame(a, registry.forHost("a.example.com"));
+        assertNotSame(a, registry.forHost("b.example.com"));
+        for (int i = 0; i < 4; i++)
+            a.onFailure(0);
+        assertFalse(a.tryAcquire());
+        assertTrue(registry.forHost("b.example.com").tryAcquire());
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.tutar.http.policy;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link RateLimiter#tryAcquire()} from several threads, both while
+ * permits are granted and while they are rejected
+ * <p>
+ * Run with {@link #main(String[])}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+    private final RateLimiter unlimited = RateLimiter.builder()
+            .rate(1, 1, TimeUnit.NANOSECONDS).burst(1000).build();
+
+    private final RateLimiter limited = RateLimiter.builder()
+            .rate(50_000, 1, TimeUnit.SECONDS).burst(100).build();
+
+    @Benchmark
+    public boolean granted() {
+        return unlimited.tryAcquire();
+    }
+
+    @Benchmark
+    public boolean limited() {
+        return limited.tryAcquire();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(RateLimiterBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
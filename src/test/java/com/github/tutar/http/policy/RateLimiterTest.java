@@ -0,0 +1,87 @@
+package com.github.tutar.http.policy;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link RateLimiter}
+ */
+public class RateLimiterTest {
+
+    /**
+     * The burst is available at once, further permits are rejected
+     */
+    @Test
+    public void burstThenReject() {
+        RateLimiter limiter = RateLimiter.builder()
+                .rate(1, 1, TimeUnit.MINUTES).burst(3).build();
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(1, limiter.rejectedCount());
+    }
+
+    /**
+     * Permits are refilled at the configured rate
+     *
+     * @throws Exception
+     */
+    @Test
+    public void refill() throws Exception {
+        RateLimiter limiter = RateLimiter.builder()
+                .rate(1, 20, TimeUnit.MILLISECONDS).build();
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        Thread.sleep(30);
+        assertTrue(limiter.tryAcquire());
+    }
+
+    /**
+     * Waiting callers get their permit once it is due
+     *
+     * @throws Exception
+     */
+    @Test
+    public void waitForPermit() throws Exception {
+        RateLimiter limiter = RateLimiter.builder()
+                .rate(1, 50, TimeUnit.MILLISECONDS)
+                .maxWait(1, TimeUnit.SECONDS).build();
+        assertTrue(limiter.acquire());
+        long start = System.nanoTime();
+        assertTrue(limiter.acquire());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertFalse(limiter.tryAcquire(10, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Concurrent callers never get more than the burst
+     *
+     * @throws Exception
+     */
+    @Test
+    public void concurrentAcquire() throws Exception {
+        final RateLimiter limiter = RateLimiter.builder()
+                .rate(1, 1, TimeUnit.MINUTES).burst(100).build();
+        final AtomicInteger granted = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int i = 0; i < 8; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++)
+                        if (limiter.tryAcquire())
+                            granted.incrementAndGet();
+                    done.countDown();
+                }
+            }.start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(100, granted.get());
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.tutar.http.policy;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests of {@link RetryBudget} and {@link RetryPolicy}
+ */
+public class RetryBudgetTest {
+
+    /**
+     * Retries are limited to the configured fraction of requests
+     */
+    @Test
+    public void ratio() {
+        RetryBudget budget = new RetryBudget(0.1, 0);
+        assertFalse(budget.tryRetry());
+        int retries = 0;
+        for (int i = 0; i < 100; i++) {
+            budget.onRequest();
+            if (budget.tryRetry())
+                retries++;
+        }
+        assertEquals(10, retries);
+    }
+
+    /**
+     * The reserve caps how many retries can be saved up
+     */
+    @Test
+    public void reserve() {
+        RetryBudget budget = new RetryBudget(0.5, 3);
+        assertEquals(3, budget.available());
+        for (int i = 0; i < 100; i++)
+            budget.onRequest();
+        assertEquals(3, budget.available());
+    }
+
+    /**
+     * Backoff delays stay below the exponential ceiling
+     */
+    @Test
+    public void fullJitter() {
+        RetryPolicy policy = RetryPolicy.builder()
+                .backoff(10, 50, TimeUnit.MILLISECONDS).build();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.backoffNanos(1) <= TimeUnit.MILLISECONDS.toNanos(10));
+            assertTrue(policy.backoffNanos(2) <= TimeUnit.MILLISECONDS.toNanos(20));
+            assertTrue(policy.backoffNanos(10) <= TimeUnit.MILLISECONDS.toNanos(50));
+            assertTrue(policy.backoffNanos(100) >= 0);
+        }
+    }
+
+    /**
+     * Only idempotent methods and retryable codes are retried
+     */
+    @Test
+    public void retryable() {
+        RetryPolicy policy = RetryPolicy.builder().maxAttempts(2)
+                .budget(new RetryBudget(0, 10)).build();
+        assertTrue(policy.shouldRetry("GET", 1, 503));
+        assertFalse(policy.shouldRetry("GET", 2, 503));
+        assertFalse(policy.shouldRetry("GET", 1, 500));
+        assertFalse(policy.shouldRetry("POST", 1, 503));
+        assertTrue(policy.shouldRetry("PUT", 1, new java.net.ConnectException()));
+    }
+}
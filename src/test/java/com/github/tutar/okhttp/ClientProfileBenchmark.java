@@ -0,0 +1,69 @@
+package com.github.tutar.okhttp;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation per request of cloning the shared client versus selecting a
+ * {@link OkHttpClientProfile}
+ * <p>
+ * Run with {@link #main(String[])}, the GC profiler reports
+ * 'gc.alloc.rate.norm' in bytes per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientProfileBenchmark {
+
+    private static final String URL = "http://localhost:8080/resource";
+
+    private final OkHttpClient shared = new OkHttpClient();
+
+    private final Request request = new Request.Builder().url(URL).build();
+
+    /**
+     * Previous behaviour: clone the static client for every request and then
+     * reconfigure its timeouts
+     */
+    @Benchmark
+    public Call clonePerRequest() {
+        OkHttpClient client = shared.clone();
+        client.setWriteTimeout(10_000, TimeUnit.MILLISECONDS);
+        client.setReadTimeout(10_000, TimeUnit.MILLISECONDS);
+        client.setConnectTimeout(10_000, TimeUnit.MILLISECONDS);
+        return client.newCall(request);
+    }
+
+    /**
+     * Current behaviour: use the client of the profile selected for the URL
+     */
+    @Benchmark
+    public Call sharedProfile() {
+        return OkHttpClients.forUrl(URL).client().newCall(request);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ClientProfileBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.tutar.okhttp;
+
+import com.github.tutar.http.HttpRequest;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and allocation of uploading a file with the previous copy paths versus
+ * the memory-mapped ones
+ * <p>
+ * Run with {@link #main(String[])}, the GC profiler reports
+ * 'gc.alloc.rate.norm' in bytes per upload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileUploadBenchmark {
+
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+    /**
+     * File size in megabytes
+     */
+    @Param({"64"})
+    public int size;
+
+    private Server server;
+
+    private String url;
+
+    private File file;
+
+    private OkHttpClient client;
+
+    @Setup
+    public void setUp() throws Exception {
+        file = File.createTempFile("upload", ".bin");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(size * 1024L * 1024L);
+        } finally {
+            raf.close();
+        }
+        server = new Server();
+        server.setHandler(new AbstractHandler() {
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest,
+                    HttpServletRequest request, HttpServletResponse response)
+                    throws IOException {
+                InputStream input = request.getInputStream();
+                byte[] buffer = new byte[65536];
+                while (input.read(buffer) != -1) {
+                    // Discard
+                }
+                response.setStatus(HttpServletResponse.SC_OK);
+                baseRequest.setHandled(true);
+            }
+        });
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.start();
+        url = "http://localhost:" + connector.getLocalPort() + "/upload";
+        client = OkHttpClients.forUrl(url).client();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.stop();
+        file.delete();
+    }
+
+    /**
+     * Previous OkHttp body: the file is read through a {@link java.io.FileInputStream}
+     */
+    @Benchmark
+    public int okHttpStreamBody() throws IOException {
+        return execute(RequestBody.create(OCTET_STREAM, file));
+    }
+
+    /**
+     * Current OkHttp body: segments are filled from mapped windows
+     */
+    @Benchmark
+    public int okHttpMappedBody() throws IOException {
+        return execute(new FileRequestBody(OCTET_STREAM, file));
+    }
+
+    /**
+     * {@link HttpRequest#send(java.io.File)}, buffered by the connection until
+     * the response is requested
+     */
+    @Benchmark
+    public int httpSend() {
+        return HttpRequest.post(url).send(file).code();
+    }
+
+    /**
+     * {@link HttpRequest#upload(java.io.File)}, streamed with a fixed length
+     */
+    @Benchmark
+    public int httpUpload() {
+        return HttpRequest.post(url).upload(file).code();
+    }
+
+    private int execute(RequestBody body) throws IOException {
+        Response response = client.newCall(
+                new Request.Builder().url(url).post(body).build()).execute();
+        response.body().close();
+        return response.code();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(FileUploadBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -1,8 +1,27 @@
 package com.github.tutar.okhttp;
 
+import com.github.tutar.http.Exception.BulkheadFullException;
+import com.github.tutar.http.Exception.CircuitBreakerOpenException;
+import com.github.tutar.http.Exception.DeadlineExceededException;
+import com.github.tutar.http.Exception.HttpRequestException;
+import com.github.tutar.http.Exception.RateLimitExceededException;
+import com.github.tutar.http.Deadline;
+import com.github.tutar.http.MappedFileInputStream;
 import com.github.tutar.http.RequestHandler;
+import com.github.tutar.http.RequestTiming;
 import com.github.tutar.http.ServerTestCase;
-import com.squareup.okhttp.ConnectionPool;
+import com.github.tutar.http.codec.JsonCodec;
+import com.github.tutar.http.dns.CachingResolver;
+import com.github.tutar.http.dns.HostResolver;
+import com.github.tutar.http.metrics.LatencyHistogram;
+import com.github.tutar.http.policy.Bulkhead;
+import com.github.tutar.http.policy.CircuitBreaker;
+import com.github.tutar.http.policy.CircuitBreakerRegistry;
+import com.github.tutar.http.policy.RateLimiter;
+import com.github.tutar.http.policy.RetryBudget;
+import com.github.tutar.http.policy.RetryPolicy;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.Protocol;
 import org.eclipse.jetty.server.Request;
 import org.junit.After;
 import org.junit.BeforeClass;
@@ -12,13 +31,31 @@ import org.junit.Test;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
 import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
 
 import static com.github.tutar.http.Utils.encode;
 import static com.github.tutar.okhttp.OkHttpRequest.delete;
@@ -163,6 +200,38 @@ public class OkHttpRequestTest extends ServerTestCase {
         assertEquals("hello", body.get());
     }
 
+    /**
+     * Make a POST request with a file large enough to be memory-mapped
+     *
+     * @throws Exception
+     */
+    @Test
+    public void postLargeFile() throws Exception {
+        final byte[] content = new byte[(int) MappedFileInputStream.MAP_THRESHOLD * 2 + 7];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251);
+        }
+        final AtomicReference<byte[]> body = new AtomicReference<byte[]>();
+        final AtomicReference<String> length = new AtomicReference<String>();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                length.set(request.getHeader("Content-Length"));
+                body.set(read());
+                response.setStatus(HTTP_OK);
+            }
+        };
+        File file = File.createTempFile("post", ".bin");
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(content);
+        output.close();
+        int code = OkHttpRequest.post(url).send(file).code();
+        assertEquals(HTTP_OK, code);
+        assertEquals(Integer.toString(content.length), length.get());
+        assertArrayEquals(content, body.get());
+    }
+
     /**
      * Make a POST request with multiple files in the body
      *
@@ -483,55 +552,1725 @@ public class OkHttpRequestTest extends ServerTestCase {
     }
 
 
-    /******************************* Connection pool Tests ***********************************/
+    /******************************* Body Tests ***********************************/
+
+    /**
+     * Read the response body as bytes
+     *
+     * @throws Exception
+     */
     @Test
-    public void getConnectionPool() throws Exception {
-        final Map<String, String> outputParams = new HashMap<String, String>();
-        final AtomicReference<String> method = new AtomicReference<String>();
+    public void getBytes() throws Exception {
         handler = new RequestHandler() {
 
             @Override
             public void handle(Request request, HttpServletResponse response) {
-                method.set(request.getMethod());
-                outputParams.put("name", request.getParameter("name"));
-                outputParams.put("number", request.getParameter("number"));
+                response.setStatus(HTTP_OK);
+                write("hello");
+            }
+        };
+        OkHttpRequest request = get(url);
+        assertTrue(request.ok());
+        assertArrayEquals("hello".getBytes(), request.bytes());
+        assertEquals("hello", request.body());
+    }
+
+    /**
+     * Read the response body from a stream
+     *
+     * @throws Exception
+     */
+    @Test
+    public void getStream() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+                write("hello");
+            }
+        };
+        InputStream stream = get(url).stream();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int read;
+        while ((read = stream.read()) != -1)
+            output.write(read);
+        stream.close();
+        assertEquals("hello", output.toString("UTF-8"));
+    }
+
+    /**
+     * Stream the response body to a file
+     *
+     * @throws Exception
+     */
+    @Test
+    public void receiveFile() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+                write("hello");
+            }
+        };
+        File file = File.createTempFile("receive", ".txt");
+        OkHttpRequest request = get(url).receive(file);
+        assertTrue(request.ok());
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        assertEquals("hello", reader.readLine());
+        reader.close();
+    }
+
+    /**
+     * Stream the response body to an output stream
+     *
+     * @throws Exception
+     */
+    @Test
+    public void receiveOutputStream() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+                write("hello");
+            }
+        };
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        get(url).receive(output);
+        assertEquals("hello", output.toString("UTF-8"));
+    }
+
+    /**
+     * Reading the code of a response buffers a small body and releases the
+     * connection back to the pool
+     *
+     * @throws Exception
+     */
+    @Test
+    public void codeWithoutBody() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+                write("hello");
+            }
+        };
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("code-only")
+                .maxIdleConnections(2).build();
+        for (int i = 0; i < 10; i++)
+            assertTrue(get(url).profile(profile).ok());
+        ConnectionPoolMetrics.Snapshot snapshot = profile.poolMetrics().snapshot();
+        assertEquals(1, snapshot.newConnections());
+        assertEquals(1, snapshot.connectionCount());
+        assertEquals(1, snapshot.idleConnectionCount());
+
+        OkHttpRequest request = get(url).profile(profile);
+        assertEquals(HTTP_OK, request.code());
+        request.close();
+        assertEquals("hello", request.body());
+    }
+
+    /**
+     * Reading the code of a response discards a large body
+     *
+     * @throws Exception
+     */
+    @Test
+    public void codeDiscardsLargeBody() throws Exception {
+        final char[] body = new char[256 * 1024];
+        Arrays.fill(body, 'a');
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+                write(new String(body));
+            }
+        };
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("code-large")
+                .maxIdleConnections(2).build();
+        for (int i = 0; i < 5; i++) {
+            OkHttpRequest request = get(url).profile(profile).tag("code-large");
+            assertTrue(request.ok());
+            try {
+                request.body();
+                fail("Exception not thrown");
+            } catch (HttpRequestException e) {
+                assertNotNull(e.getCause());
+            }
+        }
+        ConnectionPoolMetrics.Snapshot snapshot = profile.poolMetrics().snapshot();
+        assertEquals(snapshot.idleConnectionCount(), snapshot.connectionCount());
+        assertEquals(0, OkHttpRequest.cancel("code-large"));
+
+        OkHttpRequest request = get(url).profile(profile);
+        InputStream stream = request.stream();
+        assertTrue(request.ok());
+        assertEquals('a', stream.read());
+        stream.close();
+    }
+
+    /**
+     * Send request bodies above the threshold gzip compressed
+     *
+     * @throws Exception
+     */
+    @Test
+    public void postCompressed() throws Exception {
+        final AtomicReference<String> encoding = new AtomicReference<String>();
+        final AtomicReference<String> body = new AtomicReference<String>();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                encoding.set(request.getHeader("Content-Encoding"));
                 try {
-                    Thread.sleep(1000L);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                    InputStream input = request.getInputStream();
+                    if (encoding.get() != null) {
+                        input = new GZIPInputStream(input);
+                    }
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    for (int read; (read = input.read(buffer)) != -1; ) {
+                        bytes.write(buffer, 0, read);
+                    }
+                    body.set(new String(bytes.toByteArray(), "UTF-8"));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
                 }
                 response.setStatus(HTTP_OK);
             }
         };
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            json.append("{\"id\":").append(i).append('}');
+        }
+        assertTrue(OkHttpRequest.post(url).compress(1024, 9).send(json.toString()).ok());
+        assertEquals("gzip", encoding.get());
+        assertEquals(json.toString(), body.get());
 
-        for(int i=0;i<100;i++){
-            Thread thread = new Thread(new SimpleRequestThread());
-            thread.start();
+        assertTrue(OkHttpRequest.post(url).compress(1024).send("small").ok());
+        assertNull(encoding.get());
+        assertEquals("small", body.get());
+    }
+
+    /**
+     * Time each phase of a call and report connection reuse
+     *
+     * @throws Exception
+     */
+    @Test
+    public void timing() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                read();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                response.setStatus(HTTP_OK);
+                write("hello");
+            }
+        };
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("timing").build();
+        OkHttpRequest request = OkHttpRequest.post(url).profile(profile).send("data");
+        assertEquals("hello", request.body());
+        RequestTiming timing = request.timing();
+        assertFalse(timing.connectionReused());
+        assertTrue(timing.nanos(RequestTiming.Phase.DNS) >= 0);
+        assertTrue(timing.nanos(RequestTiming.Phase.CONNECT) >= 0);
+        assertEquals(-1, timing.nanos(RequestTiming.Phase.TLS));
+        assertTrue(timing.nanos(RequestTiming.Phase.QUEUE) >= 0);
+        assertTrue(timing.nanos(RequestTiming.Phase.REQUEST_WRITE) >= 0);
+        assertTrue(timing.get(RequestTiming.Phase.TTFB, TimeUnit.MILLISECONDS) >= 50);
+        assertTrue(timing.nanos(RequestTiming.Phase.BODY_READ) >= 0);
+        assertTrue(timing.nanos(RequestTiming.Phase.TOTAL) >= timing.nanos(RequestTiming.Phase.TTFB));
+
+        request = get(url).profile(profile);
+        assertTrue(request.ok());
+        timing = request.timing();
+        assertTrue(timing.connectionReused());
+        assertEquals(-1, timing.nanos(RequestTiming.Phase.CONNECT));
+        // 读取状态码时小响应体已被缓冲
+        assertTrue(timing.nanos(RequestTiming.Phase.BODY_READ) >= 0);
+    }
+
+    /**
+     * Fail a request whose response trickles in past its deadline
+     *
+     * @throws Exception
+     */
+    @Test
+    public void deadlineExceeded() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        response.getOutputStream().write('a');
+                        response.flushBuffer();
+                        Thread.sleep(100);
+                    }
+                } catch (Exception e) {
+                    // Client went away
+                }
+            }
+        };
+        long start = System.nanoTime();
+        try {
+            get(url).readTimeout(1000).deadline(300, TimeUnit.MILLISECONDS).body();
+            fail("Exception not thrown");
+        } catch (DeadlineExceededException expected) {
+            assertEquals("localhost", expected.getHost());
         }
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
 
-        Thread.sleep(1000*60*3);
-//        Thread.sleep(60*3);
+        try {
+            get(url).deadline(300, TimeUnit.MILLISECONDS).sendAsync().get(10, TimeUnit.SECONDS).body();
+            fail("Exception not thrown");
+        } catch (DeadlineExceededException expected) {
+        }
+
+        Deadline.Scope scope = Deadline.after(300, TimeUnit.MILLISECONDS).bind();
+        try {
+            get(url).deadline(1, TimeUnit.MINUTES).bytes();
+            fail("Exception not thrown");
+        } catch (DeadlineExceededException expected) {
+        } finally {
+            scope.close();
+        }
+        assertNull(Deadline.current());
     }
 
-    static class SimpleRequestThread implements Runnable{
+    /**
+     * Stop retrying once the backoff would pass the deadline
+     *
+     * @throws Exception
+     */
+    @Test
+    public void deadlineBoundsRetries() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
 
-        @Override
-        public void run(){
-            for(int i=0 ;i<100;i++){
-                OkHttpRequest request = get(url, true, "name", "us er", "number", "100");
-                assertTrue(request.ok());
-                ConnectionPool connectionPool = request.getOkHttpClient().getConnectionPool();
-                System.out.println(
-                        "poolInstance:"+connectionPool.toString()
-                                +"ConnectionCount:"+connectionPool.getConnectionCount()
-                                +",HttpConnectionCount:"+connectionPool.getHttpConnectionCount()
-                                +",IdleConnectionCount:"+connectionPool.getIdleConnectionCount()
-                                +",MultiplexedConnectionCount:"+connectionPool.getMultiplexedConnectionCount()
-                                +",SpdyConnectionCount:"+connectionPool.getSpdyConnectionCount()
-                );
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                hits.incrementAndGet();
+                response.setStatus(HTTP_UNAVAILABLE);
+            }
+        };
+        RetryBudget budget = new RetryBudget(0.1, 10);
+        RetryPolicy policy = RetryPolicy.builder().maxAttempts(10)
+                .backoff(200, 200, TimeUnit.MILLISECONDS)
+                .budget(budget).build();
+        long start = System.nanoTime();
+        assertEquals(HTTP_UNAVAILABLE, get(url).retry(policy)
+                .deadline(300, TimeUnit.MILLISECONDS).code());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(300));
+        assertTrue(hits.get() < 10);
+        // 未执行的重试不占用预算
+        assertEquals(10 - (hits.get() - 1), budget.available());
+    }
+
+    /**
+     * Cancel queued and in-flight requests by tag
+     *
+     * @throws Exception
+     */
+    @Test
+    public void cancelByTag() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        handler = new RequestHandler() {
 
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                entered.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // Ignored
+                }
+                response.setStatus(HTTP_OK);
+            }
+        };
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("tags")
+                .maxRequestsPerHost(1).build();
+        Object tag = new Object();
+        List<RequestFuture> futures = new ArrayList<RequestFuture>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(get(url).profile(profile).tag(tag).sendAsync());
+        }
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        assertEquals(2, profile.queuedCallCount());
+        long start = System.nanoTime();
+        try {
+            assertEquals(3, OkHttpRequest.cancel(tag));
+            for (RequestFuture future : futures) {
+                try {
+                    future.get(2, TimeUnit.SECONDS);
+                    fail("Exception not thrown");
+                } catch (ExecutionException expected) {
+                    assertTrue(expected.getCause() instanceof HttpRequestException);
+                }
             }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+            assertEquals(0, OkHttpRequest.cancel(tag));
+        } finally {
+            release.countDown();
         }
+
+        OkHttpRequest request = get(url).tag(tag);
+        assertTrue(request.ok());
+        request.body();
+        assertEquals(0, OkHttpRequest.cancel(tag));
+    }
+
+    /**
+     * Read response headers of a 'HEAD' request
+     *
+     * @throws Exception
+     */
+    @Test
+    public void headResponseHeaders() throws Exception {
+        final AtomicReference<String> method = new AtomicReference<String>();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                method.set(request.getMethod());
+                response.setStatus(HTTP_OK);
+                response.setHeader("ETag", "\"v1\"");
+                response.setDateHeader("Last-Modified", 1000000000000L);
+                response.addHeader("X-Multi", "a");
+                response.addHeader("X-Multi", "b");
+                response.setContentLength(5);
+                if (!"HEAD".equals(request.getMethod())) {
+                    write("hello");
+                }
+            }
+        };
+        OkHttpRequest request = OkHttpRequest.head(url);
+        assertTrue(request.ok());
+        assertEquals("HEAD", method.get());
+        assertEquals(5, request.contentLength());
+        assertEquals("\"v1\"", request.eTag());
+        assertEquals(1000000000000L, request.lastModified());
+        assertArrayEquals(new String[]{"a", "b"}, request.headers("X-Multi"));
+        assertEquals(0, request.headers("X-Missing").length);
+        assertEquals(Arrays.asList("a", "b"), request.headers().get("X-Multi"));
+        assertEquals(-1, request.dateHeader("X-Missing"));
+        assertEquals("", request.body());
+
+        request = get(url);
+        assertEquals("\"v1\"", request.header("ETag"));
+        assertEquals(5, request.contentLength());
+        assertEquals("hello", request.body());
+    }
+
+    /**
+     * Send an 'OPTIONS' request
+     *
+     * @throws Exception
+     */
+    @Test
+    public void optionsResponseHeaders() throws Exception {
+        final AtomicReference<String> method = new AtomicReference<String>();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                method.set(request.getMethod());
+                response.setHeader("Allow", "GET, HEAD, OPTIONS");
+                response.setStatus(HTTP_NO_CONTENT);
+            }
+        };
+        OkHttpRequest request = OkHttpRequest.options(new URL(url));
+        assertTrue(request.noContent());
+        assertEquals("OPTIONS", method.get());
+        assertEquals("GET, HEAD, OPTIONS", request.header("Allow"));
+    }
+
+    /**
+     * Verify a value encoded into the request and decoded from the response
+     * with a codec
+     *
+     * @throws Exception
+     */
+    @Test
+    public void codecRoundTrip() throws Exception {
+        final AtomicReference<String> contentType = new AtomicReference<String>();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                contentType.set(request.getContentType());
+                response.setStatus(HTTP_OK);
+                response.setContentType(request.getContentType());
+                write(new String(read(), Charset.forName("UTF-8")));
+            }
+        };
+        JsonCodec codec = new JsonCodec();
+        Map<String, Object> value = new LinkedHashMap<String, Object>();
+        value.put("name", "caf\u00e9");
+        value.put("ids", Arrays.asList(1L, 2L));
+        OkHttpRequest request = OkHttpRequest.post(url).send(value, codec);
+        assertTrue(request.ok());
+        assertEquals(JsonCodec.CONTENT_TYPE, contentType.get());
+        assertEquals(value, request.as(Map.class, codec));
+
+        request = OkHttpRequest.post(url);
+        request.sendAsync(value, codec, null).get(5, TimeUnit.SECONDS);
+        assertEquals(value, request.as(Map.class, codec));
+    }
+
+    /**
+     * Look hosts up with the profile's resolver
+     *
+     * @throws Exception
+     */
+    @Test
+    public void profileResolver() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+            }
+        };
+        final AtomicInteger lookups = new AtomicInteger();
+        CachingResolver resolver = CachingResolver.builder().delegate(new HostResolver() {
+            public List<InetAddress> resolve(String host) throws UnknownHostException {
+                lookups.incrementAndGet();
+                if (!"dns.test".equals(host))
+                    throw new UnknownHostException(host);
+                return Collections.singletonList(InetAddress.getByAddress(host, new byte[]{127, 0, 0, 1}));
+            }
+        }).build();
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("resolver")
+                .resolver(resolver).maxIdleConnections(0).build();
+        String dnsUrl = url.replace("localhost", "dns.test");
+        assertTrue(get(dnsUrl).profile(profile).ok());
+        assertTrue(get(dnsUrl).profile(profile).ok());
+        assertEquals(1, lookups.get());
+        assertEquals(1, resolver.hitCount());
+        try {
+            get(url).profile(profile).code();
+            fail("Exception not thrown");
+        } catch (HttpRequestException expected) {
+            assertTrue(expected.getCause() instanceof UnknownHostException);
+        }
+    }
+
+    /**
+     * Warm up connections to a host ahead of requests
+     *
+     * @throws Exception
+     */
+    @Test
+    public void warmup() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+            }
+        };
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("warmup")
+                .maxIdleConnections(3).build();
+        WarmupResult result = profile.warmup(url, 5);
+        assertEquals(3, result.requested());
+        assertEquals(3, result.established());
+        assertEquals(0, result.failed());
+        assertTrue(result.elapsed(TimeUnit.NANOSECONDS) > 0);
+        assertEquals(3, profile.poolMetrics().snapshot().idleConnectionCount());
+
+        OkHttpRequest request = get(url).profile(profile);
+        assertTrue(request.ok());
+        assertTrue(request.timing().connectionReused());
+
+        result = profile.warmup("http://localhost:1", 2);
+        assertEquals(0, result.established());
+        assertEquals(2, result.failed());
+    }
+
+    /**
+     * Record the latency of every request by host and status class
+     *
+     * @throws Exception
+     */
+    @Test
+    public void latencyHistograms() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(request.getParameter("fail") != null ? HTTP_UNAVAILABLE : HTTP_OK);
+            }
+        };
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("latencies").build();
+        assertTrue(get(url).profile(profile).ok());
+        assertTrue(get(url).profile(profile).sendAsync().get(10, TimeUnit.SECONDS).ok());
+        assertEquals(HTTP_UNAVAILABLE, get(url + "?fail=1").profile(profile).code());
+        Map<String, LatencyHistogram.Snapshot> snapshot = profile.latencies().snapshot();
+        assertEquals(2, snapshot.get("localhost 2xx").count());
+        assertEquals(1, snapshot.get("localhost 5xx").count());
+        assertTrue(snapshot.get("localhost 2xx").percentile(99, TimeUnit.NANOSECONDS) > 0);
+    }
+
+    /******************************* Retry Tests ***********************************/
+
+    /**
+     * Retry a GET request that fails with '503' responses
+     *
+     * @throws Exception
+     */
+    @Test
+    public void retryServiceUnavailable() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                if (hits.incrementAndGet() < 3) {
+                    response.setStatus(HTTP_UNAVAILABLE);
+                } else {
+                    response.setStatus(HTTP_OK);
+                    write("recovered");
+                }
+            }
+        };
+        RetryPolicy policy = RetryPolicy.builder().maxAttempts(3)
+                .backoff(1, 10, TimeUnit.MILLISECONDS)
+                .budget(new RetryBudget(0.1, 10)).build();
+        OkHttpRequest request = get(url).retry(policy);
+        assertTrue(request.ok());
+        assertEquals("recovered", request.body());
+        assertEquals(3, hits.get());
+    }
+
+    /**
+     * Stop retrying once the attempts are exhausted and return the last
+     * response
+     *
+     * @throws Exception
+     */
+    @Test
+    public void retryAttemptsExhausted() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                hits.incrementAndGet();
+                response.setStatus(HTTP_UNAVAILABLE);
+            }
+        };
+        RetryPolicy policy = RetryPolicy.builder().maxAttempts(2)
+                .backoff(1, 10, TimeUnit.MILLISECONDS)
+                .budget(new RetryBudget(0.1, 10)).build();
+        assertEquals(HTTP_UNAVAILABLE, get(url).retry(policy).code());
+        assertEquals(2, hits.get());
+    }
+
+    /**
+     * POST requests are not retried by default
+     *
+     * @throws Exception
+     */
+    @Test
+    public void retryIdempotentOnly() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                hits.incrementAndGet();
+                response.setStatus(HTTP_UNAVAILABLE);
+            }
+        };
+        RetryPolicy policy = RetryPolicy.builder()
+                .backoff(1, 10, TimeUnit.MILLISECONDS)
+                .budget(new RetryBudget(0.1, 10)).build();
+        assertEquals(HTTP_UNAVAILABLE, OkHttpRequest.post(url).retry(policy).code());
+        assertEquals(1, hits.get());
+    }
+
+    /**
+     * Retries stop once the retry budget is exhausted
+     *
+     * @throws Exception
+     */
+    @Test
+    public void retryBudgetExhausted() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                hits.incrementAndGet();
+                response.setStatus(HTTP_UNAVAILABLE);
+            }
+        };
+        RetryBudget budget = new RetryBudget(0, 2);
+        RetryPolicy policy = RetryPolicy.builder().maxAttempts(5)
+                .backoff(1, 10, TimeUnit.MILLISECONDS).budget(budget).build();
+        assertEquals(HTTP_UNAVAILABLE, get(url).retry(policy).code());
+        assertEquals(3, hits.get());
+        assertEquals(0, budget.available());
+        assertEquals(HTTP_UNAVAILABLE, get(url).retry(policy).code());
+        assertEquals(4, hits.get());
+    }
+
+    /******************************* Hedge Tests ***********************************/
+
+    /**
+     * A slow GET request is hedged and the faster copy wins
+     *
+     * @throws Exception
+     */
+    @Test
+    public void hedgeSlowRequest() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                int hit = hits.incrementAndGet();
+                if (hit == 1) {
+                    try {
+                        Thread.sleep(2000);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                response.setStatus(HTTP_OK);
+                try {
+                    response.getWriter().print("hit" + hit);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        HedgePolicy policy = HedgePolicy.fixed(100, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        OkHttpRequest request = get(url).hedge(policy);
+        assertTrue(request.ok());
+        assertEquals("hit2", request.body());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1500));
+        assertEquals(1, policy.hedgesSent());
+        assertEquals(1, policy.hedgesWon());
+    }
+
+    /**
+     * A fast GET request is not hedged
+     *
+     * @throws Exception
+     */
+    @Test
+    public void hedgeFastRequest() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                hits.incrementAndGet();
+                response.setStatus(HTTP_OK);
+            }
+        };
+        HedgePolicy policy = HedgePolicy.percentile(0.95, 1, TimeUnit.SECONDS);
+        for (int i = 0; i < 5; i++)
+            assertTrue(get(url).hedge(policy).ok());
+        assertEquals(5, hits.get());
+        assertEquals(0, policy.hedgesSent());
+        assertEquals(0, policy.hedgesWon());
+        assertEquals(TimeUnit.SECONDS.toNanos(1), policy.delayNanos());
+    }
+
+    /******************************* Circuit breaker Tests ***********************************/
+
+    /**
+     * Fail fast once the breaker of the host opens after '503' responses
+     *
+     * @throws Exception
+     */
+    @Test
+    public void circuitBreakerOpens() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                hits.incrementAndGet();
+                response.setStatus(HTTP_UNAVAILABLE);
+            }
+        };
+        CircuitBreakerRegistry registry = new CircuitBreakerRegistry(CircuitBreaker.builder()
+                .slidingWindow(10, 3).openDuration(1, TimeUnit.MINUTES).build());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(HTTP_UNAVAILABLE, get(url).circuitBreakers(registry).code());
+        }
+        try {
+            get(url).circuitBreakers(registry).code();
+            fail("Exception not thrown");
+        } catch (CircuitBreakerOpenException e) {
+            assertEquals("localhost", e.getHost());
+        }
+        RequestFuture future = get(url).circuitBreakers(registry).sendAsync();
+        try {
+            future.get();
+            fail("Exception not thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CircuitBreakerOpenException);
+        }
+        assertEquals(3, hits.get());
+    }
+
+    /**
+     * Reject requests to a host once the rate limiter of the profile has no
+     * permits left
+     *
+     * @throws Exception
+     */
+    @Test
+    public void rateLimited() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                hits.incrementAndGet();
+                response.setStatus(HTTP_OK);
+            }
+        };
+        RateLimiter limiter = RateLimiter.builder().rate(1, 1, TimeUnit.MINUTES).burst(2).build();
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("rateLimited")
+                .rateLimiter("localhost", limiter).build();
+        assertTrue(get(url).profile(profile).ok());
+        assertTrue(get(url).profile(profile).ok());
+        try {
+            get(url).profile(profile).code();
+            fail("Exception not thrown");
+        } catch (RateLimitExceededException e) {
+            assertEquals("localhost", e.getHost());
+        }
+        assertEquals(2, hits.get());
+        assertNull(profile.rateLimiter("example.com"));
+    }
+
+    /**
+     * Reject a synchronous request while the bulkhead slot of the host is
+     * held by a slow request
+     *
+     * @throws Exception
+     */
+    @Test
+    public void bulkheadFull() throws Exception {
+        final CountDownLatch arrived = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                arrived.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                response.setStatus(HTTP_OK);
+            }
+        };
+        Bulkhead bulkhead = Bulkhead.builder().maxConcurrentPerHost(1).build();
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("bulkhead")
+                .bulkhead(bulkhead).build();
+        RequestFuture slow = get(url).profile(profile).sendAsync();
+        assertTrue(arrived.await(10, TimeUnit.SECONDS));
+        assertEquals(1, bulkhead.inFlight("localhost"));
+        try {
+            get(url).profile(profile).code();
+            fail("Exception not thrown");
+        } catch (BulkheadFullException e) {
+            assertEquals("localhost", e.getHost());
+        }
+        release.countDown();
+        assertTrue(slow.get(10, TimeUnit.SECONDS).ok());
+        assertEquals(0, bulkhead.inFlight());
+        assertTrue(get(url).profile(profile).ok());
+        assertEquals(1, bulkhead.rejectedCount());
+    }
+
+    /**
+     * Fail an asynchronous request immediately while the bulkhead slot of the
+     * host is held, even if the bulkhead lets synchronous requests wait
+     *
+     * @throws Exception
+     */
+    @Test
+    public void bulkheadFullAsync() throws Exception {
+        final CountDownLatch arrived = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                arrived.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                response.setStatus(HTTP_OK);
+            }
+        };
+        Bulkhead bulkhead = Bulkhead.builder().maxConcurrentPerHost(1)
+                .maxWait(10, TimeUnit.SECONDS).build();
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("bulkheadAsync")
+                .bulkhead(bulkhead).build();
+        RequestFuture slow = get(url).profile(profile).sendAsync();
+        try {
+            assertTrue(arrived.await(10, TimeUnit.SECONDS));
+            long start = System.nanoTime();
+            RequestFuture rejected = get(url).profile(profile).sendAsync();
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            assertTrue(rejected.isDone());
+            try {
+                rejected.join();
+                fail("Exception not thrown");
+            } catch (BulkheadFullException e) {
+                assertEquals("localhost", e.getHost());
+            }
+        } finally {
+            release.countDown();
+        }
+        assertTrue(slow.get(10, TimeUnit.SECONDS).ok());
+        assertEquals(1, bulkhead.rejectedCount());
+    }
+
+    /******************************* Async Tests ***********************************/
+
+    /**
+     * Make an asynchronous GET request and wait on the returned future
+     *
+     * @throws Exception
+     */
+    @Test
+    public void getAsync() throws Exception {
+        final AtomicReference<String> method = new AtomicReference<String>();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                method.set(request.getMethod());
+                response.setStatus(HTTP_OK);
+                write("hello");
+            }
+        };
+        OkHttpRequest request = get(url);
+        RequestFuture future = request.sendAsync();
+        assertSame(request, future.get(10, TimeUnit.SECONDS));
+        assertTrue(future.isDone());
+        assertFalse(future.isCancelled());
+        assertEquals("GET", method.get());
+        assertTrue(request.ok());
+        assertEquals("hello", request.body());
+    }
+
+    /**
+     * Make an asynchronous POST request notifying a callback
+     *
+     * @throws Exception
+     */
+    @Test
+    public void postAsyncWithCallback() throws Exception {
+        final AtomicReference<String> body = new AtomicReference<String>();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                body.set(new String(read()));
+                response.setStatus(HTTP_CREATED);
+            }
+        };
+        final AtomicInteger code = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        OkHttpRequest.post(url).sendAsync("hello", new OkHttpCallback() {
+
+            @Override
+            public void onResponse(OkHttpRequest request) {
+                code.set(request.code());
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure(OkHttpRequest request, HttpRequestException e) {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(HTTP_CREATED, code.get());
+        assertEquals("hello", body.get());
+    }
+
+    /**
+     * Calling code() on a request sent asynchronously waits for the response
+     * instead of sending the request again
+     *
+     * @throws Exception
+     */
+    @Test
+    public void codeWaitsForAsync() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                hits.incrementAndGet();
+                response.setStatus(HTTP_OK);
+            }
+        };
+        OkHttpRequest request = get(url);
+        request.sendAsync();
+        assertEquals(HTTP_OK, request.code());
+        assertEquals(1, hits.get());
+    }
+
+    /**
+     * Failed asynchronous requests complete the future exceptionally
+     *
+     * @throws Exception
+     */
+    @Test
+    public void getAsyncFailure() throws Exception {
+        RequestFuture future = get("http://localhost:1").sendAsync();
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Exception not thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof HttpRequestException);
+        }
+    }
+
+    /**
+     * Cancelling a future cancels its request and releases its tag, a
+     * completed future cannot be cancelled
+     *
+     * @throws Exception
+     */
+    @Test
+    public void cancelAsync() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+                response.setStatus(HTTP_OK);
+                write("hello");
+            }
+        };
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("cancel-async").build();
+        OkHttpRequest request = get(url).profile(profile).tag("cancel-async");
+        RequestFuture future = request.sendAsync();
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        assertFalse(future.cancel(true));
+        try {
+            future.join();
+            fail("Exception not thrown");
+        } catch (HttpRequestException e) {
+            assertNotNull(e.getCause());
+        }
+        for (int i = 0; i < 100 && profile.runningCallCount() > 0; i++)
+            Thread.sleep(50);
+        release.countDown();
+        assertEquals(0, profile.runningCallCount());
+        assertEquals(0, OkHttpRequest.cancel("cancel-async"));
+
+        request = get(url).profile(profile);
+        future = request.sendAsync();
+        future.join();
+        assertFalse(future.cancel(true));
+        assertFalse(future.isCancelled());
+        assertEquals("hello", request.body());
+    }
+
+    /******************************* Batch Tests ***********************************/
+
+    /**
+     * Execute a batch of GET requests with bounded concurrency
+     *
+     * @throws Exception
+     */
+    @Test
+    public void executeAll() throws Exception {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                int current = active.incrementAndGet();
+                while (true) {
+                    int max = maxActive.get();
+                    if (current <= max || maxActive.compareAndSet(max, current))
+                        break;
+                }
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    active.decrementAndGet();
+                }
+                response.setStatus(HTTP_OK);
+                try {
+                    response.getWriter().print(request.getParameter("index"));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        List<OkHttpRequest> requests = new ArrayList<OkHttpRequest>();
+        for (int i = 0; i < 20; i++)
+            requests.add(get(url, false, "index", i));
+        final AtomicInteger completed = new AtomicInteger();
+        List<RequestFuture> results = OkHttpBatch.of(requests).maxConcurrency(4)
+                .maxConcurrencyPerHost(2).deadline(30, TimeUnit.SECONDS)
+                .execute(new OkHttpCallback() {
+
+                    @Override
+                    public void onResponse(OkHttpRequest request) {
+                        completed.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onFailure(OkHttpRequest request, HttpRequestException e) {
+                    }
+                });
+        assertEquals(20, completed.get());
+        assertEquals(20, results.size());
+        for (int i = 0; i < 20; i++)
+            assertEquals(Integer.toString(i), results.get(i).get().body());
+        assertTrue(maxActive.get() <= 2);
+    }
+
+    /**
+     * Requests still running when the batch deadline passes are cancelled
+     *
+     * @throws Exception
+     */
+    @Test
+    public void executeAllDeadline() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                response.setStatus(HTTP_OK);
+            }
+        };
+        List<OkHttpRequest> requests = new ArrayList<OkHttpRequest>();
+        for (int i = 0; i < 4; i++)
+            requests.add(get(url));
+        long start = System.nanoTime();
+        List<RequestFuture> results = OkHttpRequest.executeAll(requests, 2, 2,
+                100, TimeUnit.MILLISECONDS);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(900));
+        for (RequestFuture future : results) {
+            assertTrue(future.isDone());
+            try {
+                future.join();
+                fail("Exception not thrown");
+            } catch (HttpRequestException e) {
+                assertNotNull(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Requests rejected while being started do not disturb the rest of a
+     * batch across several hosts
+     *
+     * @throws Exception
+     */
+    @Test
+    public void executeAllImmediateRejection() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+                write(request.getServerName());
+            }
+        };
+        CircuitBreakerRegistry registry = new CircuitBreakerRegistry(CircuitBreaker.builder()
+                .slidingWindow(10, 3).openDuration(1, TimeUnit.MINUTES).build());
+        CircuitBreaker breaker = registry.forHost("localhost");
+        for (int i = 0; i < 3; i++)
+            breaker.onFailure(0);
+        String other = url.replace("localhost", "127.0.0.1");
+        List<OkHttpRequest> requests = new ArrayList<OkHttpRequest>();
+        requests.add(get(other).circuitBreakers(registry));
+        requests.add(get(url).circuitBreakers(registry));
+        requests.add(get(url).circuitBreakers(registry));
+        requests.add(get(other).circuitBreakers(registry));
+        List<RequestFuture> results = OkHttpBatch.of(requests).maxConcurrencyPerHost(1)
+                .deadline(30, TimeUnit.SECONDS).execute();
+        assertEquals(4, results.size());
+        assertEquals("127.0.0.1", results.get(0).join().body());
+        for (int i = 1; i < 3; i++) {
+            try {
+                results.get(i).join();
+                fail("Exception not thrown");
+            } catch (CircuitBreakerOpenException e) {
+                assertEquals("localhost", e.getHost());
+            }
+        }
+        assertEquals("127.0.0.1", results.get(3).join().body());
+    }
+
+    /**
+     * Requests of a batch hold no connection once they completed, so the
+     * per host limit bounds the open connections
+     *
+     * @throws Exception
+     */
+    @Test
+    public void executeAllBoundsConnections() throws Exception {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                int current = active.incrementAndGet();
+                synchronized (maxActive) {
+                    maxActive.set(Math.max(maxActive.get(), current));
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException ignored) {
+                }
+                active.decrementAndGet();
+                response.setStatus(HTTP_OK);
+                // 并发请求不能共用处理器保存的响应
+                try {
+                    response.getWriter().print(request.getParameter("i"));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("batch-connections")
+                .maxIdleConnections(20).build();
+        List<OkHttpRequest> requests = new ArrayList<OkHttpRequest>();
+        for (int i = 0; i < 20; i++)
+            requests.add(get(url + "?i=" + i).profile(profile));
+        List<RequestFuture> results = OkHttpBatch.of(requests).maxConcurrency(10)
+                .maxConcurrencyPerHost(2).deadline(30, TimeUnit.SECONDS).execute();
+        ConnectionPoolMetrics.Snapshot snapshot = profile.poolMetrics().snapshot();
+        assertTrue(snapshot.toString(), snapshot.newConnections() <= 2);
+        assertEquals(snapshot.idleConnectionCount(), snapshot.connectionCount());
+        assertTrue(maxActive.get() <= 2);
+        for (int i = 0; i < 20; i++)
+            assertEquals(Integer.toString(i), results.get(i).join().body());
+    }
+
+    /******************************* Coalescing Tests ***********************************/
+
+    /**
+     * Concurrent identical GET requests share a single network call
+     *
+     * @throws Exception
+     */
+    @Test
+    public void coalesceIdenticalGets() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                hits.incrementAndGet();
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                response.setStatus(HTTP_OK);
+                write("shared");
+            }
+        };
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 10; i++) {
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    OkHttpRequest request = get(url, false, "key", "hot")
+                            .header("Accept", "text/plain").coalesce("Accept");
+                    if (request.ok())
+                        bodies.add(request.body());
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join(10000);
+        assertEquals(1, hits.get());
+        assertEquals(10, bodies.size());
+        for (String body : bodies)
+            assertEquals("shared", body);
+    }
+
+    /**
+     * Requests whose selected headers differ are not coalesced
+     *
+     * @throws Exception
+     */
+    @Test
+    public void coalesceDistinctHeaders() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                hits.incrementAndGet();
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                response.setStatus(HTTP_OK);
+            }
+        };
+        RequestFuture first = get(url).header("Authorization", "a").coalesce("Authorization").sendAsync();
+        Thread thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                get(url).header("Authorization", "b").coalesce("Authorization").code();
+            }
+        });
+        thread.start();
+        assertTrue(get(url).header("Authorization", "c").coalesce("Authorization").ok());
+        thread.join(10000);
+        assertTrue(first.join().ok());
+        assertEquals(3, hits.get());
+    }
+
+    /******************************* Client profile Tests ***********************************/
+
+    /**
+     * Requests without overrides share the client of the default profile
+     *
+     * @throws Exception
+     */
+    @Test
+    public void defaultProfileShared() throws Exception {
+        OkHttpRequest first = get(url);
+        OkHttpRequest second = get(url);
+        assertSame(OkHttpClients.defaultProfile(), first.profile());
+        assertSame(first.getOkHttpClient(), second.getOkHttpClient());
+        assertSame(OkHttpClients.defaultProfile().client(), first.getOkHttpClient());
+    }
+
+    /**
+     * Overriding a timeout derives a client sharing the profile's pool
+     *
+     * @throws Exception
+     */
+    @Test
+    public void timeoutOverrideDerivesClient() throws Exception {
+        OkHttpRequest request = get(url).readTimeout(1234);
+        OkHttpClientProfile profile = request.profile();
+        assertNotSame(profile.client(), request.getOkHttpClient());
+        assertEquals(1234, request.getOkHttpClient().getReadTimeout());
+        assertSame(profile.client().getConnectionPool(),
+                request.getOkHttpClient().getConnectionPool());
+        assertSame(profile.client(), get(url).readTimeout(profile.readTimeout())
+                .getOkHttpClient());
+    }
+
+    /**
+     * Select a profile by name and by host
+     *
+     * @throws Exception
+     */
+    @Test
+    public void registeredProfiles() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+            }
+        };
+        OkHttpClientProfile named = OkHttpClients.register(OkHttpClientProfile
+                .builder("named").maxIdleConnections(20).readTimeout(5000).build());
+        OkHttpClientProfile local = OkHttpClients.register("localhost",
+                OkHttpClientProfile.builder("local").maxRequestsPerHost(20).build());
+        try {
+            OkHttpRequest request = get(url).profile("named");
+            assertSame(named, request.profile());
+            assertEquals(5000, request.getOkHttpClient().getReadTimeout());
+            assertTrue(request.ok());
+
+            request = get(url);
+            assertSame(local, request.profile());
+            assertEquals(20, request.getOkHttpClient().getDispatcher()
+                    .getMaxRequestsPerHost());
+            assertTrue(request.ok());
+        } finally {
+            OkHttpClients.unregister("named");
+            OkHttpClients.unregister("local");
+        }
+        assertSame(OkHttpClients.defaultProfile(), get(url).profile());
+    }
+
+    /**
+     * Plain 'http' calls use HTTP/1.1 whatever protocols the profile offers
+     *
+     * @throws Exception
+     */
+    @Test
+    public void profileProtocols() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+            }
+        };
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("protocols")
+                .protocols(Protocol.HTTP_2, Protocol.HTTP_1_1).build();
+        OkHttpRequest request = get(url).profile(profile);
+        assertTrue(request.ok());
+        assertEquals("http/1.1", request.protocol());
+        assertEquals(0, profile.poolMetrics().snapshot().multiplexedStreams());
+        try {
+            OkHttpClientProfile.builder("invalid").protocols(Protocol.HTTP_2);
+            fail("Exception not thrown");
+        } catch (IllegalArgumentException e) {
+            // http/1.1 is required
+        }
+    }
+
+    /**
+     * Run the interceptors of the profile on every call
+     *
+     * @throws Exception
+     */
+    @Test
+    public void profileInterceptors() throws Exception {
+        final AtomicReference<String> auth = new AtomicReference<String>();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                auth.set(request.getHeader("Authorization"));
+                response.setStatus(HTTP_OK);
+            }
+        };
+        final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("interceptors")
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public com.squareup.okhttp.Response intercept(Chain chain) throws IOException {
+                        calls.add("application");
+                        return chain.proceed(chain.request().newBuilder()
+                                .header("Authorization", "Bearer token").build());
+                    }
+                })
+                .addNetworkInterceptor(new Interceptor() {
+                    @Override
+                    public com.squareup.okhttp.Response intercept(Chain chain) throws IOException {
+                        calls.add("network " + chain.request().header("Authorization"));
+                        assertNotNull(chain.connection());
+                        return chain.proceed(chain.request());
+                    }
+                }).build();
+        assertTrue(get(url).profile(profile).ok());
+        assertEquals("Bearer token", auth.get());
+        assertEquals(Arrays.asList("application", "network Bearer token"), calls);
+        assertEquals(1, profile.interceptors().size());
+        assertEquals(1, profile.networkInterceptors().size());
+    }
+
+    /******************************* Cache Tests ***********************************/
+
+    /**
+     * Fresh cached responses are served without contacting the server
+     *
+     * @throws Exception
+     */
+    @Test
+    public void cacheHit() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                hits.incrementAndGet();
+                response.setStatus(HTTP_OK);
+                response.setHeader("Cache-Control", "max-age=60");
+                write("cached");
+            }
+        };
+        File directory = File.createTempFile("cache", "");
+        directory.delete();
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("cacheHit")
+                .cache(directory, 1024 * 1024).build();
+        assertEquals("cached", get(url).profile(profile).body());
+        assertEquals("cached", get(url).profile(profile).body());
+        assertEquals(1, hits.get());
+        assertEquals("cached", get(url).profile(profile).useCaches(false).body());
+        assertEquals(2, hits.get());
+        CacheMetrics metrics = profile.cacheMetrics();
+        assertEquals(1, metrics.hitCount());
+        assertEquals(0, metrics.conditionalHitCount());
+        assertEquals(2, metrics.missCount());
+    }
+
+    /**
+     * Stale cached responses are revalidated with 'If-None-Match'
+     *
+     * @throws Exception
+     */
+    @Test
+    public void cacheRevalidate() throws Exception {
+        final AtomicReference<String> ifNoneMatch = new AtomicReference<String>();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                ifNoneMatch.set(request.getHeader("If-None-Match"));
+                response.setHeader("Cache-Control", "no-cache");
+                response.setHeader("ETag", "\"v1\"");
+                if ("\"v1\"".equals(ifNoneMatch.get())) {
+                    response.setStatus(HTTP_NOT_MODIFIED);
+                } else {
+                    response.setStatus(HTTP_OK);
+                    write("etagged");
+                }
+            }
+        };
+        File directory = File.createTempFile("cache", "");
+        directory.delete();
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("cacheRevalidate")
+                .cache(directory, 1024 * 1024).build();
+        assertEquals("etagged", get(url).profile(profile).body());
+        assertNull(ifNoneMatch.get());
+        OkHttpRequest request = get(url).profile(profile);
+        assertEquals(HTTP_OK, request.code());
+        assertEquals("etagged", request.body());
+        assertEquals("\"v1\"", ifNoneMatch.get());
+        CacheMetrics metrics = profile.cacheMetrics();
+        assertEquals(0, metrics.hitCount());
+        assertEquals(1, metrics.conditionalHitCount());
+        assertEquals(1, metrics.missCount());
+        assertEquals(0.5, metrics.hitRatio(), 0.001);
+    }
+
+    /**
+     * Repeated GET requests are served from the body cache until the entry
+     * expires
+     *
+     * @throws Exception
+     */
+    @Test
+    public void bodyCacheHit() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+                write("body" + hits.incrementAndGet());
+            }
+        };
+        BodyCache cache = new BodyCache(1024, 200, TimeUnit.MILLISECONDS);
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("bodyCacheHit").build();
+        OkHttpRequest first = get(url).profile(profile).bodyCache(cache);
+        assertEquals("body1", first.body());
+        OkHttpRequest second = get(url).profile(profile).bodyCache(cache);
+        assertTrue(second.ok());
+        assertEquals("body1", second.body());
+        assertSame(second.body(), get(url).profile(profile).bodyCache(cache).body());
+        assertEquals(1, hits.get());
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        // 解码后的字符串按每字符两字节计入
+        assertEquals(15, cache.size());
+        // 缓存命中不计入延迟
+        assertEquals(1, profile.latencies().histogram("localhost", "2xx").snapshot().count());
+
+        Thread.sleep(300);
+        assertEquals("body2", get(url).bodyCache(cache).body());
+        assertEquals(2, hits.get());
+    }
+
+    /**
+     * Stale entries are served while a background call refreshes them
+     *
+     * @throws Exception
+     */
+    @Test
+    public void bodyCacheStaleWhileRevalidate() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+                write("body" + hits.incrementAndGet());
+            }
+        };
+        BodyCache cache = new BodyCache(1024, 100, TimeUnit.MILLISECONDS)
+                .staleWhileRevalidate(1, TimeUnit.MINUTES);
+        assertEquals("body1", get(url).bodyCache(cache).body());
+        Thread.sleep(200);
+        assertEquals("body1", get(url).bodyCache(cache).body());
+        assertEquals(1, cache.staleHitCount());
+        for (int i = 0; i < 50 && hits.get() < 2; i++)
+            Thread.sleep(20);
+        Thread.sleep(50);
+        assertEquals("body2", get(url).bodyCache(cache).body());
+        assertEquals(2, hits.get());
+    }
+
+    /**
+     * The least recently used entries are evicted to stay within the size
+     * limit
+     *
+     * @throws Exception
+     */
+    @Test
+    public void bodyCacheEviction() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+                write("0123456789");
+            }
+        };
+        BodyCache cache = new BodyCache(25, 1, TimeUnit.MINUTES);
+        get(url, false, "page", 1).bodyCache(cache).bytes();
+        get(url, false, "page", 2).bodyCache(cache).bytes();
+        get(url, false, "page", 1).bodyCache(cache).bytes();
+        get(url, false, "page", 3).bodyCache(cache).bytes();
+        assertEquals(1, cache.evictionCount());
+        assertEquals(20, cache.size());
+        assertEquals(1, cache.hitCount());
+        get(url, false, "page", 1).bodyCache(cache).bytes();
+        assertEquals(2, cache.hitCount());
+        get(url, false, "page", 2).bodyCache(cache).bytes();
+        assertEquals(4, cache.missCount());
+
+        // 解码后条目本身超出容量, 连同较早的条目一起被淘汰
+        assertEquals("0123456789", get(url, false, "page", 2).bodyCache(cache).body());
+        assertEquals(4, cache.evictionCount());
+        assertEquals(0, cache.size());
+    }
+
+    /******************************* Connection pool Tests ***********************************/
+    @Test
+    public void getConnectionPool() throws Exception {
+        final Map<String, String> outputParams = new HashMap<String, String>();
+        final AtomicReference<String> method = new AtomicReference<String>();
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                method.set(request.getMethod());
+                outputParams.put("name", request.getParameter("name"));
+                outputParams.put("number", request.getParameter("number"));
+                try {
+                    Thread.sleep(1000L);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                response.setStatus(HTTP_OK);
+            }
+        };
+
+        for(int i=0;i<100;i++){
+            Thread thread = new Thread(new SimpleRequestThread());
+            thread.start();
+        }
+
+        Thread.sleep(1000*60*3);
+//        Thread.sleep(60*3);
+    }
+
+    static class SimpleRequestThread implements Runnable{
+
+        @Override
+        public void run(){
+            for(int i=0 ;i<100;i++){
+                OkHttpRequest request = get(url, true, "name", "us er", "number", "100");
+                assertTrue(request.ok());
+                System.out.println(request.profile().poolMetrics().snapshot());
+            }
+        }
+    }
+
+    /**
+     * Pool metrics report new and reused connections
+     *
+     * @throws Exception
+     */
+    @Test
+    public void poolMetrics() throws Exception {
+        handler = new RequestHandler() {
+
+            @Override
+            public void handle(Request request, HttpServletResponse response) {
+                response.setStatus(HTTP_OK);
+                write("hello");
+            }
+        };
+        OkHttpClientProfile profile = OkHttpClientProfile.builder("metrics")
+                .maxIdleConnections(10).build();
+        for (int i = 0; i < 5; i++)
+            assertEquals("hello", get(url).profile(profile).body());
+        ConnectionPoolMetrics.Snapshot snapshot = profile.poolMetrics().snapshot();
+        assertEquals(1, snapshot.newConnections());
+        assertEquals(4, snapshot.reusedConnections());
+        assertEquals(1, snapshot.connectionCount());
+        assertEquals(1, snapshot.idleConnectionCount());
+        assertEquals(0, snapshot.multiplexedConnectionCount());
+        assertEquals(0, snapshot.evictedConnections());
+        assertEquals(0.8, snapshot.reuseRatio(), 0.001);
+        assertTrue(snapshot.newConnectionRate() > 0);
+        assertNotNull(snapshot.toString());
+
+        profile.client().getConnectionPool().evictAll();
+        snapshot = profile.poolMetrics().snapshot();
+        assertEquals(0, snapshot.connectionCount());
+        assertEquals(1, snapshot.evictedConnections());
+        assertEquals(0, snapshot.newConnectionRate(), 0);
     }
 
     /******************************* Get Delete Tests ***********************************/